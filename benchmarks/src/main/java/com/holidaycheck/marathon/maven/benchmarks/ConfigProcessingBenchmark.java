@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.holidaycheck.marathon.maven.Utils;
+
+import mesosphere.marathon.client.model.v2.App;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.codehaus.plexus.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of reading, writing and patching Marathon configs of increasing size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConfigProcessingBenchmark {
+
+    /**
+     * Number of env vars and labels in the config.
+     */
+    @Param({"10", "100", "1000", "5000"})
+    public int size;
+
+    private File directory;
+    private String sourceFile;
+    private String targetFile;
+    private App app;
+    private Map<String, String> patches;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, MojoExecutionException {
+        directory = Files.createTempDirectory("marathon-config-benchmark").toFile();
+        sourceFile = SyntheticApps.write(directory, "/benchmark/app", size).getPath();
+        targetFile = new File(directory, "processed.json").getPath();
+        app = Utils.readApp(sourceFile);
+        patches = new HashMap<>();
+        patches.put("id", "/benchmark/patched");
+        patches.put("container.docker.image", "docker-registry.your.org/test/example:2.0");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public App readApp() throws MojoExecutionException {
+        return Utils.readApp(sourceFile);
+    }
+
+    @Benchmark
+    public void writeApp() throws MojoExecutionException {
+        Utils.writeApp(app, targetFile);
+    }
+
+    /**
+     * What processConfig did before patching the config as a stream.
+     */
+    @Benchmark
+    public void readPatchWriteApp() throws MojoExecutionException {
+        final App read = Utils.readApp(sourceFile);
+        read.setId("/benchmark/patched");
+        read.getContainer().getDocker().setImage("docker-registry.your.org/test/example:2.0");
+        Utils.writeApp(read, targetFile);
+    }
+
+    /**
+     * What processConfig does now: read the source once and patch it as a stream.
+     */
+    @Benchmark
+    public void renderApp() throws IOException, MojoExecutionException {
+        try (Reader source = Files.newBufferedReader(new File(sourceFile).toPath(),
+                StandardCharsets.UTF_8)) {
+            Utils.renderApp(source, sourceFile, targetFile, patches,
+                    Collections.<String>emptySet());
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import com.holidaycheck.marathon.maven.DeployMojo;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.ReflectionUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end latency of the deploy goal against a MockWebServer standing in for Marathon.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeployBenchmark {
+
+    private static final String APP_ID = "/benchmark/app";
+
+    /**
+     * Simulated latency of every Marathon response.
+     */
+    @Param({"0", "10", "50"})
+    public long latencyMillis;
+
+    /**
+     * Number of env vars and labels in the deployed config.
+     */
+    @Param({"10", "1000"})
+    public int size;
+
+    private File directory;
+    private MockWebServer server;
+    private DeployMojo mojo;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("marathon-deploy-benchmark").toFile();
+        final File configFile = SyntheticApps.write(directory, APP_ID, size);
+        final String appJson = SyntheticApps.read(configFile);
+
+        server = new MockWebServer();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                if (latencyMillis > 0) {
+                    Thread.sleep(latencyMillis);
+                }
+                if ("GET".equals(request.getMethod())) {
+                    //every deploy creates the app again
+                    return new MockResponse().setResponseCode(404);
+                }
+                return new MockResponse().setResponseCode(201).setBody(appJson);
+            }
+        });
+        server.start();
+
+        mojo = new DeployMojo();
+        mojo.setLog(new QuietLog());
+        ReflectionUtils.setVariableValueInObject(mojo, "marathonHost",
+                server.url("").toString().replaceAll("/$", ""));
+        ReflectionUtils.setVariableValueInObject(mojo, "finalMarathonConfigFile",
+                configFile.getPath());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.shutdown();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public void deploy() throws Exception {
+        mojo.execute();
+    }
+
+    private static final class QuietLog extends SystemStreamLog {
+        @Override
+        public boolean isInfoEnabled() {
+            return false;
+        }
+
+        @Override
+        public void info(CharSequence content) {
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Generates Marathon configs of a given size.
+ */
+final class SyntheticApps {
+
+    private SyntheticApps() {
+    }
+
+    /**
+     * Writes a Marathon config with the given number of env vars and labels, a port per ten
+     * of them and a health check per port.
+     */
+    static File write(File directory, String appId, int size) throws IOException {
+        Files.createDirectories(directory.toPath());
+        final File file = new File(directory, "marathon-" + size + ".json");
+        try (Writer out = new OutputStreamWriter(Files.newOutputStream(file.toPath()),
+                StandardCharsets.UTF_8);
+             JsonWriter writer = new JsonWriter(out)) {
+            writer.setIndent("  ");
+            writer.beginObject();
+            writer.name("id").value(appId);
+            writer.name("instances").value(1);
+            writer.name("cpus").value(0.5);
+            writer.name("mem").value(256);
+
+            final int ports = Math.max(1, size / 10);
+            writer.name("container").beginObject();
+            writer.name("type").value("DOCKER");
+            writer.name("docker").beginObject();
+            writer.name("image").value("docker-registry.your.org/test/example:1.0");
+            writer.name("network").value("BRIDGE");
+            writer.name("portMappings").beginArray();
+            for (int i = 0; i < ports; i++) {
+                writer.beginObject()
+                        .name("containerPort").value(8000 + i)
+                        .name("hostPort").value(0)
+                        .name("protocol").value("tcp")
+                        .endObject();
+            }
+            writer.endArray();
+            writer.endObject();
+            writer.endObject();
+
+            writer.name("env").beginObject();
+            for (int i = 0; i < size; i++) {
+                writer.name("ENV_VARIABLE_" + i).value("some value of the variable " + i);
+            }
+            writer.endObject();
+
+            writer.name("labels").beginObject();
+            for (int i = 0; i < size; i++) {
+                writer.name("com.example.label-" + i).value("label value " + i);
+            }
+            writer.endObject();
+
+            writer.name("healthChecks").beginArray();
+            for (int i = 0; i < ports; i++) {
+                writer.beginObject()
+                        .name("protocol").value("HTTP")
+                        .name("portIndex").value(i)
+                        .name("path").value("/health")
+                        .name("gracePeriodSeconds").value(300)
+                        .name("intervalSeconds").value(60)
+                        .name("timeoutSeconds").value(20)
+                        .name("maxConsecutiveFailures").value(3)
+                        .endObject();
+            }
+            writer.endArray();
+            writer.endObject();
+        }
+        return file;
+    }
+
+    /**
+     * Reads a generated config back as the response body Marathon would send.
+     */
+    static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+}
@@ -21,14 +21,17 @@
 
 package com.holidaycheck.marathon.maven;
 
-import mesosphere.marathon.client.Marathon;
-import mesosphere.marathon.client.utils.MarathonException;
+import com.squareup.okhttp.OkHttpClient;
 
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecution;
-import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 abstract class AbstractMarathonMojo extends AbstractMojo {
 
@@ -38,6 +41,9 @@ abstract class AbstractMarathonMojo extends AbstractMojo {
     @Parameter(defaultValue = "${mojoExecution}", readonly = true)
     protected MojoExecution execution;
 
+    @Parameter(defaultValue = "${project}", readonly = true)
+    protected MavenProject project;
+
     /**
      * Path to JSON file to write when processing Marathon config.
      * Default is ${project.build.directory}/marathon.json
@@ -46,27 +52,178 @@ abstract class AbstractMarathonMojo extends AbstractMojo {
             defaultValue = "${project.build.directory}/marathon.json")
     protected String finalMarathonConfigFile;
 
-    protected boolean appExists(Marathon marathon, String appId) throws MojoExecutionException {
-        try {
-            marathon.getApp(trimLeadingSlash(appId));
-            return true;
-        } catch (MarathonException getAppException) {
-            if (getAppException.getStatus() == 404) {
-                return false;
-            } else {
-                throw new MojoExecutionException("Failed to check if an app " + appId + "exists",
-                        getAppException);
-            }
-        } catch (Exception e) {
-            throw new MojoExecutionException("Failed to check if an app " + appId + "exists", e);
-        }
+    /**
+     * User name for HTTP basic authentication against Marathon.
+     */
+    @Parameter(property = "marathonUsername")
+    protected String marathonUsername;
+
+    /**
+     * Password for HTTP basic authentication against Marathon.
+     */
+    @Parameter(property = "marathonPassword")
+    protected String marathonPassword;
+
+    /**
+     * Token for token based authentication against Marathon (e.g. DC/OS).
+     * Takes precedence over basic authentication.
+     */
+    @Parameter(property = "marathonToken")
+    protected String marathonToken;
+
+    /**
+     * Timeout in milliseconds for establishing a connection to Marathon.
+     */
+    @Parameter(property = "marathonConnectTimeout")
+    protected int marathonConnectTimeout = 10000;
+
+    /**
+     * Timeout in milliseconds for reading a response from Marathon.
+     */
+    @Parameter(property = "marathonReadTimeout")
+    protected int marathonReadTimeout = 60000;
+
+    /**
+     * Maximum number of idle connections to Marathon kept open for reuse by later goals.
+     */
+    @Parameter(property = "marathonMaxIdleConnections")
+    protected int marathonMaxIdleConnections = 5;
+
+    /**
+     * Time in seconds an idle connection to Marathon is kept open for reuse.
+     */
+    @Parameter(property = "marathonKeepAlive")
+    protected int marathonKeepAlive = 300;
+
+    /**
+     * Whether Marathon may send its responses gzip compressed, which mostly pays off
+     * for large app and task lists.
+     */
+    @Parameter(property = "marathonGzip")
+    protected boolean marathonGzip = true;
+
+    /**
+     * Size in bytes from which on request bodies such as app definitions are sent
+     * gzip compressed. Negative to never compress them, which is the default as only
+     * some Marathon versions and proxies accept compressed requests.
+     */
+    @Parameter(property = "marathonGzipRequestThreshold")
+    protected int marathonGzipRequestThreshold = -1;
+
+    /**
+     * Whether HTTP/2 is offered to Marathon. It is only negotiated on HTTPS connections
+     * and lets all calls of the build share a single connection. Off by default, as the
+     * HTTP/2 support of OkHttp 2 is experimental and needs ALPN on the JVM. There is no
+     * switch for the transport itself, calls always go through OkHttp.
+     */
+    @Parameter(property = "marathonHttp2")
+    protected boolean marathonHttp2 = false;
+
+    /**
+     * How often a call to Marathon failing for a transient reason is retried, e.g. when
+     * Marathon is electing a leader or an app is locked by a deployment.
+     */
+    @Parameter(property = "marathonRetries")
+    protected int marathonRetries = 3;
+
+    /**
+     * Initial delay in milliseconds before retrying a call to Marathon. The delay doubles with
+     * every retry and is randomized to spread the retries of concurrent builds.
+     */
+    @Parameter(property = "marathonRetryInitialDelay")
+    protected long marathonRetryInitialDelay = 500L;
+
+    /**
+     * Maximum delay in milliseconds before retrying a call to Marathon.
+     */
+    @Parameter(property = "marathonRetryMaxDelay")
+    protected long marathonRetryMaxDelay = 10000L;
+
+    /**
+     * Number of consecutive failures of a Marathon host after which calls to it are suspended
+     * for marathonCircuitBreakerOpenTime.
+     */
+    @Parameter(property = "marathonCircuitBreakerThreshold")
+    protected int marathonCircuitBreakerThreshold = 5;
+
+    /**
+     * Time in seconds calls to a failing Marathon host are suspended before probing it again.
+     */
+    @Parameter(property = "marathonCircuitBreakerOpenTime")
+    protected int marathonCircuitBreakerOpenTime = 30;
+
+    /**
+     * JSON file to which the durations of the phases of each goal are added, keyed by the
+     * goal and its execution id, e.g. deploy.deploy-api.
+     * Default is ${project.build.directory}/marathon-timings.json
+     */
+    @Parameter(property = "marathonTimingsFile",
+            defaultValue = "${project.build.directory}/marathon-timings.json")
+    protected File marathonTimingsFile;
+
+    /**
+     * Prefix of the project properties holding the durations in milliseconds of the phases
+     * of each goal execution, e.g. marathon.timings.deploy.deploy-api.waitForApp.
+     */
+    @Parameter(property = "marathonTimingsPropertyPrefix")
+    protected String marathonTimingsPropertyPrefix = "marathon.timings.";
+
+    /**
+     * Returns the Marathon client for the given host. Clients are shared by all goals
+     * of the build which use the same host and connection settings.
+     */
+    protected ExtendedMarathon getMarathon(String marathonHost) {
+        return MarathonClientRegistry.forSession(session)
+                .getMarathon(getClientSettings(marathonHost));
+    }
+
+    /**
+     * Returns the HTTP client used to talk to the given host.
+     */
+    protected OkHttpClient getHttpClient(String marathonHost) {
+        return MarathonClientRegistry.forSession(session)
+                .getHttpClient(getClientSettings(marathonHost));
+    }
+
+    /**
+     * Returns the URL of the Marathon instance calls to the given host go to. If the host
+     * lists several instances, this is the current leader.
+     */
+    protected String getMarathonUrl(String marathonHost) {
+        return MarathonClientRegistry.forSession(session)
+                .getUrl(getClientSettings(marathonHost));
     }
 
-    protected String trimLeadingSlash(final String appId) {
-        if (appId != null && appId.startsWith("/")) {
-            return appId.substring(1);
-        } else {
-            return appId;
+    private MarathonClientSettings getClientSettings(String marathonHost) {
+        return new MarathonClientSettings(marathonHost, marathonUsername, marathonPassword,
+                marathonToken, marathonConnectTimeout, marathonReadTimeout,
+                marathonMaxIdleConnections, marathonKeepAlive, marathonGzip,
+                marathonGzipRequestThreshold, marathonHttp2,
+                new RetryPolicy(marathonRetries, marathonRetryInitialDelay, marathonRetryMaxDelay,
+                        marathonCircuitBreakerThreshold,
+                        TimeUnit.SECONDS.toMillis(marathonCircuitBreakerOpenTime)));
+    }
+
+    /**
+     * Publishes the timings of a goal as project properties and in the timings report.
+     */
+    protected void reportTimings(PhaseTimings timings) {
+        if (execution != null) {
+            timings.setExecutionId(execution.getExecutionId());
+        }
+        if (project != null) {
+            timings.exportProperties(project.getProperties(), marathonTimingsPropertyPrefix);
+        }
+        if (marathonTimingsFile != null) {
+            //goals of parallel module builds may share the report
+            synchronized (AbstractMarathonMojo.class) {
+                try {
+                    timings.writeReport(marathonTimingsFile);
+                } catch (IOException e) {
+                    getLog().warn("Failed to write timings to " + marathonTimingsFile + ": "
+                            + e.getMessage());
+                }
+            }
         }
     }
 }
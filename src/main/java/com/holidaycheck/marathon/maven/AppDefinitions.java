@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import mesosphere.marathon.client.model.v2.App;
+import mesosphere.marathon.client.utils.ModelUtils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Semantic comparison of Marathon app definitions.
+ *
+ * Fields Marathon populates on its own (deployments, tasks and their counts, ...) are ignored,
+ * as are values equal to the Marathon defaults, so that a local config and the definition
+ * returned by Marathon compare equal as long as deploying the former would not change the app.
+ */
+final class AppDefinitions {
+
+    /**
+     * Fields describing the state of an app rather than its definition.
+     */
+    private static final Set<String> STATUS_FIELDS = new HashSet<>(Arrays.asList(
+            "version", "versionInfo", "deployments", "tasks", "tasksStaged", "tasksRunning",
+            "tasksHealthy", "tasksUnhealthy", "lastTaskFailure", "readinessCheckResults"));
+
+    /**
+     * Fields assigned by Marathon when they are left out of the definition.
+     */
+    private static final Set<String> ASSIGNED_FIELDS = new HashSet<>(Arrays.asList(
+            "ports", "container.docker.portMappings[].servicePort"));
+
+    /**
+     * Ports for which 0 asks Marathon to assign one, so that 0 matches any assigned port.
+     */
+    private static final Set<String> ASSIGNED_PORTS = new HashSet<>(Arrays.asList(
+            "ports[]"));
+
+    private static final JsonPrimitive ANY_PORT = new JsonPrimitive(0);
+
+    private static final Map<String, JsonElement> DEFAULTS = new HashMap<>();
+
+    static {
+        DEFAULTS.put("instances", new JsonPrimitive(1));
+        DEFAULTS.put("cpus", new JsonPrimitive(1));
+        DEFAULTS.put("mem", new JsonPrimitive(128));
+        DEFAULTS.put("disk", new JsonPrimitive(0));
+        DEFAULTS.put("executor", new JsonPrimitive(""));
+        DEFAULTS.put("requirePorts", new JsonPrimitive(false));
+        DEFAULTS.put("backoffSeconds", new JsonPrimitive(1));
+        DEFAULTS.put("backoffFactor", new JsonPrimitive(1.15));
+        DEFAULTS.put("maxLaunchDelaySeconds", new JsonPrimitive(3600));
+        DEFAULTS.put("upgradeStrategy.minimumHealthCapacity", new JsonPrimitive(1));
+        DEFAULTS.put("upgradeStrategy.maximumOverCapacity", new JsonPrimitive(1));
+        DEFAULTS.put("container.docker.forcePullImage", new JsonPrimitive(false));
+        DEFAULTS.put("container.docker.privileged", new JsonPrimitive(false));
+        DEFAULTS.put("container.docker.portMappings[].hostPort", new JsonPrimitive(0));
+        DEFAULTS.put("container.docker.portMappings[].servicePort", new JsonPrimitive(0));
+        DEFAULTS.put("container.docker.portMappings[].protocol", new JsonPrimitive("tcp"));
+        DEFAULTS.put("healthChecks[].gracePeriodSeconds", new JsonPrimitive(300));
+        DEFAULTS.put("healthChecks[].intervalSeconds", new JsonPrimitive(60));
+        DEFAULTS.put("healthChecks[].timeoutSeconds", new JsonPrimitive(20));
+        DEFAULTS.put("healthChecks[].maxConsecutiveFailures", new JsonPrimitive(3));
+        DEFAULTS.put("healthChecks[].portIndex", new JsonPrimitive(0));
+        DEFAULTS.put("healthChecks[].protocol", new JsonPrimitive("HTTP"));
+        DEFAULTS.put("healthChecks[].path", new JsonPrimitive("/"));
+        DEFAULTS.put("healthChecks[].ignoreHttp1xx", new JsonPrimitive(false));
+    }
+
+    private AppDefinitions() {
+    }
+
+    /**
+     * Checks whether deploying the local definition would leave the remote app unchanged.
+     */
+    static boolean isEquivalent(App local, App remote) {
+        if (local == null || remote == null) {
+            return false;
+        }
+        final JsonElement localTree = normalize(ModelUtils.GSON.toJsonTree(local), "");
+        final JsonElement remoteTree = normalize(ModelUtils.GSON.toJsonTree(remote), "");
+        if (localTree == null || remoteTree == null) {
+            return localTree == remoteTree;
+        }
+        removeStatusFields(localTree);
+        removeStatusFields(remoteTree);
+        removeAssignedFields(localTree, remoteTree, "");
+        return localTree.equals(remoteTree);
+    }
+
+    /**
+     * Whether the app asks Marathon to pull its image on every deployment, which is how a
+     * mutable tag like latest gets rolled out again although the definition is unchanged.
+     */
+    static boolean isForcePullImage(App app) {
+        return app != null && app.getContainer() != null
+                && app.getContainer().getDocker() != null
+                && app.getContainer().getDocker().isForcePullImage();
+    }
+
+    private static void removeStatusFields(JsonElement app) {
+        if (app.isJsonObject()) {
+            for (String field : STATUS_FIELDS) {
+                app.getAsJsonObject().remove(field);
+            }
+        }
+    }
+
+    /**
+     * Drops null, empty and default values, returning null if nothing is left.
+     */
+    private static JsonElement normalize(JsonElement element, String path) {
+        if (element == null || element.isJsonNull()) {
+            return null;
+        }
+        if (element.isJsonObject()) {
+            final JsonObject normalized = new JsonObject();
+            for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+                final JsonElement value = normalize(entry.getValue(),
+                        childPath(path, entry.getKey()));
+                if (value != null) {
+                    normalized.add(entry.getKey(), value);
+                }
+            }
+            return normalized.entrySet().isEmpty() ? null : normalized;
+        }
+        if (element.isJsonArray()) {
+            final JsonArray normalized = new JsonArray();
+            for (JsonElement item : element.getAsJsonArray()) {
+                final JsonElement value = normalize(item, path + "[]");
+                normalized.add(value == null ? new JsonObject() : value);
+            }
+            return normalized.size() == 0 ? null : normalized;
+        }
+        return element.equals(DEFAULTS.get(path)) ? null : element;
+    }
+
+    /**
+     * Removes the fields Marathon assigned on its own from the remote definition, as far as
+     * they are missing from the local one.
+     */
+    private static void removeAssignedFields(JsonElement local, JsonElement remote,
+            String path) {
+        if (local.isJsonObject() && remote.isJsonObject()) {
+            final JsonObject localObject = local.getAsJsonObject();
+            final JsonObject remoteObject = remote.getAsJsonObject();
+            for (String field : keys(remoteObject)) {
+                final String fieldPath = childPath(path, field);
+                if (!localObject.has(field)) {
+                    if (ASSIGNED_FIELDS.contains(fieldPath)) {
+                        remoteObject.remove(field);
+                    }
+                } else {
+                    removeAssignedFields(localObject.get(field), remoteObject.get(field),
+                            fieldPath);
+                }
+            }
+        } else if (local.isJsonArray() && remote.isJsonArray()) {
+            final JsonArray localArray = local.getAsJsonArray();
+            final JsonArray remoteArray = remote.getAsJsonArray();
+            for (int i = 0; i < Math.min(localArray.size(), remoteArray.size()); i++) {
+                if (ASSIGNED_PORTS.contains(path + "[]")
+                        && ANY_PORT.equals(localArray.get(i))) {
+                    remoteArray.set(i, localArray.get(i));
+                } else {
+                    removeAssignedFields(localArray.get(i), remoteArray.get(i), path + "[]");
+                }
+            }
+        }
+    }
+
+    private static Set<String> keys(JsonObject object) {
+        final Set<String> keys = new HashSet<>();
+        for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+            keys.add(entry.getKey());
+        }
+        return keys;
+    }
+
+    private static String childPath(String path, String field) {
+        return path.isEmpty() ? field : path + "." + field;
+    }
+
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import mesosphere.marathon.client.model.v2.App;
+import org.apache.maven.plugin.MojoExecutionException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Orders apps by the {@code dependencies} declared in their definitions.
+ */
+final class AppDependencyGraph {
+
+    private AppDependencyGraph() {
+    }
+
+    /**
+     * Splits the apps into levels, each of which only depends on apps of earlier levels, so
+     * that the apps of a level can be deployed concurrently. Dependencies on apps which are
+     * not part of the given apps are assumed to be satisfied.
+     *
+     * @param apps the apps keyed by an arbitrary key, e.g. their config file
+     * @return the keys of the apps per level, in the order of the given apps within a level
+     * @throws MojoExecutionException if an app is given twice or the dependencies have a cycle
+     */
+    static List<List<String>> getLevels(Map<String, App> apps) throws MojoExecutionException {
+        final Map<String, String> keysByAppId = new HashMap<>();
+        for (Map.Entry<String, App> entry : apps.entrySet()) {
+            final String previous = keysByAppId.put(normalize(entry.getValue().getId()),
+                    entry.getKey());
+            if (previous != null) {
+                throw new MojoExecutionException("App " + entry.getValue().getId()
+                        + " is defined in both " + previous + " and " + entry.getKey());
+            }
+        }
+
+        final Map<String, Set<String>> pendingDependencies = new LinkedHashMap<>();
+        for (Map.Entry<String, App> entry : apps.entrySet()) {
+            final Set<String> dependencies = new LinkedHashSet<>();
+            final App app = entry.getValue();
+            if (app.getDependencies() != null) {
+                for (String dependency : app.getDependencies()) {
+                    final String dependencyKey = keysByAppId.get(resolve(app.getId(), dependency));
+                    if (entry.getKey().equals(dependencyKey)) {
+                        throw new MojoExecutionException("App " + app.getId()
+                                + " depends on itself");
+                    } else if (dependencyKey != null) {
+                        dependencies.add(dependencyKey);
+                    }
+                }
+            }
+            pendingDependencies.put(entry.getKey(), dependencies);
+        }
+
+        final List<List<String>> levels = new ArrayList<>();
+        while (!pendingDependencies.isEmpty()) {
+            final List<String> level = new ArrayList<>();
+            for (Map.Entry<String, Set<String>> entry : pendingDependencies.entrySet()) {
+                if (entry.getValue().isEmpty()) {
+                    level.add(entry.getKey());
+                }
+            }
+            if (level.isEmpty()) {
+                final List<String> cyclicApps = new ArrayList<>();
+                for (String key : pendingDependencies.keySet()) {
+                    cyclicApps.add(apps.get(key).getId());
+                }
+                throw new MojoExecutionException("The dependencies of the apps " + cyclicApps
+                        + " form a cycle");
+            }
+            for (String key : level) {
+                pendingDependencies.remove(key);
+            }
+            for (Set<String> dependencies : pendingDependencies.values()) {
+                dependencies.removeAll(level);
+            }
+            levels.add(level);
+        }
+        return levels;
+    }
+
+    /**
+     * Resolves a dependency, which may be relative to the group of the app, to an app id.
+     */
+    private static String resolve(String appId, String dependency) {
+        if (dependency.startsWith("/")) {
+            return normalize(dependency);
+        }
+        final String normalizedAppId = normalize(appId);
+        final List<String> path = new ArrayList<>();
+        for (String segment : normalizedAppId.substring(1).split("/")) {
+            path.add(segment);
+        }
+        //the last segment is the app itself, relative paths start in its group
+        path.remove(path.size() - 1);
+        for (String segment : dependency.split("/")) {
+            if ("..".equals(segment)) {
+                if (!path.isEmpty()) {
+                    path.remove(path.size() - 1);
+                }
+            } else if (!segment.isEmpty() && !".".equals(segment)) {
+                path.add(segment);
+            }
+        }
+        return "/" + String.join("/", path);
+    }
+
+    private static String normalize(String appId) {
+        if (appId == null) {
+            return "/";
+        }
+        final String trimmed = appId.endsWith("/") ? appId.substring(0, appId.length() - 1)
+                : appId;
+        return trimmed.startsWith("/") ? trimmed : "/" + trimmed;
+    }
+
+}
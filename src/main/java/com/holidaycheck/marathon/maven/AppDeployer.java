@@ -0,0 +1,493 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Collections2;
+import com.squareup.okhttp.OkHttpClient;
+import mesosphere.marathon.client.model.v2.App;
+import mesosphere.marathon.client.model.v2.Deployment;
+import mesosphere.marathon.client.model.v2.GetAppResponse;
+import mesosphere.marathon.client.model.v2.Result;
+import mesosphere.marathon.client.utils.MarathonException;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.holidaycheck.marathon.maven.Utils.getApp;
+import static com.holidaycheck.marathon.maven.Utils.trimLeadingSlash;
+
+/**
+ * Creates or updates a single app in Marathon and optionally waits for its deployment.
+ */
+class AppDeployer {
+
+    /**
+     * What deploying an app did to it.
+     */
+    enum Outcome {
+        CREATED, UPDATED, UNCHANGED,
+        /**
+         * Created or updated by a single request, which does not tell which of the two.
+         */
+        UPSERTED
+    }
+
+    /**
+     * Every how many polls of a pending app the steps of its deployments are fetched for
+     * the progress log, starting with the first, if logDeploymentSteps is set.
+     */
+    private static final int DEPLOYMENT_STEPS_POLL_INTERVAL = 5;
+
+    private final ExtendedMarathon marathon;
+    private final OkHttpClient httpClient;
+    private final String marathonHost;
+    private final Log log;
+
+    private boolean waitForDeploymentFinished = false;
+    private long waitForDeploymentTimeout = 10L;
+    private boolean waitForDeploymentUsingEvents = false;
+    private boolean failOnDeploymentTimeout = false;
+    private boolean logDeploymentSteps = false;
+    private boolean skipUnchanged = true;
+    private boolean upsert = false;
+    private PhaseTimings timings = new PhaseTimings("deploy");
+
+    AppDeployer(ExtendedMarathon marathon, OkHttpClient httpClient, String marathonHost, Log log) {
+        this.marathon = marathon;
+        this.httpClient = httpClient;
+        this.marathonHost = marathonHost;
+        this.log = log;
+    }
+
+    AppDeployer setWaitForDeploymentFinished(boolean waitForDeploymentFinished) {
+        this.waitForDeploymentFinished = waitForDeploymentFinished;
+        return this;
+    }
+
+    /**
+     * Timeout in seconds for waiting for the deployment.
+     */
+    AppDeployer setWaitForDeploymentTimeout(long waitForDeploymentTimeout) {
+        this.waitForDeploymentTimeout = waitForDeploymentTimeout;
+        return this;
+    }
+
+    AppDeployer setWaitForDeploymentUsingEvents(boolean waitForDeploymentUsingEvents) {
+        this.waitForDeploymentUsingEvents = waitForDeploymentUsingEvents;
+        return this;
+    }
+
+    /**
+     * Whether to fail instead of warn if the deployment does not finish in time.
+     */
+    AppDeployer setFailOnDeploymentTimeout(boolean failOnDeploymentTimeout) {
+        this.failOnDeploymentTimeout = failOnDeploymentTimeout;
+        return this;
+    }
+
+    /**
+     * Whether to fetch the cluster wide deployments list every few polls to log the steps of
+     * our deployments. Off by default, as its size grows with the cluster.
+     */
+    AppDeployer setLogDeploymentSteps(boolean logDeploymentSteps) {
+        this.logDeploymentSteps = logDeploymentSteps;
+        return this;
+    }
+
+    /**
+     * Whether to leave apps alone whose definition in Marathon already matches. Apps with
+     * forcePullImage set are always deployed, to pull their image again.
+     */
+    AppDeployer setSkipUnchanged(boolean skipUnchanged) {
+        this.skipUnchanged = skipUnchanged;
+        return this;
+    }
+
+    /**
+     * Whether to create or update the app with a single PUT instead of checking first whether
+     * it exists. Unchanged apps cannot be skipped then, as their definition is not fetched.
+     */
+    AppDeployer setUpsert(boolean upsert) {
+        this.upsert = upsert;
+        return this;
+    }
+
+    /**
+     * Where to record the durations of the phases of the deployment.
+     */
+    AppDeployer setTimings(PhaseTimings timings) {
+        this.timings = timings;
+        return this;
+    }
+
+    DeployResult deploy(App app) throws MojoExecutionException, MojoFailureException {
+        //the stream has to be open before submitting, otherwise we could miss the outcome
+        final DeploymentEventStream eventStream = waitForDeploymentFinished
+                && waitForDeploymentUsingEvents ? openEventStream() : null;
+        try {
+            final DeployResult result = upsert ? upsertApp(app) : createOrUpdateApp(app);
+            //an unchanged app may still be rolled out by an earlier deployment, which is
+            //waited for like ours
+            if (!waitForDeploymentFinished || result.isFinished()) {
+                return result;
+            }
+            final boolean finished;
+            try (PhaseTimings.Phase ignored = timings.start("waitForApp")) {
+                finished = waitForApp(eventStream, app.getId(), result.getDeploymentIds());
+            }
+            return result.withFinished(finished);
+        } finally {
+            if (eventStream != null) {
+                eventStream.close();
+            }
+        }
+    }
+
+    /**
+     * Waits for deployments of the app which have been submitted before, by polling the
+     * deployments list as their completion events may already have been sent.
+     * @return whether all deployments finished in time
+     */
+    boolean awaitDeployments(String appId, Collection<String> deploymentIds)
+            throws MojoExecutionException, MojoFailureException {
+        if (deploymentIds.isEmpty()) {
+            log.info("No deployments of " + appId + " to wait for");
+            return true;
+        }
+        try (PhaseTimings.Phase ignored = timings.start("waitForApp")) {
+            return waitForApp(null, appId, deploymentIds);
+        }
+    }
+
+    private DeploymentEventStream openEventStream() {
+        try {
+            return DeploymentEventStream.open(httpClient, marathonHost, log);
+        } catch (IOException e) {
+            log.warn("Unable to open Marathon event stream, falling back to polling: "
+                    + e.getMessage());
+            return null;
+        }
+    }
+
+    private Result updateApp(App app) throws MojoExecutionException {
+        try (PhaseTimings.Phase ignored = timings.start("updateApp")) {
+            return marathon.updateApp(trimLeadingSlash(app.getId()), app, false);
+        } catch (Exception updateAppException) {
+            throw new MojoExecutionException("Failed to update Marathon config file at "
+                    + marathonHost, updateAppException);
+        }
+    }
+
+    private DeployResult createOrUpdateApp(App app) throws MojoExecutionException {
+        final GetAppResponse existingApp;
+        try (PhaseTimings.Phase ignored = timings.start("appExists")) {
+            existingApp = getApp(marathon, app.getId());
+        }
+        if (existingApp == null) {
+            log.info(app.getId() + " does not exist yet - will be created");
+            return new DeployResult(Outcome.CREATED, null, getDeploymentIds(createApp(app)));
+        } else if (skipUnchanged && !AppDefinitions.isForcePullImage(app)
+                && AppDefinitions.isEquivalent(app, existingApp.getApp())) {
+            final Collection<String> inFlightDeploymentIds =
+                    getDeploymentIds(existingApp.getApp());
+            log.info(app.getId() + " is unchanged - skipping update"
+                    + (inFlightDeploymentIds.isEmpty() ? ""
+                            : ", deployments still in progress: " + inFlightDeploymentIds));
+            return new DeployResult(Outcome.UNCHANGED, null, inFlightDeploymentIds,
+                    inFlightDeploymentIds.isEmpty());
+        } else {
+            log.info(app.getId() + " already exists - will be updated");
+            final Result updateResult = updateApp(app);
+            return new DeployResult(Outcome.UPDATED,
+                    updateResult == null ? null : updateResult.getVersion(),
+                    getDeploymentIds(updateResult));
+        }
+    }
+
+    /**
+     * Creates or updates the app with a single PUT, as Marathon creates an app it is asked
+     * to update if it does not exist yet.
+     */
+    private DeployResult upsertApp(App app) throws MojoExecutionException {
+        log.info(app.getId() + " will be created or updated");
+        final Result result;
+        try (PhaseTimings.Phase ignored = timings.start("upsertApp")) {
+            result = marathon.updateApp(trimLeadingSlash(app.getId()), app, false);
+        } catch (Exception upsertAppException) {
+            throw new MojoExecutionException("Failed to push Marathon config file to "
+                    + marathonHost, upsertAppException);
+        }
+        return new DeployResult(Outcome.UPSERTED, result == null ? null : result.getVersion(),
+                getDeploymentIds(result));
+    }
+
+    private App createApp(App app) throws MojoExecutionException {
+        try (PhaseTimings.Phase ignored = timings.start("createApp")) {
+            return marathon.createApp(app);
+        } catch (Exception createAppException) {
+            throw new MojoExecutionException("Failed to push Marathon config file to "
+                    + marathonHost, createAppException);
+        }
+    }
+
+    private Collection<String> getDeploymentIds(Result result) {
+        if (result == null || result.getDeploymentId() == null) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList(result.getDeploymentId());
+    }
+
+    private Collection<String> getDeploymentIds(App app) {
+        if (app == null || app.getDeployments() == null) {
+            return Collections.emptyList();
+        }
+        return new ArrayList<>(Collections2.transform(
+                app.getDeployments(), new AppDeploymentIdExtractor()));
+    }
+
+    /**
+     * @return whether all deployments finished in time
+     */
+    private boolean waitForApp(DeploymentEventStream eventStream, String appId,
+            Collection<String> deploymentIds) throws MojoExecutionException, MojoFailureException {
+        //capture our start time
+        final Instant startInstant = Instant.now();
+        final Duration waitDuration = Duration.ofSeconds(waitForDeploymentTimeout);
+
+        final Collection<String> pendingDeploymentIds = eventStream == null ? deploymentIds
+                : waitForAppEvents(eventStream, appId, deploymentIds, startInstant, waitDuration);
+        if (pendingDeploymentIds.isEmpty()) {
+            log.info("All deployments are started: " + deploymentIds);
+            return true;
+        }
+
+        try {
+            return waitForApp(appId, pendingDeploymentIds, startInstant, waitDuration);
+        } catch (MarathonException e) {
+            throw new MojoExecutionException("error waiting for app", e);
+        }
+    }
+
+    /**
+     * Consume the Marathon events until all of our deployments are finished, the event stream
+     * ends or we have a timeout.
+     * @return the ids of the deployments which are not known to be finished
+     */
+    private Collection<String> waitForAppEvents(DeploymentEventStream eventStream, String appId,
+            Collection<String> deploymentIds, Instant startInstant, Duration waitDuration)
+            throws MojoFailureException {
+        final Set<String> pendingDeploymentIds = new HashSet<>(deploymentIds);
+        Duration remaining = waitDuration.minus(Duration.between(startInstant, Instant.now()));
+        while (!pendingDeploymentIds.isEmpty() && !remaining.isNegative()
+                && !eventStream.isExhausted()) {
+            final DeploymentEventStream.Event event;
+            try {
+                event = eventStream.poll(remaining.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if (event != null) {
+                timings.increment("waitForApp.events");
+                handleEvent(event, appId, pendingDeploymentIds);
+            }
+            remaining = waitDuration.minus(Duration.between(startInstant, Instant.now()));
+        }
+        if (!pendingDeploymentIds.isEmpty() && eventStream.isExhausted()) {
+            log.warn("Marathon event stream ended, falling back to polling");
+        }
+        return pendingDeploymentIds;
+    }
+
+    private void handleEvent(DeploymentEventStream.Event event, String appId,
+            Set<String> pendingDeploymentIds) throws MojoFailureException {
+        final String eventType = event.getEventType();
+        if (DeploymentEventStream.DEPLOYMENT_SUCCESS.equals(eventType)) {
+            if (pendingDeploymentIds.remove(event.getDeploymentId())) {
+                log.debug("Deployment " + event.getDeploymentId() + " finished");
+            }
+        } else if (DeploymentEventStream.DEPLOYMENT_FAILED.equals(eventType)) {
+            if (pendingDeploymentIds.contains(event.getDeploymentId())) {
+                throw new MojoFailureException("Deployment " + event.getDeploymentId()
+                        + " of " + appId + " failed");
+            }
+        } else if (DeploymentEventStream.STATUS_UPDATE.equals(eventType)
+                && appId.equals(event.getAppId())) {
+            log.info("Task " + event.getTaskId() + " is " + event.getTaskStatus());
+        }
+    }
+
+    /**
+     * Get our app with its deployments in a loop until we find our deployments are
+     * completed or we have a timeout. Only our app is fetched, so a poll costs the same
+     * however many apps are deployed on the cluster. Logs the progress of our deployments
+     * whenever it changes, with their steps fetched every few polls if logDeploymentSteps
+     * is set.
+     * @return whether all deployments finished in time
+     * @throws MarathonException 
+     */
+    private boolean waitForApp(String appId, Collection<String> appDeploymentIds,
+            Instant startInstant, Duration waitDuration)
+            throws MarathonException, MojoFailureException {
+        final DeploymentProgress progress = new DeploymentProgress(appId);
+        int pendingPolls = 0;
+        //loop until we time out, checking at least once.  if we are successful then the loop
+        //will exit
+        while (true) {
+            timings.increment("waitForApp.polls");
+            //get the list of active deployments of our app
+            final GetAppResponse response =
+                    marathon.getAppWithDeployments(trimLeadingSlash(appId));
+            final App app = response == null ? null : response.getApp();
+            final List<String> activeDeploymentIds = new ArrayList<>(getDeploymentIds(app));
+            activeDeploymentIds.retainAll(appDeploymentIds);
+
+            //if none of our ids are in active deployment, then we have started up.
+            if (activeDeploymentIds.isEmpty()) {
+                log.info("All deployments are started: " + appDeploymentIds);
+                return true;
+            }
+            if (Duration.between(startInstant, Instant.now()).compareTo(waitDuration) >= 0) {
+                break;
+            }
+
+            final Collection<Deployment> deployments = logDeploymentSteps
+                    && pendingPolls % DEPLOYMENT_STEPS_POLL_INTERVAL == 0
+                    ? getDeploymentSteps(activeDeploymentIds)
+                    : Collections.<Deployment>emptyList();
+            final String line = progress.update(activeDeploymentIds, deployments, app,
+                    Instant.now());
+            if (line != null) {
+                log.info(line);
+            }
+            pendingPolls++;
+
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException ignored) {}
+        }
+
+        //we broke out of the loop, so we have a timeout.
+        if (failOnDeploymentTimeout) {
+            throw new MojoFailureException("Timeout waiting for deployment of " + appId
+                    + " after " + DeploymentProgress.format(waitDuration) + ": "
+                    + appDeploymentIds);
+        }
+        log.warn("Timeout waiting for deployment: " + appDeploymentIds);
+        return false;
+    }
+    
+    /**
+     * The given deployments with their steps, or none as the progress is logged without them
+     * if they cannot be fetched.
+     */
+    private Collection<Deployment> getDeploymentSteps(Collection<String> deploymentIds) {
+        timings.increment("waitForApp.deploymentSteps");
+        try {
+            final List<Deployment> deployments = new ArrayList<>();
+            for (final Deployment deployment : marathon.getDeployments()) {
+                if (deploymentIds.contains(deployment.getId())) {
+                    deployments.add(deployment);
+                }
+            }
+            return deployments;
+        } catch (Exception e) {
+            log.debug("Unable to get the steps of deployments " + deploymentIds + ": "
+                    + e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * What has been done to an app and the Marathon deployments which resulted from it.
+     */
+    static final class DeployResult {
+        private final Outcome outcome;
+        private final String version;
+        private final Collection<String> deploymentIds;
+        private final boolean finished;
+
+        DeployResult(Outcome outcome, String version, Collection<String> deploymentIds) {
+            this(outcome, version, deploymentIds, false);
+        }
+
+        DeployResult(Outcome outcome, String version, Collection<String> deploymentIds,
+                boolean finished) {
+            this.outcome = outcome;
+            this.version = version;
+            this.deploymentIds = deploymentIds;
+            this.finished = finished;
+        }
+
+        DeployResult withFinished(boolean finished) {
+            return new DeployResult(outcome, version, deploymentIds, finished);
+        }
+
+        Outcome getOutcome() {
+            return outcome;
+        }
+
+        /**
+         * Version of the app in Marathon, if Marathon reported it.
+         */
+        String getVersion() {
+            return version;
+        }
+
+        /**
+         * The deployments submitted for the app, or for an unchanged app those which were
+         * still in progress.
+         */
+        Collection<String> getDeploymentIds() {
+            return deploymentIds;
+        }
+
+        /**
+         * Whether the app is known to have been rolled out, i.e. its deployments have been
+         * waited for and finished in time, or there was nothing to deploy.
+         */
+        boolean isFinished() {
+            return finished;
+        }
+    }
+
+    private static class AppDeploymentIdExtractor implements Function<App.Deployment, String> {
+        @Override
+        public String apply(@Nonnull final App.Deployment input) {
+            return input.getId();
+        }
+    }
+
+}
@@ -21,25 +21,41 @@
 
 package com.holidaycheck.marathon.maven;
 
+import com.holidaycheck.marathon.maven.ExtendedMarathon.AgentTask;
 import mesosphere.marathon.client.Marathon;
-import mesosphere.marathon.client.MarathonClient;
 import mesosphere.marathon.client.model.v2.App;
+import mesosphere.marathon.client.model.v2.GetAppResponse;
 import mesosphere.marathon.client.model.v2.GetAppTasksResponse;
+import mesosphere.marathon.client.model.v2.HealthCheckResult;
 import mesosphere.marathon.client.model.v2.Task;
+import mesosphere.marathon.client.utils.MarathonException;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
-import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
-import org.apache.maven.project.MavenProject;
 
-import java.util.concurrent.Callable;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
 
+import static com.holidaycheck.marathon.maven.Utils.appExists;
+import static com.holidaycheck.marathon.maven.Utils.getApp;
 import static com.holidaycheck.marathon.maven.Utils.readApp;
+import static com.holidaycheck.marathon.maven.Utils.trimLeadingSlash;
 
 /**
  * Sets maven parameters based on the app tasks.
@@ -53,12 +69,33 @@ import static com.holidaycheck.marathon.maven.Utils.readApp;
  * prefix-host0 = somehost
  * prefix-port0-0 = 80
  * prefix-port0-1 = 443
+ *
+ * With minReadyTasks set, the tasks are polled with exponential backoff until at least that
+ * many tasks are running and passing their health checks, and only those tasks are exported.
+ * Errors talking to Marathon then fail the goal, as does a timeout with
+ * failOnReadyTasksTimeout set.
+ *
+ * With tasksFile set, the endpoints are written to that file instead (see
+ * {@link TaskEndpointsFile}) and only &lt;prefix&gt;tasksFile is set, pointing to it. The
+ * tasks of up to five appIds are then fetched app by app, those of more apps with a single
+ * request for the tasks of the whole cluster. They can be filtered by their health, the agent
+ * they run on and the port index. minReadyTasks then counts the ready tasks passing these
+ * filters.
  */
 @Mojo(name = "apptasks", defaultPhase = LifecyclePhase.DEPLOY)
 public class AppTasksMojo extends AbstractMarathonMojo {
 
+    private static final long INITIAL_POLL_INTERVAL_MILLIS = 250L;
+    private static final long MAX_POLL_INTERVAL_MILLIS = 5000L;
+    /**
+     * Most apps whose tasks are fetched one request per app. Beyond that a single request for
+     * the tasks of the whole cluster is cheaper than one round trip per app.
+     */
+    private static final int MAX_APP_TASK_REQUESTS = 5;
+
     /**
-     * URL of the marathon host as specified in pom.xml.
+     * URL of the marathon host as specified in pom.xml. Several instances of a Marathon
+     * cluster can be given separated by commas, calls then go straight to the leader.
      */
     @Parameter(property = "marathonHost", required = true)
     private String marathonHost;
@@ -72,63 +109,400 @@ public class AppTasksMojo extends AbstractMarathonMojo {
     /**
      * Delay for N seconds before requesting tasks. This is important because it could
      * take a while for your service to be provisioned and return something meaningful.
+     * Ignored if minReadyTasks is set, as the tasks are then polled until they are ready.
+     * @deprecated use minReadyTasks, which sets the properties as soon as the tasks are ready
      */
+    @Deprecated
     @Parameter(property = "delay")
     private long delay = 0;
 
-    @Component
-    private MavenProject project;
+    /**
+     * Minimum number of tasks which have to be running and passing their health checks
+     * before the properties are set. By default the tasks are taken as they are.
+     */
+    @Parameter(property = "minReadyTasks")
+    private int minReadyTasks = 0;
+
+    /**
+     * Maximum time in seconds to wait for minReadyTasks to become ready.
+     */
+    @Parameter(property = "readyTasksTimeout")
+    private long readyTasksTimeout = 60L;
+
+    /**
+     * Whether to fail the build if minReadyTasks are not ready within the readyTasksTimeout,
+     * instead of only logging a warning and exporting the tasks which are ready.
+     */
+    @Parameter(property = "failOnReadyTasksTimeout")
+    private boolean failOnReadyTasksTimeout = false;
+
+    /**
+     * File to write the endpoints of all tasks to, instead of setting properties per task.
+     */
+    @Parameter(property = "tasksFile")
+    private File tasksFile;
+
+    /**
+     * Format of the tasksFile, json or csv.
+     */
+    @Parameter(property = "tasksFileFormat")
+    private String tasksFileFormat = TaskEndpointsFile.JSON;
+
+    /**
+     * Ids of the apps whose tasks are written to the tasksFile. By default the app of the
+     * finalMarathonConfigFile. The tasks of more than five apps are taken from the tasks of
+     * the whole cluster, which is fetched on every poll for minReadyTasks and can be large.
+     */
+    @Parameter(property = "appIds")
+    private List<String> appIds = new ArrayList<>();
+
+    /**
+     * Health of the tasks written to the tasksFile: any, healthy, unhealthy or unknown (no
+     * health check results).
+     */
+    @Parameter(property = "taskHealth")
+    private String taskHealth = "any";
+
+    /**
+     * Regular expression the host or agent id of the tasks written to the tasksFile has to
+     * match.
+     */
+    @Parameter(property = "taskAgentPattern")
+    private String taskAgentPattern;
+
+    /**
+     * Indices of the ports written to the tasksFile, all ports by default.
+     */
+    @Parameter(property = "taskPortIndices")
+    private List<Integer> taskPortIndices = new ArrayList<>();
 
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
-        final Marathon marathon = MarathonClient.getInstance(marathonHost);
+        final PhaseTimings timings = new PhaseTimings("apptasks");
+        try {
+            exportAppTasks(timings);
+        } finally {
+            reportTimings(timings);
+        }
+    }
+
+    private void exportAppTasks(PhaseTimings timings)
+            throws MojoExecutionException, MojoFailureException {
+        if (tasksFile != null) {
+            writeTasksFile(timings);
+            return;
+        }
+        final Marathon marathon = getMarathon(marathonHost);
         final App app = readApp(finalMarathonConfigFile);
+        timings.setAppId(app.getId());
         getLog().info("tasks in Marathon instance for " + app.getId());
 
-        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
-        final Callable<Void> callable = () -> {
-            try {
-                if (appExists(marathon, app.getId())) {
-                    getLog().info(app.getId() + " exists - getting app tasks");
-                    getAppTasks(marathon, app);
-                } else {
-                    getLog().warn(app.getId() + " does not exist");
-                }
-            } catch (final MojoExecutionException e) {
-                getLog().error("Problem communicating with Marathon", e);
+        delay(timings);
+        try {
+            final boolean exists;
+            try (PhaseTimings.Phase ignored = timings.start("appExists")) {
+                exists = appExists(marathon, app.getId());
+            }
+            if (exists) {
+                getLog().info(app.getId() + " exists - getting app tasks");
+                getAppTasks(marathon, app, timings);
+            } else {
+                getLog().warn(app.getId() + " does not exist");
+            }
+        } catch (final MojoExecutionException e) {
+            handleMarathonError(e);
+        }
+    }
+
+    /**
+     * Marathon errors only leave the properties unset, unless we wait for ready tasks which
+     * then cannot be known to be ready.
+     */
+    private void handleMarathonError(MojoExecutionException e) throws MojoExecutionException {
+        if (minReadyTasks > 0) {
+            throw e;
+        }
+        getLog().error("Problem communicating with Marathon", e);
+    }
+
+    /**
+     * Polls the tasks with exponential backoff until enough of them are ready or we have a
+     * timeout.
+     */
+    private <T extends Task> List<T> waitForReadyTasks(String description,
+                                                       TaskSource<T> source, Predicate<T> ready)
+            throws MojoExecutionException, MojoFailureException {
+        final Instant deadline = Instant.now().plusSeconds(readyTasksTimeout);
+        long pollInterval = INITIAL_POLL_INTERVAL_MILLIS;
+        while (true) {
+            final List<T> readyTasks = filter(source.fetch(), ready);
+            if (readyTasks.size() >= minReadyTasks) {
+                getLog().info(readyTasks.size() + " tasks of " + description + " are ready");
+                return readyTasks;
+            }
+
+            final long remaining = Duration.between(Instant.now(), deadline).toMillis();
+            if (remaining <= 0 && failOnReadyTasksTimeout) {
+                throw new MojoFailureException("Timeout waiting for " + minReadyTasks
+                        + " ready tasks of " + description + " after " + readyTasksTimeout
+                        + " s, only " + readyTasks.size() + " are ready");
+            } else if (remaining <= 0) {
+                getLog().warn("Timeout waiting for " + minReadyTasks + " ready tasks of "
+                        + description + ", only " + readyTasks.size() + " are ready");
+                return readyTasks;
+            }
+            getLog().debug(readyTasks.size() + " of " + minReadyTasks + " tasks of "
+                    + description + " are ready");
+            sleep(Math.min(pollInterval, remaining));
+            pollInterval = Math.min(pollInterval * 2, MAX_POLL_INTERVAL_MILLIS);
+        }
+    }
+
+    private static <T extends Task> List<T> filter(Collection<T> tasks, Predicate<T> predicate) {
+        final List<T> filtered = new ArrayList<>();
+        for (final T task : tasks) {
+            if (predicate.test(task)) {
+                filtered.add(task);
             }
-            return null;
-        };
-        final ScheduledFuture<Void> future = executor.schedule(callable, delay, TimeUnit.SECONDS);
-        while (!future.isDone() && !future.isCancelled()) {
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException ignored) { }
         }
+        return filtered;
     }
 
-    private void getAppTasks(Marathon marathon, App app) throws MojoExecutionException {
+    /**
+     * A task is ready once it has been started and passes all health checks of the app.
+     */
+    private static boolean isReady(Task task, App app) {
+        return isReady(task, getHealthCheckCount(app));
+    }
+
+    private static boolean isReady(Task task, int healthCheckCount) {
+        if (task.getStartedAt() == null) {
+            return false;
+        }
+        if (healthCheckCount == 0) {
+            return true;
+        }
+        final Collection<HealthCheckResult> results = task.getHealthCheckResults();
+        if (results == null || results.size() < healthCheckCount) {
+            return false;
+        }
+        for (final HealthCheckResult result : results) {
+            if (result == null || !result.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int getHealthCheckCount(App app) {
+        return app == null || app.getHealthChecks() == null ? 0 : app.getHealthChecks().size();
+    }
+
+    /**
+     * Gets the number of health checks of each app, which apps which do not exist don't have.
+     */
+    private Map<String, Integer> fetchHealthCheckCounts(Marathon marathon,
+            Set<String> exportedAppIds, PhaseTimings timings) throws MojoExecutionException {
+        final Map<String, Integer> healthCheckCounts = new HashMap<>();
+        try (PhaseTimings.Phase ignored = timings.start("getApps")) {
+            for (final String appId : exportedAppIds) {
+                final GetAppResponse response = getApp(marathon, appId);
+                healthCheckCounts.put(appId,
+                        getHealthCheckCount(response == null ? null : response.getApp()));
+            }
+        }
+        return healthCheckCounts;
+    }
+
+    private Collection<Task> fetchAppTasks(Marathon marathon, App app, PhaseTimings timings)
+            throws MojoExecutionException {
+        timings.increment("getAppTasks.polls");
+        try (PhaseTimings.Phase ignored = timings.start("getAppTasks")) {
+            final GetAppTasksResponse getAppTasksResponse = marathon.getAppTasks(
+                    trimLeadingSlash(app.getId()));
+            return getAppTasksResponse == null || getAppTasksResponse.getTasks() == null
+                    ? Collections.<Task>emptyList() : getAppTasksResponse.getTasks();
+        } catch (Exception getAppTasksException) {
+            throw new MojoExecutionException("Failed to get tasks for Marathon instance "
+                    + marathonHost, getAppTasksException);
+        }
+    }
+
+    /**
+     * Sleeps for the fixed delay, unless readiness polling replaces it.
+     */
+    private void delay(PhaseTimings timings) throws MojoExecutionException {
+        if (delay <= 0) {
+            return;
+        }
+        if (minReadyTasks > 0) {
+            getLog().warn("Ignoring delay of " + delay + " s, as minReadyTasks is set");
+            return;
+        }
+        try (PhaseTimings.Phase ignored = timings.start("delay")) {
+            sleep(TimeUnit.SECONDS.toMillis(delay));
+        }
+    }
+
+    private void sleep(long millis) throws MojoExecutionException {
         try {
-            final GetAppTasksResponse getAppTasksResponse = marathon.getAppTasks(app.getId());
-            int taskCount = 0;
-            for (final Task task : getAppTasksResponse.getTasks()) {
-                final String hostPropertyName = propertyPrefix + "host" + taskCount;
-                project.getProperties().put(hostPropertyName, task.getHost());
-                getLog().info("Setting " + hostPropertyName + " = " + task.getHost());
-                int portCount = 0;
-                for (final Integer port : task.getPorts()) {
-                    final String portPropertyName = propertyPrefix + "port"
-                            + taskCount + "-" + portCount;
-                    project.getProperties().put(portPropertyName, String.valueOf(port));
-                    getLog().info("Setting " + portPropertyName + " = " + port);
-                    portCount++;
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while waiting for tasks", e);
+        }
+    }
+
+    private void getAppTasks(Marathon marathon, App app, PhaseTimings timings)
+            throws MojoExecutionException, MojoFailureException {
+        final Collection<Task> tasks;
+        if (minReadyTasks > 0) {
+            try (PhaseTimings.Phase ignored = timings.start("waitForReadyTasks")) {
+                tasks = waitForReadyTasks(app.getId(),
+                        () -> fetchAppTasks(marathon, app, timings), task -> isReady(task, app));
+            }
+        } else {
+            tasks = fetchAppTasks(marathon, app, timings);
+        }
+        int taskCount = 0;
+        for (final Task task : tasks) {
+            final String hostPropertyName = propertyPrefix + "host" + taskCount;
+            project.getProperties().put(hostPropertyName, task.getHost());
+            getLog().info("Setting " + hostPropertyName + " = " + task.getHost());
+            int portCount = 0;
+            for (final Integer port : task.getPorts()) {
+                final String portPropertyName = propertyPrefix + "port"
+                        + taskCount + "-" + portCount;
+                project.getProperties().put(portPropertyName, String.valueOf(port));
+                getLog().info("Setting " + portPropertyName + " = " + port);
+                portCount++;
+            }
+            taskCount++;
+        }
+    }
+
+    private void writeTasksFile(PhaseTimings timings)
+            throws MojoExecutionException, MojoFailureException {
+        final Set<String> exportedAppIds = getExportedAppIds();
+        final String description = String.join(", ", exportedAppIds);
+        timings.setAppId(description);
+        final Predicate<AgentTask> taskFilter = getTaskFilter(exportedAppIds);
+        final ExtendedMarathon marathon = getMarathon(marathonHost);
+
+        delay(timings);
+        final List<AgentTask> tasks;
+        try {
+            if (minReadyTasks > 0) {
+                final Map<String, Integer> healthCheckCounts =
+                        fetchHealthCheckCounts(marathon, exportedAppIds, timings);
+                try (PhaseTimings.Phase ignored = timings.start("waitForReadyTasks")) {
+                    tasks = waitForReadyTasks(description,
+                            () -> fetchAgentTasks(marathon, exportedAppIds, timings),
+                            taskFilter.and(task ->
+                                    isReady(task, healthCheckCounts.get(task.getAppId()))));
                 }
-                taskCount++;
+            } else {
+                tasks = filter(fetchAgentTasks(marathon, exportedAppIds, timings), taskFilter);
+            }
+        } catch (final MojoExecutionException e) {
+            handleMarathonError(e);
+            return;
+        }
+
+        final int endpoints;
+        try (PhaseTimings.Phase ignored = timings.start("writeTasksFile")) {
+            endpoints = TaskEndpointsFile.write(tasksFile, tasksFileFormat, tasks,
+                    taskPortIndices);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to write tasks file " + tasksFile, e);
+        }
+        final String propertyName = propertyPrefix + "tasksFile";
+        project.getProperties().put(propertyName, tasksFile.getAbsolutePath());
+        getLog().info("Wrote " + endpoints + " endpoints of " + tasks.size() + " tasks of "
+                + description + " to " + tasksFile + ", setting " + propertyName);
+    }
+
+    private Set<String> getExportedAppIds() throws MojoExecutionException {
+        final Set<String> exportedAppIds = new LinkedHashSet<>();
+        if (appIds.isEmpty()) {
+            exportedAppIds.add("/" + trimLeadingSlash(readApp(finalMarathonConfigFile).getId()));
+        } else {
+            for (final String appId : appIds) {
+                exportedAppIds.add("/" + trimLeadingSlash(appId.trim()));
             }
-        } catch (Exception deleteAppException) {
+        }
+        return exportedAppIds;
+    }
+
+    private Predicate<AgentTask> getTaskFilter(Set<String> exportedAppIds)
+            throws MojoExecutionException {
+        if (!TaskEndpointsFile.JSON.equalsIgnoreCase(tasksFileFormat)
+                && !TaskEndpointsFile.CSV.equalsIgnoreCase(tasksFileFormat)) {
+            throw new MojoExecutionException("Unknown tasksFileFormat " + tasksFileFormat
+                    + ", expected json or csv");
+        }
+        final String health = taskHealth.toLowerCase(Locale.ROOT);
+        if (!health.equals("any") && !health.equals("healthy") && !health.equals("unhealthy")
+                && !health.equals("unknown")) {
+            throw new MojoExecutionException("Unknown taskHealth " + taskHealth
+                    + ", expected any, healthy, unhealthy or unknown");
+        }
+        final Pattern agentPattern = taskAgentPattern == null
+                ? null : Pattern.compile(taskAgentPattern);
+        return task -> exportedAppIds.contains(task.getAppId())
+                && (health.equals("any") || health.equals(TaskEndpointsFile.getHealth(task)))
+                && (agentPattern == null || matches(agentPattern, task.getHost())
+                        || matches(agentPattern, task.getAgentId()));
+    }
+
+    private static boolean matches(Pattern pattern, String value) {
+        return value != null && pattern.matcher(value).matches();
+    }
+
+    /**
+     * Fetches the tasks of the given apps, app by app unless there are too many of them.
+     */
+    private List<AgentTask> fetchAgentTasks(ExtendedMarathon marathon,
+            Set<String> exportedAppIds, PhaseTimings timings) throws MojoExecutionException {
+        timings.increment("getTasks.polls");
+        try (PhaseTimings.Phase ignored = timings.start("getTasks")) {
+            if (exportedAppIds.size() > MAX_APP_TASK_REQUESTS) {
+                return marathon.getAgentTasks().getTasks();
+            }
+            final List<AgentTask> tasks = new ArrayList<>();
+            for (final String appId : exportedAppIds) {
+                tasks.addAll(fetchAgentTasks(marathon, appId));
+            }
+            return tasks;
+        } catch (MojoExecutionException e) {
+            throw e;
+        } catch (Exception getTasksException) {
             throw new MojoExecutionException("Failed to get tasks for Marathon instance "
-                    + marathonHost, deleteAppException);
+                    + marathonHost, getTasksException);
         }
     }
 
+    /**
+     * Fetches the tasks of a single app, which an app which does not exist yet doesn't have.
+     */
+    private List<AgentTask> fetchAgentTasks(ExtendedMarathon marathon, String appId)
+            throws MojoExecutionException {
+        try {
+            return marathon.getAgentTasks(trimLeadingSlash(appId)).getTasks();
+        } catch (MarathonException getTasksException) {
+            if (getTasksException.getStatus() == 404) {
+                return Collections.emptyList();
+            }
+            throw new MojoExecutionException("Failed to get tasks of " + appId
+                    + " for Marathon instance " + marathonHost, getTasksException);
+        }
+    }
+
+    /**
+     * Fetches the current tasks of one or many apps.
+     */
+    private interface TaskSource<T extends Task> {
+        Collection<T> fetch() throws MojoExecutionException;
+    }
+
 }
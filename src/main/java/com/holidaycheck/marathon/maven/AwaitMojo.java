@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Waits for the deployments submitted by the deploy goal with deployAsync, so that other
+ * work of the build can run while Marathon rolls out the apps.
+ */
+@Mojo(name = "await", defaultPhase = LifecyclePhase.PRE_INTEGRATION_TEST)
+public class AwaitMojo extends AbstractMarathonMojo {
+
+    /**
+     * File in which the deploy goal recorded the deployments to wait for.
+     */
+    @Parameter(property = "deploymentStateFile",
+            defaultValue = "${project.build.directory}/marathon-deployments.properties")
+    private File deploymentStateFile;
+
+    /**
+     * Timeout in seconds for waiting for the deployments of all apps together.
+     */
+    @Parameter(property = "waitForDeploymentTimeout")
+    private Long waitForDeploymentTimeout = 10L;
+
+    /**
+     * Whether to fail the build if a deployment does not finish within the
+     * waitForDeploymentTimeout, instead of only logging a warning.
+     */
+    @Parameter(property = "failOnDeploymentTimeout")
+    private boolean failOnDeploymentTimeout = false;
+
+    /**
+     * Whether to log the current step and actions of pending deployments. They are fetched
+     * from the deployments list of the whole cluster every fifth poll, whose size grows with
+     * the number of deployments on the cluster, so this is off by default.
+     */
+    @Parameter(property = "logDeploymentSteps")
+    private boolean logDeploymentSteps = false;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        final PhaseTimings timings = new PhaseTimings("await");
+        try {
+            await(timings);
+        } finally {
+            reportTimings(timings);
+        }
+    }
+
+    private void await(PhaseTimings timings) throws MojoExecutionException, MojoFailureException {
+        final DeploymentState state = new DeploymentState(deploymentStateFile);
+        final Map<String, DeploymentState.Pending> pending;
+        try {
+            pending = state.getAll();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to read deployments from "
+                    + deploymentStateFile, e);
+        }
+        if (pending.isEmpty()) {
+            getLog().info("No deployments to wait for in " + deploymentStateFile);
+            return;
+        }
+
+        //one deadline for all apps, each app waits for what is left of it
+        final Instant deadline = Instant.now().plusSeconds(waitForDeploymentTimeout);
+        for (Map.Entry<String, DeploymentState.Pending> entry : pending.entrySet()) {
+            final String appId = entry.getKey();
+            final long remaining =
+                    Math.max(0L, Duration.between(Instant.now(), deadline).getSeconds());
+            final String marathonHost = entry.getValue().getMarathonHost();
+            getLog().info("waiting for deployments of " + appId + " on " + marathonHost);
+            final boolean finished = new AppDeployer(getMarathon(marathonHost),
+                    getHttpClient(marathonHost), getMarathonUrl(marathonHost), getLog())
+                    .setWaitForDeploymentTimeout(remaining)
+                    .setFailOnDeploymentTimeout(failOnDeploymentTimeout)
+                    .setLogDeploymentSteps(logDeploymentSteps)
+                    .setTimings(timings)
+                    .awaitDeployments(appId, entry.getValue().getDeploymentIds());
+            if (!finished) {
+                //kept for a later await, the deployments are still running
+                continue;
+            }
+            try {
+                state.remove(appId);
+            } catch (IOException e) {
+                getLog().warn("Failed to remove deployments of " + appId + " from "
+                        + deploymentStateFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import com.google.common.base.Charsets;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.eclipse.aether.SessionData;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Base Marathon configs shared by the modules of a build, parsed once per
+ * {@link MavenSession}, and the overlay of module configs onto them.
+ */
+final class BaseConfigCache {
+
+    private static final String SESSION_KEY = BaseConfigCache.class.getName();
+
+    /**
+     * Arrays which are merged element by element instead of being replaced.
+     */
+    private static final Set<String> MERGED_ARRAYS = new HashSet<>(Arrays.asList(
+            "portDefinitions", "portMappings"));
+
+    private final Map<String, Entry> configs = new ConcurrentHashMap<>();
+
+    private BaseConfigCache() {
+    }
+
+    /**
+     * Returns the cache of the given session, creating it on first use. Without a session
+     * nothing is cached.
+     */
+    static BaseConfigCache forSession(MavenSession session) {
+        if (session == null || session.getRepositorySession() == null) {
+            return new BaseConfigCache();
+        }
+        final SessionData data = session.getRepositorySession().getData();
+        final BaseConfigCache cache = (BaseConfigCache) data.get(SESSION_KEY);
+        if (cache != null) {
+            return cache;
+        }
+        data.set(SESSION_KEY, null, new BaseConfigCache());
+        return (BaseConfigCache) data.get(SESSION_KEY);
+    }
+
+    /**
+     * Returns the parsed base config, reading it again only if the file has changed. The
+     * returned object is shared and must not be modified.
+     */
+    JsonObject get(File file) throws MojoExecutionException {
+        final String key = file.getAbsolutePath();
+        final Entry cached = configs.get(key);
+        if (cached != null && cached.lastModified == file.lastModified()
+                && cached.length == file.length()) {
+            return cached.config;
+        }
+        final Entry entry = new Entry(file.lastModified(), file.length(), parse(file));
+        configs.put(key, entry);
+        return entry.config;
+    }
+
+    /**
+     * Reads a config file into a JSON object.
+     */
+    static JsonObject parse(File file) throws MojoExecutionException {
+        try (Reader reader = new InputStreamReader(Files.newInputStream(file.toPath()),
+                Charsets.UTF_8)) {
+            final JsonElement config = new JsonParser().parse(reader);
+            if (!config.isJsonObject()) {
+                throw new MojoExecutionException("Marathon config file " + file
+                        + " does not contain a JSON object");
+            }
+            return config.getAsJsonObject();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Marathon config file not found at " + file, e);
+        } catch (JsonParseException e) {
+            throw new MojoExecutionException("Failed to parse Marathon config file " + file, e);
+        }
+    }
+
+    /**
+     * Merges the overlay onto the base without modifying either.
+     *
+     * Objects like env or labels are merged key by key, portDefinitions and portMappings
+     * element by element. Any other value of the overlay replaces the one of the base, and a
+     * null removes it.
+     */
+    static JsonObject merge(JsonObject base, JsonObject overlay) {
+        final JsonObject merged = new JsonObject();
+        //keep the order of the base, followed by what only the overlay has
+        for (Map.Entry<String, JsonElement> entry : base.entrySet()) {
+            final JsonElement value = overlay.has(entry.getKey())
+                    ? merge(entry.getKey(), entry.getValue(), overlay.get(entry.getKey()))
+                    : entry.getValue();
+            if (!value.isJsonNull()) {
+                merged.add(entry.getKey(), value);
+            }
+        }
+        for (Map.Entry<String, JsonElement> entry : overlay.entrySet()) {
+            if (!base.has(entry.getKey()) && !entry.getValue().isJsonNull()) {
+                merged.add(entry.getKey(), entry.getValue());
+            }
+        }
+        return merged;
+    }
+
+    private static JsonElement merge(String name, JsonElement base, JsonElement overlay) {
+        if (base.isJsonObject() && overlay.isJsonObject()) {
+            return merge(base.getAsJsonObject(), overlay.getAsJsonObject());
+        } else if (base.isJsonArray() && overlay.isJsonArray() && MERGED_ARRAYS.contains(name)) {
+            return merge(base.getAsJsonArray(), overlay.getAsJsonArray());
+        }
+        return overlay;
+    }
+
+    private static JsonArray merge(JsonArray base, JsonArray overlay) {
+        final JsonArray merged = new JsonArray();
+        for (int i = 0; i < Math.max(base.size(), overlay.size()); i++) {
+            if (i >= overlay.size()) {
+                merged.add(base.get(i));
+            } else if (i < base.size() && base.get(i).isJsonObject()
+                    && overlay.get(i).isJsonObject()) {
+                merged.add(merge(base.get(i).getAsJsonObject(),
+                        overlay.get(i).getAsJsonObject()));
+            } else {
+                merged.add(overlay.get(i));
+            }
+        }
+        return merged;
+    }
+
+    private static final class Entry {
+        private final long lastModified;
+        private final long length;
+        private final JsonObject config;
+
+        Entry(long lastModified, long length, JsonObject config) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.config = config;
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the health of a Marathon host. After too many consecutive failures the breaker opens
+ * and every caller backs off until it is time to probe the host again, instead of all of them
+ * piling on a struggling Marathon.
+ *
+ * Once the open time is over the breaker is half-open: a single caller is admitted as the
+ * probe while everybody else keeps being rejected. A successful probe closes the breaker, a
+ * failed one opens it again.
+ */
+final class CircuitBreaker {
+
+    /**
+     * Longest time callers rejected by a half-open breaker back off before checking whether
+     * the probe succeeded.
+     */
+    private static final long PROBE_WAIT_MILLIS = 1000L;
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openNanos;
+    private final Ticker ticker;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures = 0;
+    //when the breaker opened or the probe was admitted
+    private long sinceNanos = 0L;
+
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        this(failureThreshold, openMillis, Ticker.systemTicker());
+    }
+
+    CircuitBreaker(int failureThreshold, long openMillis, Ticker ticker) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+        this.ticker = ticker;
+    }
+
+    /**
+     * Asks for permission to call the host. Once the open time is over the first caller is
+     * admitted as the probe; if the probe never reports back, another one is admitted after
+     * the open time.
+     * @return 0 if the caller may call the host, otherwise how long it should back off
+     */
+    synchronized long acquire() {
+        if (state == State.CLOSED) {
+            return 0L;
+        }
+        final long now = ticker.read();
+        final long remaining = sinceNanos + openNanos - now;
+        if (remaining <= 0) {
+            state = State.HALF_OPEN;
+            sinceNanos = now;
+            return 0L;
+        }
+        final long waitMillis = Math.max(1L, TimeUnit.NANOSECONDS.toMillis(remaining));
+        return state == State.HALF_OPEN ? Math.min(waitMillis, PROBE_WAIT_MILLIS) : waitMillis;
+    }
+
+    synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+    }
+
+    /**
+     * Records a failure of the host, opening the breaker if there have been too many.
+     * A failed probe of a half-open breaker opens it again right away.
+     */
+    synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            sinceNanos = ticker.read();
+        }
+    }
+
+    /**
+     * Whether calls are being rejected, apart from a probe of a half-open breaker.
+     */
+    synchronized boolean isOpen() {
+        return state != State.CLOSED;
+    }
+
+}
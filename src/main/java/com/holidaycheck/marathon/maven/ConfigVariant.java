@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One variant of the Marathon config rendered by the processConfig goal, e.g. for an
+ * environment or a datacenter. Values which are not set are taken from the goal's
+ * configuration or the source config.
+ */
+public class ConfigVariant {
+
+    /**
+     * File to write the rendered config to, relative to the project's basedir.
+     */
+    private File outputFile;
+
+    private String id;
+
+    private String image;
+
+    private Integer instances;
+
+    private Double cpus;
+
+    private Double mem;
+
+    /**
+     * Environment variables to add or replace.
+     */
+    private Map<String, String> env = new HashMap<>();
+
+    /**
+     * Constraints replacing those of the source, each as field:OPERATOR[:value], e.g.
+     * {@code hostname:UNIQUE} or {@code dc:LIKE:eu-.*}.
+     */
+    private List<String> constraints = new ArrayList<>();
+
+    File getOutputFile() {
+        return outputFile;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    String getImage() {
+        return image;
+    }
+
+    Integer getInstances() {
+        return instances;
+    }
+
+    Double getCpus() {
+        return cpus;
+    }
+
+    Double getMem() {
+        return mem;
+    }
+
+    Map<String, String> getEnv() {
+        return env;
+    }
+
+    List<String> getConstraints() {
+        return constraints;
+    }
+
+}
@@ -22,10 +22,13 @@
 package com.holidaycheck.marathon.maven;
 
 import static com.holidaycheck.marathon.maven.Utils.readApp;
+import static com.holidaycheck.marathon.maven.Utils.trimLeadingSlash;
 
-import mesosphere.marathon.client.Marathon;
-import mesosphere.marathon.client.MarathonClient;
 import mesosphere.marathon.client.model.v2.App;
+import mesosphere.marathon.client.model.v2.Deployment;
+import mesosphere.marathon.client.model.v2.GetAppsResponse;
+import mesosphere.marathon.client.model.v2.Result;
+import mesosphere.marathon.client.utils.MarathonException;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
@@ -33,39 +36,268 @@ import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 /**
- * Deletes an instance via Marathon.
+ * Deletes apps via Marathon.
+ *
+ * Deletes the apps listed in {@code appIds}, all apps whose id starts with
+ * {@code appIdPrefix}, or a whole group given as {@code groupId}. Without any of these the
+ * app of the {@code finalMarathonConfigFile} is deleted. Apps are deleted concurrently by up
+ * to {@code deleteThreads} threads, and apps which do not exist count as deleted.
  */
-@Mojo(name = "delete", defaultPhase = LifecyclePhase.DEPLOY)
+@Mojo(name = "delete", defaultPhase = LifecyclePhase.DEPLOY, threadSafe = true)
 public class DeleteMojo extends AbstractMarathonMojo {
 
     /**
-     * URL of the marathon host as specified in pom.xml.
+     * URL of the marathon host as specified in pom.xml. Several instances of a Marathon
+     * cluster can be given separated by commas, calls then go straight to the leader.
      */
     @Parameter(property = "marathonHost", required = true)
     private String marathonHost;
 
+    /**
+     * Ids of the apps to delete.
+     */
+    @Parameter(property = "appIds")
+    private List<String> appIds = new ArrayList<>();
+
+    /**
+     * Deletes all apps whose id starts with this prefix, e.g. /feature-123/ for all apps of
+     * a per-branch environment.
+     */
+    @Parameter(property = "appIdPrefix")
+    private String appIdPrefix;
+
+    /**
+     * Id of a group to delete along with all of its apps in a single deployment.
+     */
+    @Parameter(property = "groupId")
+    private String groupId;
+
+    /**
+     * Maximum number of apps deleted at the same time.
+     */
+    @Parameter(property = "deleteThreads")
+    private int deleteThreads = 4;
+
+    /**
+     * Whether to wait until Marathon has torn the deleted apps down, so that they can be
+     * deployed again right away.
+     */
+    @Parameter(property = "waitForDeploymentFinished")
+    private boolean waitForDeploymentFinished = false;
+
+    @Parameter(property = "waitForDeploymentTimeout")
+    private Long waitForDeploymentTimeout = 10L;
+
+    /**
+     * Whether to fail the build if the deletions do not finish within the
+     * waitForDeploymentTimeout, instead of only logging a warning.
+     */
+    @Parameter(property = "failOnDeploymentTimeout")
+    private boolean failOnDeploymentTimeout = false;
 
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
-        final Marathon marathon = MarathonClient.getInstance(marathonHost);
-        final App app = readApp(finalMarathonConfigFile);
-        getLog().info("deleting Marathon instance for " + app.getId());
-        if (appExists(marathon, app.getId())) {
-            getLog().info(app.getId() + " already exists - will be updated");
-            deleteApp(marathon, app);
+        final PhaseTimings timings = new PhaseTimings("delete");
+        try {
+            delete(timings);
+        } finally {
+            reportTimings(timings);
+        }
+    }
+
+    private void delete(PhaseTimings timings)
+            throws MojoExecutionException, MojoFailureException {
+        final ExtendedMarathon marathon = getMarathon(marathonHost);
+        final List<String> deploymentIds = new ArrayList<>();
+        if (groupId != null) {
+            timings.setAppId(groupId);
+            getLog().info("deleting Marathon group " + groupId);
+            try (PhaseTimings.Phase ignored = timings.start("deleteGroup")) {
+                addDeploymentId(deploymentIds, deleteGroup(marathon, groupId));
+            }
         } else {
-            getLog().warn(app.getId() + " does not exist - nothing to delete");
+            final Set<String> ids = getAppIdsToDelete(marathon, timings);
+            if (ids.isEmpty()) {
+                getLog().warn("No apps starting with " + appIdPrefix + " - nothing to delete");
+                return;
+            }
+            timings.setAppId(String.join(",", ids));
+            getLog().info("deleting Marathon apps " + ids);
+            try (PhaseTimings.Phase ignored = timings.start("deleteApps")) {
+                deploymentIds.addAll(deleteApps(marathon, ids));
+            }
+        }
+        if (waitForDeploymentFinished && !deploymentIds.isEmpty()) {
+            try (PhaseTimings.Phase ignored = timings.start("waitForDeployments")) {
+                waitForDeployments(marathon, deploymentIds, timings);
+            }
+        }
+    }
+
+    private Set<String> getAppIdsToDelete(ExtendedMarathon marathon, PhaseTimings timings)
+            throws MojoExecutionException {
+        final Set<String> ids = new LinkedHashSet<>();
+        for (String appId : appIds) {
+            ids.add("/" + trimLeadingSlash(appId));
+        }
+        if (appIdPrefix != null) {
+            try (PhaseTimings.Phase ignored = timings.start("findApps")) {
+                ids.addAll(findApps(marathon, "/" + trimLeadingSlash(appIdPrefix)));
+            }
+        } else if (ids.isEmpty()) {
+            ids.add("/" + trimLeadingSlash(readApp(finalMarathonConfigFile).getId()));
         }
+        return ids;
     }
 
-    private void deleteApp(Marathon marathon, App app) throws MojoExecutionException {
+    /**
+     * Marathon only filters apps by a part of their id, so the prefix is checked here.
+     */
+    private List<String> findApps(ExtendedMarathon marathon, String prefix)
+            throws MojoExecutionException {
+        final GetAppsResponse response;
+        try {
+            response = marathon.getAppsById(prefix);
+        } catch (Exception e) {
+            throw new MojoExecutionException("Failed to list the apps of " + marathonHost, e);
+        }
+        final List<String> ids = new ArrayList<>();
+        if (response != null && response.getApps() != null) {
+            for (App app : response.getApps()) {
+                if (app.getId() != null && app.getId().startsWith(prefix)) {
+                    ids.add(app.getId());
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return the ids of the deployments tearing down the apps
+     */
+    private List<String> deleteApps(ExtendedMarathon marathon, Set<String> ids)
+            throws MojoExecutionException {
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(deleteThreads, ids.size())));
+        try {
+            final Map<String, Future<Result>> deletions = new LinkedHashMap<>();
+            for (String appId : ids) {
+                deletions.put(appId, executor.submit(() -> deleteApp(marathon, appId)));
+            }
+            final List<String> deploymentIds = new ArrayList<>();
+            final List<String> failedApps = new ArrayList<>();
+            for (Map.Entry<String, Future<Result>> deletion : deletions.entrySet()) {
+                try {
+                    addDeploymentId(deploymentIds, deletion.getValue().get());
+                } catch (ExecutionException e) {
+                    failedApps.add(deletion.getKey());
+                    getLog().error("Failed to delete " + deletion.getKey() + ": "
+                            + e.getCause().getMessage(), e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new MojoExecutionException("Interrupted while deleting "
+                            + deletion.getKey(), e);
+                }
+            }
+            if (!failedApps.isEmpty()) {
+                throw new MojoExecutionException("Failed to delete " + failedApps + " from "
+                        + marathonHost);
+            }
+            return deploymentIds;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the result of the deletion or null if the app did not exist
+     */
+    private Result deleteApp(ExtendedMarathon marathon, String appId) throws MarathonException {
         try {
-            marathon.deleteApp(app.getId());
-        } catch (Exception deleteAppException) {
-            throw new MojoExecutionException("Failed to delete Marathon instance "
-                    + marathonHost, deleteAppException);
+            final Result result = marathon.deleteApp(trimLeadingSlash(appId));
+            getLog().info("deleted " + appId);
+            return result;
+        } catch (MarathonException e) {
+            if (e.getStatus() != 404) {
+                throw e;
+            }
+            getLog().info(appId + " does not exist - nothing to delete");
+            return null;
+        }
+    }
+
+    private Result deleteGroup(ExtendedMarathon marathon, String id)
+            throws MojoExecutionException {
+        try {
+            return marathon.deleteGroup(trimLeadingSlash(id));
+        } catch (MarathonException e) {
+            if (e.getStatus() != 404) {
+                throw new MojoExecutionException("Failed to delete group " + id + " from "
+                        + marathonHost, e);
+            }
+            getLog().info(id + " does not exist - nothing to delete");
+            return null;
+        } catch (Exception e) {
+            throw new MojoExecutionException("Failed to delete group " + id + " from "
+                    + marathonHost, e);
+        }
+    }
+
+    private static void addDeploymentId(List<String> deploymentIds, Result result) {
+        if (result != null && result.getDeploymentId() != null) {
+            deploymentIds.add(result.getDeploymentId());
+        }
+    }
+
+    /**
+     * Polls the deployments in a loop until none of ours is left or we have a timeout. The
+     * deleted apps are gone from Marathon right away, so only the deployments list tells
+     * whether they have been torn down.
+     */
+    private void waitForDeployments(ExtendedMarathon marathon, List<String> deploymentIds,
+            PhaseTimings timings) throws MojoExecutionException, MojoFailureException {
+        final Instant startInstant = Instant.now();
+        final Duration waitDuration = Duration.ofSeconds(waitForDeploymentTimeout);
+        while (Duration.between(startInstant, Instant.now()).compareTo(waitDuration) < 0) {
+            timings.increment("waitForDeployments.polls");
+            final Set<String> active = new HashSet<>();
+            try {
+                for (Deployment deployment : marathon.getDeployments()) {
+                    active.add(deployment.getId());
+                }
+            } catch (Exception e) {
+                throw new MojoExecutionException("error waiting for deletions", e);
+            }
+            active.retainAll(deploymentIds);
+            if (active.isEmpty()) {
+                getLog().info("All deletions are finished: " + deploymentIds);
+                return;
+            }
+            try {
+                Thread.sleep(1000);
+            } catch (InterruptedException ignored) {}
+        }
+
+        if (failOnDeploymentTimeout) {
+            throw new MojoFailureException("Timeout waiting for deletions after "
+                    + DeploymentProgress.format(waitDuration) + ": " + deploymentIds);
         }
+        getLog().warn("Timeout waiting for deletions: " + deploymentIds);
     }
 
 }
@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import mesosphere.marathon.client.model.v2.App;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.codehaus.plexus.util.DirectoryScanner;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.holidaycheck.marathon.maven.Utils.readApp;
+
+/**
+ * Deploys many Marathon configs at once, running up to {@code deployThreads} deployments
+ * concurrently.
+ *
+ * With {@code deployInDependencyOrder} the apps are deployed level by level along the
+ * {@code dependencies} declared in their configs: the apps of a level are deployed
+ * concurrently and their deployments are awaited before the next level starts. A level
+ * which does not finish within the waitForDeploymentTimeout fails the build regardless of
+ * failOnDeploymentTimeout, as the apps depending on it would be deployed too early.
+ */
+@Mojo(name = "deploy-all", defaultPhase = LifecyclePhase.DEPLOY, threadSafe = true)
+public class DeployAllMojo extends AbstractMarathonMojo {
+
+    /**
+     * URL of the marathon host as specified in pom.xml. Several instances of a Marathon
+     * cluster can be given separated by commas, calls then go straight to the leader.
+     */
+    @Parameter(property = "marathonHost", required = true)
+    private String marathonHost;
+
+    /**
+     * Directory to look for Marathon config files in.
+     */
+    @Parameter(property = "marathonConfigDirectory", defaultValue = "${basedir}")
+    private File marathonConfigDirectory;
+
+    /**
+     * Patterns of the Marathon config files to deploy, relative to the config directory.
+     * Default is all marathon.json files.
+     */
+    @Parameter
+    private List<String> marathonConfigIncludes;
+
+    /**
+     * Patterns of files to leave out, relative to the config directory.
+     * Default is everything below target directories.
+     */
+    @Parameter
+    private List<String> marathonConfigExcludes;
+
+    /**
+     * Maximum number of deployments running at the same time.
+     */
+    @Parameter(property = "deployThreads")
+    private int deployThreads = 4;
+
+    @Parameter(property = "waitForDeploymentFinished")
+    private boolean waitForDeploymentFinished = false;
+
+    @Parameter(property = "waitForDeploymentTimeout")
+    private Long waitForDeploymentTimeout = 10L;
+
+    /**
+     * Whether to fail the build if a deployment does not finish within the
+     * waitForDeploymentTimeout, instead of only logging a warning.
+     */
+    @Parameter(property = "failOnDeploymentTimeout")
+    private boolean failOnDeploymentTimeout = false;
+
+    /**
+     * Whether to log the current step and actions of pending deployments. They are fetched
+     * from the deployments list of the whole cluster every fifth poll, whose size grows with
+     * the number of deployments on the cluster, so this is off by default.
+     */
+    @Parameter(property = "logDeploymentSteps")
+    private boolean logDeploymentSteps = false;
+
+    /**
+     * Whether to follow the deployments on the Marathon event stream (/v2/events) instead of
+     * polling the deployments list. Polling is used if the event stream cannot be opened.
+     */
+    @Parameter(property = "waitForDeploymentUsingEvents")
+    private boolean waitForDeploymentUsingEvents = false;
+
+    /**
+     * Whether to skip updating apps whose definition in Marathon already matches the config,
+     * avoiding needless restarts. Fields populated by Marathon and default values are ignored
+     * in the comparison. Apps with container.docker.forcePullImage set are never skipped, so
+     * that a mutable image tag like latest is pulled and rolled out again.
+     */
+    @Parameter(property = "skipUnchangedApps")
+    private boolean skipUnchangedApps = true;
+
+    /**
+     * Whether to create or update apps with a single PUT instead of checking first whether
+     * they exist, saving a round trip to Marathon per app. skipUnchangedApps has no effect
+     * then, as the definition of the app in Marathon is not fetched.
+     */
+    @Parameter(property = "upsert")
+    private boolean upsert = false;
+
+    /**
+     * Whether to deploy apps only after the apps they declare as dependencies have been
+     * deployed. Dependencies on apps which are not deployed by this goal are ignored.
+     */
+    @Parameter(property = "deployInDependencyOrder")
+    private boolean deployInDependencyOrder = false;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        final List<String> configFiles = findConfigFiles();
+        if (configFiles.isEmpty()) {
+            getLog().warn("No Marathon config files found in " + marathonConfigDirectory);
+            return;
+        }
+        getLog().info("deploying " + configFiles.size() + " Marathon configs to " + marathonHost
+                + " using " + deployThreads + " threads");
+
+        final Map<String, App> apps = new LinkedHashMap<>();
+        for (String configFile : configFiles) {
+            apps.put(configFile, readApp(configFile));
+        }
+
+        final List<List<String>> levels = deployInDependencyOrder
+                ? AppDependencyGraph.getLevels(apps)
+                : Collections.singletonList(new ArrayList<>(apps.keySet()));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(deployThreads, apps.size())));
+        final Map<String, Future<String>> deployments = new LinkedHashMap<>();
+        try {
+            for (int i = 0; i < levels.size(); i++) {
+                //later levels depend on this one, so it has to be rolled out first
+                final boolean dependedOn = i < levels.size() - 1;
+                final boolean waitForLevel = waitForDeploymentFinished || dependedOn;
+                final boolean failOnLevelTimeout = failOnDeploymentTimeout || dependedOn;
+                if (levels.size() > 1) {
+                    getLog().info("deploying level " + (i + 1) + " of " + levels.size() + ": "
+                            + getAppIds(apps, levels.get(i)));
+                }
+                final Map<String, Future<String>> levelDeployments = new LinkedHashMap<>();
+                for (String configFile : levels.get(i)) {
+                    final App app = apps.get(configFile);
+                    levelDeployments.put(configFile,
+                            executor.submit(() -> deploy(app, waitForLevel, failOnLevelTimeout)));
+                }
+                deployments.putAll(levelDeployments);
+                if (!awaitLevel(levelDeployments)) {
+                    break;
+                }
+            }
+            reportSummary(apps, deployments);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Waits for the deployments of a level to be done.
+     * @return whether all of them succeeded
+     */
+    private boolean awaitLevel(Map<String, Future<String>> levelDeployments)
+            throws MojoExecutionException {
+        boolean succeeded = true;
+        for (Map.Entry<String, Future<String>> deployment : levelDeployments.entrySet()) {
+            try {
+                deployment.getValue().get();
+            } catch (ExecutionException e) {
+                succeeded = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MojoExecutionException("Interrupted while deploying "
+                        + deployment.getKey(), e);
+            }
+        }
+        return succeeded;
+    }
+
+    private static List<String> getAppIds(Map<String, App> apps, List<String> configFiles) {
+        final List<String> appIds = new ArrayList<>();
+        for (String configFile : configFiles) {
+            appIds.add(apps.get(configFile).getId());
+        }
+        return appIds;
+    }
+
+    private List<String> findConfigFiles() {
+        if (!marathonConfigDirectory.isDirectory()) {
+            return new ArrayList<>();
+        }
+        final DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir(marathonConfigDirectory);
+        scanner.setIncludes(marathonConfigIncludes == null || marathonConfigIncludes.isEmpty()
+                ? new String[] {"**/marathon.json"}
+                : marathonConfigIncludes.toArray(new String[marathonConfigIncludes.size()]));
+        scanner.setExcludes(marathonConfigExcludes == null || marathonConfigExcludes.isEmpty()
+                ? new String[] {"**/target/**"}
+                : marathonConfigExcludes.toArray(new String[marathonConfigExcludes.size()]));
+        scanner.scan();
+
+        final List<String> configFiles = new ArrayList<>();
+        for (String includedFile : scanner.getIncludedFiles()) {
+            configFiles.add(new File(marathonConfigDirectory, includedFile).getPath());
+        }
+        Collections.sort(configFiles);
+        return configFiles;
+    }
+
+    private String deploy(App app, boolean waitForDeployment, boolean failOnTimeout)
+            throws MojoExecutionException, MojoFailureException {
+        final Instant start = Instant.now();
+        final AppDeployer.DeployResult result = new AppDeployer(getMarathon(marathonHost),
+                getHttpClient(marathonHost), getMarathonUrl(marathonHost), getLog())
+                .setWaitForDeploymentFinished(waitForDeployment)
+                .setWaitForDeploymentTimeout(waitForDeploymentTimeout)
+                .setFailOnDeploymentTimeout(failOnTimeout)
+                .setLogDeploymentSteps(logDeploymentSteps)
+                .setWaitForDeploymentUsingEvents(waitForDeploymentUsingEvents)
+                .setSkipUnchanged(skipUnchangedApps)
+                .setUpsert(upsert)
+                .deploy(app);
+        return result.getOutcome() + " in "
+                + Duration.between(start, Instant.now()).toMillis() + " ms";
+    }
+
+    private void reportSummary(Map<String, App> apps, Map<String, Future<String>> deployments)
+            throws MojoExecutionException, MojoFailureException {
+        final List<String> failedApps = new ArrayList<>();
+        getLog().info("Marathon deployment summary:");
+        for (Map.Entry<String, Future<String>> deployment : deployments.entrySet()) {
+            final String appId = apps.get(deployment.getKey()).getId();
+            try {
+                getLog().info("  SUCCESS " + appId + ": " + deployment.getValue().get());
+            } catch (ExecutionException e) {
+                failedApps.add(appId);
+                getLog().error("  FAILED  " + appId + ": " + e.getCause().getMessage(),
+                        e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MojoExecutionException("Interrupted while deploying " + appId, e);
+            }
+        }
+        final List<String> skippedApps = new ArrayList<>();
+        for (Map.Entry<String, App> app : apps.entrySet()) {
+            if (!deployments.containsKey(app.getKey())) {
+                skippedApps.add(app.getValue().getId());
+                getLog().warn("  SKIPPED " + app.getValue().getId()
+                        + ": a dependency failed to deploy");
+            }
+        }
+        getLog().info((deployments.size() - failedApps.size()) + " of " + apps.size()
+                + " apps deployed");
+        if (!failedApps.isEmpty()) {
+            throw new MojoFailureException("Failed to deploy " + failedApps
+                    + (skippedApps.isEmpty() ? "" : ", skipped " + skippedApps));
+        }
+    }
+
+}
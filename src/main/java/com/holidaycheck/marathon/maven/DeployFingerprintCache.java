@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import org.apache.maven.plugin.MojoExecutionException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Properties;
+
+/**
+ * Remembers which Marathon config has last been deployed successfully to which host, so that
+ * deploying the very same config again can be skipped without asking Marathon.
+ */
+final class DeployFingerprintCache {
+
+    private static final String FINGERPRINT = "fingerprint";
+    private static final String VERSION = "version";
+    private static final String DEPLOYED_AT = "deployedAt";
+
+    private final File directory;
+
+    DeployFingerprintCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Computes the fingerprint of deploying the given config file to the given host.
+     */
+    static String fingerprint(String configFile, String marathonHost)
+            throws MojoExecutionException {
+        try {
+            return Hashing.sha256().newHasher()
+                    .putBytes(Files.readAllBytes(new File(configFile).toPath()))
+                    .putString(marathonHost, Charsets.UTF_8)
+                    .hash().toString();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to read Marathon config file " + configFile,
+                    e);
+        }
+    }
+
+    /**
+     * Looks up the last deployment of the app to the host.
+     * @return the cached deployment or null if there is none younger than the given age
+     */
+    Entry get(String marathonHost, String appId, Duration maxAge) {
+        final File file = getFile(marathonHost, appId);
+        if (!file.isFile()) {
+            return null;
+        }
+        final Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+            final Entry entry = new Entry(properties.getProperty(FINGERPRINT),
+                    properties.getProperty(VERSION),
+                    Instant.parse(properties.getProperty(DEPLOYED_AT)));
+            return entry.deployedAt.plus(maxAge).isAfter(Instant.now()) ? entry : null;
+        } catch (IOException | RuntimeException e) {
+            //an unreadable entry is as good as none
+            return null;
+        }
+    }
+
+    /**
+     * Records a successful deployment of the app to the host.
+     */
+    void put(String marathonHost, String appId, String fingerprint, String version)
+            throws IOException {
+        final Properties properties = new Properties();
+        properties.setProperty(FINGERPRINT, fingerprint);
+        if (version != null) {
+            properties.setProperty(VERSION, version);
+        }
+        properties.setProperty(DEPLOYED_AT, Instant.now().toString());
+
+        Files.createDirectories(directory.toPath());
+        final Path target = getFile(marathonHost, appId).toPath();
+        //write aside and move, so concurrent builds never see a partial entry
+        final Path temp = Files.createTempFile(directory.toPath(), "deploy", ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "Last deployment of " + appId + " to " + marathonHost);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private File getFile(String marathonHost, String appId) {
+        final String key = Hashing.sha256().newHasher()
+                .putString(marathonHost, Charsets.UTF_8)
+                .putChar('\n')
+                .putString(appId, Charsets.UTF_8)
+                .hash().toString();
+        return new File(directory, key + ".properties");
+    }
+
+    static final class Entry {
+        private final String fingerprint;
+        private final String version;
+        private final Instant deployedAt;
+
+        private Entry(String fingerprint, String version, Instant deployedAt) {
+            this.fingerprint = fingerprint;
+            this.version = version;
+            this.deployedAt = deployedAt;
+        }
+
+        String getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * Version of the app in Marathon after the deployment, if known.
+         */
+        String getVersion() {
+            return version;
+        }
+    }
+
+}
@@ -21,13 +21,7 @@
 
 package com.holidaycheck.marathon.maven;
 
-import com.google.common.base.Function;
-import com.google.common.base.Predicate;
-import com.google.common.collect.Collections2;
-import mesosphere.marathon.client.Marathon;
-import mesosphere.marathon.client.MarathonClient;
 import mesosphere.marathon.client.model.v2.App;
-import mesosphere.marathon.client.model.v2.Deployment;
 import mesosphere.marathon.client.utils.MarathonException;
 
 import org.apache.maven.plugin.MojoExecutionException;
@@ -36,13 +30,12 @@ import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 
-import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
 import java.time.Duration;
-import java.time.Instant;
-import java.util.Collection;
-import java.util.Collections;
 
 import static com.holidaycheck.marathon.maven.Utils.readApp;
+import static com.holidaycheck.marathon.maven.Utils.trimLeadingSlash;
 
 /**
  * Deploys via Marathon by sending config.
@@ -51,7 +44,8 @@ import static com.holidaycheck.marathon.maven.Utils.readApp;
 public class DeployMojo extends AbstractMarathonMojo {
 
     /**
-     * URL of the marathon host as specified in pom.xml.
+     * URL of the marathon host as specified in pom.xml. Several instances of a Marathon
+     * cluster can be given separated by commas, calls then go straight to the leader.
      */
     @Parameter(property = "marathonHost", required = true)
     private String marathonHost;
@@ -62,114 +56,200 @@ public class DeployMojo extends AbstractMarathonMojo {
     @Parameter(property = "waitForDeploymentTimeout")
     private Long waitForDeploymentTimeout = 10L;
 
+    /**
+     * Whether to fail the build if a deployment does not finish within the
+     * waitForDeploymentTimeout, instead of only logging a warning.
+     */
+    @Parameter(property = "failOnDeploymentTimeout")
+    private boolean failOnDeploymentTimeout = false;
+
+    /**
+     * Whether to log the current step and actions of pending deployments. They are fetched
+     * from the deployments list of the whole cluster every fifth poll, whose size grows with
+     * the number of deployments on the cluster, so this is off by default.
+     */
+    @Parameter(property = "logDeploymentSteps")
+    private boolean logDeploymentSteps = false;
+
+    /**
+     * Whether to follow the deployment on the Marathon event stream (/v2/events) instead of
+     * polling the deployments list. Polling is used if the event stream cannot be opened.
+     */
+    @Parameter(property = "waitForDeploymentUsingEvents")
+    private boolean waitForDeploymentUsingEvents = false;
+
+    /**
+     * Whether to skip updating apps whose definition in Marathon already matches the config,
+     * avoiding needless restarts. Fields populated by Marathon and default values are ignored
+     * in the comparison. Apps with container.docker.forcePullImage set are never skipped, so
+     * that a mutable image tag like latest is pulled and rolled out again.
+     */
+    @Parameter(property = "skipUnchangedApps")
+    private boolean skipUnchangedApps = true;
+
+    /**
+     * Whether to create or update apps with a single PUT instead of checking first whether
+     * they exist, saving a round trip to Marathon per app. skipUnchangedApps has no effect
+     * then, as the definition of the app in Marathon is not fetched.
+     */
+    @Parameter(property = "upsert")
+    private boolean upsert = false;
+
+    /**
+     * Whether to remember successful deployments and skip deploying the very same config
+     * to the same host again. Only deployments which have been waited for and finished in
+     * time are remembered, so this requires waitForDeploymentFinished. Apps with
+     * forcePullImage set are deployed regardless.
+     */
+    @Parameter(property = "deployCache")
+    private boolean deployCache = false;
+
+    /**
+     * Directory in which successful deployments are remembered.
+     */
+    @Parameter(property = "deployCacheDirectory",
+            defaultValue = "${user.home}/.m2/marathon-deploy-cache")
+    private File deployCacheDirectory;
+
+    /**
+     * Time in seconds for which a remembered deployment is trusted.
+     */
+    @Parameter(property = "deployCacheTtl")
+    private long deployCacheTtl = 3600L;
+
+    /**
+     * Whether to check that the app version in Marathon still is the one which has been
+     * deployed before skipping a deployment. This costs one request, but notices apps which
+     * have been changed or scaled by someone else in the meantime.
+     */
+    @Parameter(property = "deployCacheVerifyVersion")
+    private boolean deployCacheVerifyVersion = true;
+
+    /**
+     * Whether to deploy even if the same config has been deployed before.
+     */
+    @Parameter(property = "forceDeploy")
+    private boolean forceDeploy = false;
+
+    /**
+     * Whether to only submit the app and record its deployments in deploymentStateFile
+     * instead of waiting for them, so that the await goal can wait for them in a later phase.
+     */
+    @Parameter(property = "deployAsync")
+    private boolean deployAsync = false;
+
+    /**
+     * File in which deployments submitted with deployAsync are recorded.
+     */
+    @Parameter(property = "deploymentStateFile",
+            defaultValue = "${project.build.directory}/marathon-deployments.properties")
+    private File deploymentStateFile;
+
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
-        final Marathon marathon = MarathonClient.getInstance(marathonHost);
-        App app = readApp(finalMarathonConfigFile);
-        getLog().info("deploying Marathon config for " + app.getId()
-                + " from " + finalMarathonConfigFile + " to " + marathonHost);
-        if (appExists(marathon, app.getId())) {
-            getLog().info(app.getId() + " already exists - will be updated");
-            updateApp(marathon, app);
-        } else {
-            getLog().info(app.getId() + " does not exist yet - will be created");
-            app = createApp(marathon, app);
+        final PhaseTimings timings = new PhaseTimings("deploy");
+        try {
+            deploy(timings);
+        } finally {
+            reportTimings(timings);
         }
+    }
 
-        if (waitForDeploymentFinished) {
-            try {
-                waitForApp(marathon, app);
-            } catch (MarathonException e) {
-                throw new MojoExecutionException("error waiting for app", e);
-            }
+    private void deploy(PhaseTimings timings)
+            throws MojoExecutionException, MojoFailureException {
+        final App app = readApp(finalMarathonConfigFile);
+        timings.setAppId(app.getId());
+        final ExtendedMarathon marathon = getMarathon(marathonHost);
+
+        final DeployFingerprintCache cache = deployCache
+                ? new DeployFingerprintCache(deployCacheDirectory) : null;
+        final String fingerprint = cache == null ? null
+                : DeployFingerprintCache.fingerprint(finalMarathonConfigFile, marathonHost);
+        if (cache != null && !forceDeploy && !AppDefinitions.isForcePullImage(app)
+                && isDeployed(marathon, cache, app, fingerprint)) {
+            getLog().info(app.getId() + " has already been deployed from this config to "
+                    + marathonHost + " - skipping");
+            return;
         }
-    }
 
-    private void updateApp(Marathon marathon, App app) throws MojoExecutionException {
-        try {
-            marathon.updateApp(trimLeadingSlash(app.getId()), app, false);
-        } catch (Exception updateAppException) {
-            throw new MojoExecutionException("Failed to update Marathon config file at "
-                    + marathonHost, updateAppException);
+        getLog().info("deploying Marathon config for " + app.getId()
+                + " from " + finalMarathonConfigFile + " to " + marathonHost);
+        final AppDeployer.DeployResult result = new AppDeployer(marathon,
+                getHttpClient(marathonHost), getMarathonUrl(marathonHost), getLog())
+                .setWaitForDeploymentFinished(waitForDeploymentFinished && !deployAsync)
+                .setWaitForDeploymentTimeout(waitForDeploymentTimeout)
+                .setFailOnDeploymentTimeout(failOnDeploymentTimeout)
+                .setLogDeploymentSteps(logDeploymentSteps)
+                .setWaitForDeploymentUsingEvents(waitForDeploymentUsingEvents)
+                .setSkipUnchanged(skipUnchangedApps)
+                .setUpsert(upsert)
+                .setTimings(timings)
+                .deploy(app);
+
+        recordDeployments(app, result);
+        if (cache != null && result.isFinished()) {
+            rememberDeployment(marathon, cache, app, fingerprint, result.getVersion());
+        } else if (cache != null) {
+            getLog().info("Not remembering the deployment of " + app.getId()
+                    + " as it has not been seen to finish");
         }
     }
 
-    private App createApp(Marathon marathon, App app) throws MojoExecutionException {
+    private void recordDeployments(App app, AppDeployer.DeployResult result)
+            throws MojoExecutionException {
+        if (deploymentStateFile == null || !deployAsync && !deploymentStateFile.isFile()) {
+            return;
+        }
+        final DeploymentState state = new DeploymentState(deploymentStateFile);
         try {
-            return marathon.createApp(app);
-        } catch (Exception createAppException) {
-            throw new MojoExecutionException("Failed to push Marathon config file to "
-                    + marathonHost, createAppException);
+            if (deployAsync) {
+                state.put(app.getId(), marathonHost, result.getDeploymentIds());
+                getLog().info("Deployments of " + app.getId() + " recorded for await: "
+                        + result.getDeploymentIds());
+            } else {
+                //deployments of an earlier run are superseded by this one
+                state.remove(app.getId());
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to record deployments of " + app.getId()
+                    + " in " + deploymentStateFile, e);
         }
     }
 
-    /**
-     * Get the marathon deployments in a loop until we find our deployment is
-     * completed or we have a timeout.
-     * @throws MarathonException 
-     */
-    private void waitForApp(Marathon marathon, App app) throws MarathonException {
-        //transform our app deployments into a collection of ids
-        final Collection<String> appDeploymentIds = Collections2.transform(
-                app.getDeployments(), new AppDeploymentIdExtractor());
-
-        //capture our start time
-        final Instant startInstant = Instant.now();
-        final Duration waitDuration = Duration.ofSeconds(waitForDeploymentTimeout);
-
-        //loop until we time out.  if we are successful then the loop will exit
-        while (Duration.between(startInstant, Instant.now()).compareTo(waitDuration) < 0) {
-            //get the list of active deployment ids filtered by our app id 
-            final Collection<String> activeDeploymentIds = 
-                    Collections2.transform(Collections2.filter(
-                            marathon.getDeployments(),
-                            new SpecificAppPredicate(app.getId())),
-                            new DeploymentIdExtractor()
-                    );
-
-            //match our app's deployment ids against the list of active ones
-            //  if none of our ids are in active deployment, then we have started up.
-            if (Collections.disjoint(appDeploymentIds, activeDeploymentIds)) {
-                getLog().info("All deployments are started: " + appDeploymentIds);
-                return;
-            }
-            
-            getLog().debug("Deployment still found for at least one deployment id");
-
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException ignored) {}
+    private boolean isDeployed(ExtendedMarathon marathon, DeployFingerprintCache cache, App app,
+            String fingerprint) {
+        final DeployFingerprintCache.Entry entry = cache.get(marathonHost, app.getId(),
+                Duration.ofSeconds(deployCacheTtl));
+        if (entry == null || !fingerprint.equals(entry.getFingerprint())) {
+            return false;
         }
-
-        //we normally exited the while loop, so we have a timeout.
-        getLog().warn("Timeout waiting for deployment: " + appDeploymentIds);
-    }
-    
-    private static class AppDeploymentIdExtractor implements Function<App.Deployment, String> {
-        @Override
-        public String apply(@Nonnull final App.Deployment input) {
-            return input.getId();
+        if (!deployCacheVerifyVersion) {
+            return true;
         }
+        return entry.getVersion() != null
+                && entry.getVersion().equals(getAppVersion(marathon, app));
     }
 
-    private static class DeploymentIdExtractor implements Function<Deployment, String> {
-        @Override
-        public String apply(@Nonnull final Deployment input) {
-            return input.getId();
+    private void rememberDeployment(ExtendedMarathon marathon, DeployFingerprintCache cache,
+            App app, String fingerprint, String version) {
+        try {
+            cache.put(marathonHost, app.getId(), fingerprint,
+                    version == null && deployCacheVerifyVersion
+                            ? getAppVersion(marathon, app) : version);
+        } catch (IOException e) {
+            getLog().warn("Failed to remember deployment of " + app.getId() + " in "
+                    + deployCacheDirectory + ": " + e.getMessage());
         }
     }
 
-    private static class SpecificAppPredicate implements Predicate<Deployment> {
-        
-        final String appId;
-
-        SpecificAppPredicate(final String appId) {
-            this.appId = appId;
-        }
-
-        @Override
-        public boolean apply(@Nonnull final Deployment input) {
-            return input.getAffectedApps().contains(this.appId);
+    private String getAppVersion(ExtendedMarathon marathon, App app) {
+        try {
+            final ExtendedMarathon.GetAppVersionResponse response =
+                    marathon.getAppVersion(trimLeadingSlash(app.getId()));
+            return response == null ? null : response.getVersion();
+        } catch (MarathonException | RuntimeException e) {
+            getLog().debug("Failed to get version of " + app.getId() + ": " + e.getMessage());
+            return null;
         }
     }
 
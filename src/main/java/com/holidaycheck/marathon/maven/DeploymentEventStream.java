@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import com.google.common.base.Charsets;
+import com.google.gson.JsonParseException;
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.HttpUrl;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import mesosphere.marathon.client.utils.ModelUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Subscription to the Marathon event bus ({@code /v2/events}) delivered as server sent events.
+ *
+ * Events are read on a background thread and buffered, so the stream can be opened before
+ * a deployment is submitted without missing its completion.
+ */
+final class DeploymentEventStream implements Closeable {
+
+    static final String DEPLOYMENT_SUCCESS = "deployment_success";
+    static final String DEPLOYMENT_FAILED = "deployment_failed";
+    static final String STATUS_UPDATE = "status_update_event";
+
+    private static final String EVENT_STREAM_MEDIA_TYPE = "text/event-stream";
+
+    /**
+     * Queued once the stream has ended, so that a consumer waiting for events wakes up.
+     */
+    private static final Event END_OF_STREAM = new Event();
+
+    private final Call call;
+    private final Response response;
+    private final Log log;
+    private final BlockingQueue<Event> events = new LinkedBlockingQueue<>();
+
+    private DeploymentEventStream(Call call, Response response, Log log) {
+        this.call = call;
+        this.response = response;
+        this.log = log;
+    }
+
+    /**
+     * Opens the event stream of the given Marathon host.
+     * @throws IOException if the stream cannot be opened
+     */
+    static DeploymentEventStream open(OkHttpClient client, String marathonHost, Log log)
+            throws IOException {
+        final HttpUrl baseUrl = HttpUrl.parse(marathonHost);
+        if (baseUrl == null) {
+            throw new IOException("Invalid Marathon host " + marathonHost);
+        }
+        final HttpUrl url = baseUrl.newBuilder()
+                .addPathSegment("v2")
+                .addPathSegment("events")
+                .addQueryParameter("event_type", DEPLOYMENT_SUCCESS)
+                .addQueryParameter("event_type", DEPLOYMENT_FAILED)
+                .addQueryParameter("event_type", STATUS_UPDATE)
+                .build();
+        final Request request = new Request.Builder()
+                .url(url)
+                .header("Accept", EVENT_STREAM_MEDIA_TYPE)
+                .build();
+
+        final OkHttpClient streamClient = client.clone();
+        streamClient.setReadTimeout(0, TimeUnit.MILLISECONDS);
+        final Call call = streamClient.newCall(request);
+        final Response response = call.execute();
+        final String contentType = response.header("Content-Type", "");
+        if (!response.isSuccessful() || !contentType.startsWith(EVENT_STREAM_MEDIA_TYPE)) {
+            response.body().close();
+            throw new IOException("Unexpected event stream response " + response.code()
+                    + " with content type '" + contentType + "'");
+        }
+
+        final DeploymentEventStream stream = new DeploymentEventStream(call, response, log);
+        final Thread reader = new Thread(stream::readEvents, "marathon-event-stream");
+        reader.setDaemon(true);
+        reader.start();
+        return stream;
+    }
+
+    /**
+     * Retrieves the next event, waiting up to the given time if necessary.
+     * @return the next event or null if none arrived in time or the stream has ended
+     */
+    Event poll(long timeout, TimeUnit unit) throws InterruptedException {
+        final Event event = events.poll(timeout, unit);
+        if (event == END_OF_STREAM) {
+            //keep the marker, so that later calls return right away as well
+            events.add(END_OF_STREAM);
+            return null;
+        }
+        return event;
+    }
+
+    /**
+     * Whether the stream has ended and all of its events have been consumed.
+     */
+    boolean isExhausted() {
+        return events.peek() == END_OF_STREAM;
+    }
+
+    @Override
+    public void close() {
+        call.cancel();
+        try {
+            response.body().close();
+        } catch (IOException ignored) { }
+    }
+
+    private void readEvents() {
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(response.body().byteStream(), Charsets.UTF_8))) {
+            String eventType = null;
+            final StringBuilder data = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    dispatch(eventType, data.toString());
+                    eventType = null;
+                    data.setLength(0);
+                } else if (line.startsWith("event:")) {
+                    eventType = line.substring("event:".length()).trim();
+                } else if (line.startsWith("data:")) {
+                    if (data.length() > 0) {
+                        data.append('\n');
+                    }
+                    data.append(line.substring("data:".length()).trim());
+                }
+            }
+            dispatch(eventType, data.toString());
+        } catch (IOException e) {
+            log.debug("Marathon event stream closed: " + e.getMessage());
+        } finally {
+            events.add(END_OF_STREAM);
+        }
+    }
+
+    private void dispatch(String eventType, String data) {
+        if (data.isEmpty()) {
+            return;
+        }
+        try {
+            final Event event = ModelUtils.GSON.fromJson(data, Event.class);
+            if (event == null) {
+                return;
+            }
+            if (event.eventType == null) {
+                event.eventType = eventType;
+            }
+            events.add(event);
+        } catch (JsonParseException e) {
+            log.debug("Ignoring malformed Marathon event: " + data);
+        }
+    }
+
+    /**
+     * The subset of a Marathon event needed to follow a deployment.
+     */
+    static final class Event {
+        private String eventType;
+        private String id;
+        private Plan plan;
+        private String appId;
+        private String taskId;
+        private String taskStatus;
+
+        String getEventType() {
+            return eventType;
+        }
+
+        /**
+         * Id of the deployment a deployment event refers to.
+         */
+        String getDeploymentId() {
+            if (plan != null && plan.id != null) {
+                return plan.id;
+            }
+            return id;
+        }
+
+        String getAppId() {
+            return appId;
+        }
+
+        String getTaskId() {
+            return taskId;
+        }
+
+        String getTaskStatus() {
+            return taskStatus;
+        }
+    }
+
+    private static final class Plan {
+        private String id;
+    }
+
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import mesosphere.marathon.client.model.v2.App;
+import mesosphere.marathon.client.model.v2.Deployment;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Progress of the deployments of an app as observed by polling the app and, less often, the
+ * steps of the deployments. The ETA is projected from the rate at which the steps have been
+ * completed so far, or from the rate at which tasks have become ready while no step has
+ * been completed yet.
+ *
+ * A task counts as ready once it is healthy, or once it is running if the app has no health
+ * checks.
+ */
+final class DeploymentProgress {
+
+    private final String appId;
+    private final Map<String, StepProgress> steps = new HashMap<>();
+    private Integer firstReady;
+    private Instant firstReadyInstant;
+    private Integer currentReady;
+    private Instant currentReadyInstant;
+    private String lastStatus;
+
+    DeploymentProgress(String appId) {
+        this.appId = appId;
+    }
+
+    /**
+     * Records the current state of the app.
+     * @param deploymentIds the deployments of the app which are still active
+     * @param deployments the steps of deployments fetched since the last update, if any;
+     *                    those of earlier updates are kept for deployments still active
+     * @param app the app with its task counts
+     * @return a progress line if anything changed since the last update, null otherwise
+     */
+    String update(Collection<String> deploymentIds, Collection<Deployment> deployments,
+            App app, Instant now) {
+        for (final Deployment deployment : deployments) {
+            StepProgress stepProgress = steps.get(deployment.getId());
+            if (stepProgress == null) {
+                stepProgress = new StepProgress();
+                steps.put(deployment.getId(), stepProgress);
+            }
+            stepProgress.update(deployment, now);
+        }
+        steps.keySet().retainAll(deploymentIds);
+
+        final int ready = getReady(app);
+        if (firstReady == null) {
+            firstReady = ready;
+            firstReadyInstant = now;
+        }
+        if (currentReady == null || ready != currentReady) {
+            currentReady = ready;
+            currentReadyInstant = now;
+        }
+
+        final String status = describe(deploymentIds, app);
+        if (status.equals(lastStatus)) {
+            return null;
+        }
+        lastStatus = status;
+        return status + ", " + describeEta(app.getInstances(), now);
+    }
+
+    private String describe(Collection<String> deploymentIds, App app) {
+        final List<String> deployments = new ArrayList<>();
+        for (final String deploymentId : deploymentIds) {
+            final StepProgress stepProgress = steps.get(deploymentId);
+            deployments.add(stepProgress == null
+                    ? deploymentId : deploymentId + " " + stepProgress.describe());
+        }
+        final StringBuilder status = new StringBuilder("Deployment ")
+                .append(String.join(", ", deployments))
+                .append(" of ").append(appId)
+                .append(": tasks staged ").append(count(app.getTasksStaged()))
+                .append(", running ").append(count(app.getTasksRunning()))
+                .append(", healthy ").append(count(app.getTasksHealthy()));
+        if (app.getInstances() != null) {
+            status.append(" of ").append(app.getInstances());
+        }
+        return status.toString();
+    }
+
+    /**
+     * The ETA of the slowest deployment whose steps are progressing, or if none are, the
+     * remaining tasks becoming ready at the rate observed while we have been watching, less
+     * the time which has passed since the last one did.
+     */
+    private String describeEta(Integer instances, Instant now) {
+        Duration eta = null;
+        for (final StepProgress stepProgress : steps.values()) {
+            final Duration stepEta = stepProgress.getEta(now);
+            if (stepEta != null && (eta == null || stepEta.compareTo(eta) > 0)) {
+                eta = stepEta;
+            }
+        }
+        if (eta == null && instances != null && currentReady > firstReady) {
+            final Duration perTask = Duration.between(firstReadyInstant, currentReadyInstant)
+                    .dividedBy(currentReady - firstReady);
+            eta = perTask.multipliedBy(Math.max(instances - currentReady, 0))
+                    .minus(Duration.between(currentReadyInstant, now));
+        }
+        if (eta == null) {
+            return "ETA unknown";
+        }
+        return "ETA " + format(eta.isNegative() ? Duration.ZERO : eta);
+    }
+
+    private static int getReady(App app) {
+        final boolean healthChecked = app.getHealthChecks() != null
+                && !app.getHealthChecks().isEmpty();
+        return count(healthChecked ? app.getTasksHealthy() : app.getTasksRunning());
+    }
+
+    private static int count(Integer count) {
+        return count == null ? 0 : count;
+    }
+
+    static String format(Duration duration) {
+        final long seconds = duration.getSeconds();
+        return seconds < 60 ? seconds + "s" : seconds / 60 + "m " + seconds % 60 + "s";
+    }
+
+    /**
+     * The steps of a deployment as last fetched and the rate at which they are completed.
+     */
+    private static final class StepProgress {
+        private Integer firstStep;
+        private Instant firstStepInstant;
+        private Integer currentStep;
+        private Instant currentStepInstant;
+        private Integer totalSteps;
+        private List<String> actions = new ArrayList<>();
+
+        void update(Deployment deployment, Instant now) {
+            final Integer step = deployment.getCurrentStep();
+            if (step != null && !step.equals(currentStep)) {
+                if (firstStep == null) {
+                    firstStep = step;
+                    firstStepInstant = now;
+                }
+                currentStep = step;
+                currentStepInstant = now;
+            }
+            totalSteps = deployment.getTotalSteps();
+            actions = new ArrayList<>();
+            if (deployment.getCurrentActions() != null) {
+                for (final Deployment.Action action : deployment.getCurrentActions()) {
+                    //the client model expects the type of the action in a field Marathon
+                    //calls action
+                    actions.add(action.getType() == null
+                            ? action.getApp() : action.getType() + " " + action.getApp());
+                }
+            }
+        }
+
+        String describe() {
+            final StringBuilder status = new StringBuilder("at step ")
+                    .append(currentStep == null ? "?" : currentStep)
+                    .append('/')
+                    .append(totalSteps == null ? "?" : totalSteps);
+            if (!actions.isEmpty()) {
+                status.append(" (").append(String.join(", ", actions)).append(')');
+            }
+            return status.toString();
+        }
+
+        /**
+         * The remaining steps, including the current one, take as long as the steps completed
+         * while we have been watching, less the time already spent in the current step.
+         * @return null as long as no step has been completed while watching
+         */
+        Duration getEta(Instant now) {
+            if (totalSteps == null || currentStep == null || currentStep <= firstStep) {
+                return null;
+            }
+            final Duration perStep = Duration.between(firstStepInstant, currentStepInstant)
+                    .dividedBy(currentStep - firstStep);
+            return perStep.multipliedBy(Math.max(totalSteps - currentStep + 1, 0))
+                    .minus(Duration.between(currentStepInstant, now));
+        }
+    }
+
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Deployments which have been submitted to Marathon without waiting for them, so that
+ * a later goal can await them.
+ *
+ * Stored as a properties file with an {@code <appId>.host} and an
+ * {@code <appId>.deploymentIds} entry per app. Updates are serialized by a lock file next to
+ * it, so that parallel builds and goals running in parallel modules don't lose each other's
+ * entries.
+ */
+final class DeploymentState {
+
+    private static final String HOST_SUFFIX = ".host";
+    private static final String DEPLOYMENT_IDS_SUFFIX = ".deploymentIds";
+    private static final String LOCK_SUFFIX = ".lock";
+
+    //file locks are held per JVM, so threads of one build also need to be serialized
+    private static final Object LOCK = new Object();
+
+    private final File file;
+
+    DeploymentState(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Records the pending deployments of an app, replacing any recorded before.
+     */
+    void put(String appId, String marathonHost, Collection<String> deploymentIds)
+            throws IOException {
+        synchronized (LOCK) {
+            try (FileChannel channel = openLockFile(); FileLock ignored = channel.lock()) {
+                final Properties properties = load();
+                properties.setProperty(appId + HOST_SUFFIX, marathonHost);
+                properties.setProperty(appId + DEPLOYMENT_IDS_SUFFIX,
+                        Joiner.on(',').join(deploymentIds));
+                store(properties);
+            }
+        }
+    }
+
+    /**
+     * Forgets the pending deployments of an app.
+     */
+    void remove(String appId) throws IOException {
+        synchronized (LOCK) {
+            try (FileChannel channel = openLockFile(); FileLock ignored = channel.lock()) {
+                final Properties properties = load();
+                properties.remove(appId + HOST_SUFFIX);
+                properties.remove(appId + DEPLOYMENT_IDS_SUFFIX);
+                if (properties.isEmpty()) {
+                    Files.deleteIfExists(file.toPath());
+                } else {
+                    store(properties);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the recorded deployments keyed by app id.
+     */
+    Map<String, Pending> getAll() throws IOException {
+        final Properties properties;
+        synchronized (LOCK) {
+            try (FileChannel channel = openLockFile(); FileLock ignored = channel.lock()) {
+                properties = load();
+            }
+        }
+        final Map<String, Pending> pending = new LinkedHashMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            if (key.endsWith(HOST_SUFFIX)) {
+                final String appId = key.substring(0, key.length() - HOST_SUFFIX.length());
+                final List<String> deploymentIds = new ArrayList<>(Splitter.on(',')
+                        .omitEmptyStrings().trimResults()
+                        .splitToList(properties.getProperty(appId + DEPLOYMENT_IDS_SUFFIX, "")));
+                pending.put(appId, new Pending(properties.getProperty(key), deploymentIds));
+            }
+        }
+        return pending;
+    }
+
+    private FileChannel openLockFile() throws IOException {
+        final Path lockFile = new File(file.getAbsolutePath() + LOCK_SUFFIX).toPath();
+        Files.createDirectories(lockFile.getParent());
+        return FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    private Properties load() throws IOException {
+        final Properties properties = new Properties();
+        if (file.isFile()) {
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                properties.load(in);
+            }
+        }
+        return properties;
+    }
+
+    private void store(Properties properties) throws IOException {
+        final Path directory = file.getAbsoluteFile().getParentFile().toPath();
+        Files.createDirectories(directory);
+        final Path temp = Files.createTempFile(directory, "deployments", ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "Marathon deployments to await");
+        }
+        Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * The deployments of an app submitted to a Marathon host.
+     */
+    static final class Pending {
+        private final String marathonHost;
+        private final List<String> deploymentIds;
+
+        private Pending(String marathonHost, List<String> deploymentIds) {
+            this.marathonHost = marathonHost;
+            this.deploymentIds = deploymentIds;
+        }
+
+        String getMarathonHost() {
+            return marathonHost;
+        }
+
+        List<String> getDeploymentIds() {
+            return deploymentIds;
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import feign.Param;
+import feign.RequestLine;
+import mesosphere.marathon.client.Marathon;
+import mesosphere.marathon.client.model.v2.GetAppResponse;
+import mesosphere.marathon.client.model.v2.GetAppsResponse;
+import mesosphere.marathon.client.model.v2.Result;
+import mesosphere.marathon.client.model.v2.Task;
+import mesosphere.marathon.client.utils.MarathonException;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Marathon API calls which are not covered by the marathon-client {@link Marathon} interface.
+ */
+interface ExtendedMarathon extends Marathon {
+
+    @RequestLine("GET /v2/apps/{id}")
+    GetAppVersionResponse getAppVersion(@Param("id") String id) throws MarathonException;
+
+    /**
+     * The app along with the ids of its active deployments and its task counts, but without
+     * its tasks.
+     */
+    @RequestLine("GET /v2/apps/{id}?embed=app.deployments&embed=app.counts")
+    GetAppResponse getAppWithDeployments(@Param("id") String id) throws MarathonException;
+
+    /**
+     * Apps whose id contains the given string.
+     */
+    @RequestLine("GET /v2/apps?id={id}")
+    GetAppsResponse getAppsById(@Param("id") String id) throws MarathonException;
+
+    /**
+     * Changes only the number of instances of an app, leaving the rest of its definition and
+     * its running tasks alone.
+     */
+    @RequestLine("PUT /v2/apps/{id}?force={force}")
+    Result scaleApp(@Param("id") String id, ScaleRequest request, @Param("force") boolean force)
+            throws MarathonException;
+
+    /**
+     * Tasks of all apps in a single request, including the agent they run on.
+     */
+    @RequestLine("GET /v2/tasks")
+    GetAgentTasksResponse getAgentTasks() throws MarathonException;
+
+    /**
+     * Tasks of a single app, including the agent they run on.
+     */
+    @RequestLine("GET /v2/apps/{id}/tasks")
+    GetAgentTasksResponse getAgentTasks(@Param("id") String id) throws MarathonException;
+
+    /**
+     * Response of {@code GET /v2/apps/{id}} reduced to the version of the app.
+     */
+    final class GetAppVersionResponse {
+        private AppVersion app;
+
+        String getVersion() {
+            return app == null ? null : app.version;
+        }
+    }
+
+    final class AppVersion {
+        private String version;
+    }
+
+    /**
+     * Body of a {@code PUT /v2/apps/{id}} which only sets the number of instances.
+     */
+    final class ScaleRequest {
+        private final int instances;
+
+        ScaleRequest(int instances) {
+            this.instances = instances;
+        }
+    }
+
+    /**
+     * Response of {@code GET /v2/tasks} and {@code GET /v2/apps/{id}/tasks}.
+     */
+    final class GetAgentTasksResponse {
+        private List<AgentTask> tasks;
+
+        List<AgentTask> getTasks() {
+            return tasks == null ? Collections.<AgentTask>emptyList() : tasks;
+        }
+    }
+
+    /**
+     * A task along with the id of the Mesos agent it runs on.
+     */
+    final class AgentTask extends Task {
+        private String slaveId;
+
+        String getAgentId() {
+            return slaveId;
+        }
+    }
+
+}
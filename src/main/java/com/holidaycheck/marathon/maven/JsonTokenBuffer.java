@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+/**
+ * The tokens of a JSON document, read once and replayed by any number of readers, e.g. to
+ * render several variants of a Marathon config without parsing it for each of them.
+ * A buffer is not modified after it has been read, so its readers can be used concurrently.
+ */
+final class JsonTokenBuffer {
+
+    private final JsonToken[] tokens;
+
+    /**
+     * Names, strings, the literal text of numbers and booleans, null for other tokens.
+     */
+    private final String[] values;
+
+    private JsonTokenBuffer(JsonToken[] tokens, String[] values) {
+        this.tokens = tokens;
+        this.values = values;
+    }
+
+    /**
+     * Reads all tokens of the source.
+     */
+    static JsonTokenBuffer read(JsonReader reader) throws IOException {
+        final List<JsonToken> tokens = new ArrayList<>();
+        final List<String> values = new ArrayList<>();
+        JsonToken token;
+        while ((token = reader.peek()) != JsonToken.END_DOCUMENT) {
+            String value = null;
+            switch (token) {
+                case BEGIN_OBJECT:
+                    reader.beginObject();
+                    break;
+                case END_OBJECT:
+                    reader.endObject();
+                    break;
+                case BEGIN_ARRAY:
+                    reader.beginArray();
+                    break;
+                case END_ARRAY:
+                    reader.endArray();
+                    break;
+                case NAME:
+                    value = reader.nextName();
+                    break;
+                case STRING:
+                case NUMBER:
+                    value = reader.nextString();
+                    break;
+                case BOOLEAN:
+                    value = String.valueOf(reader.nextBoolean());
+                    break;
+                case NULL:
+                    reader.nextNull();
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected JSON token " + token);
+            }
+            tokens.add(token);
+            values.add(value);
+        }
+        return new JsonTokenBuffer(tokens.toArray(new JsonToken[tokens.size()]),
+                values.toArray(new String[values.size()]));
+    }
+
+    /**
+     * A reader replaying the buffered tokens from the start.
+     */
+    JsonReader newReader() {
+        return new Replay();
+    }
+
+    private final class Replay extends JsonReader {
+
+        private int position;
+
+        Replay() {
+            //all reading is served from the buffer
+            super(new StringReader(""));
+        }
+
+        @Override
+        public JsonToken peek() {
+            return position < tokens.length ? tokens[position] : JsonToken.END_DOCUMENT;
+        }
+
+        @Override
+        public boolean hasNext() {
+            final JsonToken token = peek();
+            return token != JsonToken.END_OBJECT && token != JsonToken.END_ARRAY
+                    && token != JsonToken.END_DOCUMENT;
+        }
+
+        @Override
+        public void beginObject() {
+            next(JsonToken.BEGIN_OBJECT);
+        }
+
+        @Override
+        public void endObject() {
+            next(JsonToken.END_OBJECT);
+        }
+
+        @Override
+        public void beginArray() {
+            next(JsonToken.BEGIN_ARRAY);
+        }
+
+        @Override
+        public void endArray() {
+            next(JsonToken.END_ARRAY);
+        }
+
+        @Override
+        public String nextName() {
+            return next(JsonToken.NAME);
+        }
+
+        @Override
+        public String nextString() {
+            final JsonToken token = peek();
+            if (token != JsonToken.STRING && token != JsonToken.NUMBER) {
+                throw unexpected(JsonToken.STRING);
+            }
+            return values[position++];
+        }
+
+        @Override
+        public boolean nextBoolean() {
+            return Boolean.parseBoolean(next(JsonToken.BOOLEAN));
+        }
+
+        @Override
+        public void nextNull() {
+            next(JsonToken.NULL);
+        }
+
+        @Override
+        public double nextDouble() {
+            return Double.parseDouble(nextString());
+        }
+
+        @Override
+        public long nextLong() {
+            return Long.parseLong(nextString());
+        }
+
+        @Override
+        public int nextInt() {
+            return Integer.parseInt(nextString());
+        }
+
+        @Override
+        public void skipValue() {
+            int depth = 0;
+            do {
+                switch (peek()) {
+                    case BEGIN_OBJECT:
+                    case BEGIN_ARRAY:
+                        depth++;
+                        break;
+                    case END_OBJECT:
+                    case END_ARRAY:
+                        depth--;
+                        break;
+                    case END_DOCUMENT:
+                        return;
+                    default:
+                        break;
+                }
+                position++;
+            } while (depth > 0);
+        }
+
+        @Override
+        public void close() {
+            position = tokens.length;
+        }
+
+        private String next(JsonToken expected) {
+            if (peek() != expected) {
+                throw unexpected(expected);
+            }
+            return values[position++];
+        }
+
+        private IllegalStateException unexpected(JsonToken expected) {
+            return new IllegalStateException("Expected " + expected + " but was " + peek()
+                    + " at token " + position);
+        }
+    }
+
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Credentials;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Protocol;
+import feign.Feign;
+import feign.Request;
+import feign.RetryableException;
+import feign.Retryer;
+import feign.gson.GsonDecoder;
+import feign.gson.GsonEncoder;
+import mesosphere.marathon.client.utils.MarathonException;
+import mesosphere.marathon.client.utils.ModelUtils;
+import org.apache.maven.execution.AbstractExecutionListener;
+import org.apache.maven.execution.ExecutionEvent;
+import org.apache.maven.execution.ExecutionListener;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
+import org.eclipse.aether.SessionData;
+
+import java.io.Closeable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Marathon clients shared by all goals of a build.
+ *
+ * A registry lives as long as the {@link MavenSession} it was obtained for, so every module of
+ * a reactor reuses the same clients and their pooled keep-alive connections. The connections
+ * are released when the session ends.
+ */
+final class MarathonClientRegistry implements Closeable {
+
+    private static final String SESSION_KEY = MarathonClientRegistry.class.getName();
+
+    /**
+     * Used when there is no session to attach to, e.g. when a mojo runs outside of a build.
+     */
+    private static final MarathonClientRegistry DEFAULT = new MarathonClientRegistry();
+
+    /**
+     * Circuit breakers by Marathon host and thresholds, shared by all builds running in this
+     * JVM, so that clients of a host asking for different thresholds get a breaker of their
+     * own.
+     */
+    private static final Map<String, CircuitBreaker> CIRCUIT_BREAKERS =
+            new ConcurrentHashMap<>();
+
+    private final Map<MarathonClientSettings, Entry> clients = new ConcurrentHashMap<>();
+
+    private MarathonClientRegistry() {
+    }
+
+    /**
+     * Returns the registry of the given session, creating it on first use.
+     */
+    static MarathonClientRegistry forSession(MavenSession session) {
+        if (session == null || session.getRepositorySession() == null) {
+            return DEFAULT;
+        }
+        final SessionData data = session.getRepositorySession().getData();
+        MarathonClientRegistry registry = (MarathonClientRegistry) data.get(SESSION_KEY);
+        if (registry == null) {
+            final MarathonClientRegistry created = new MarathonClientRegistry();
+            if (data.set(SESSION_KEY, null, created)) {
+                runOnSessionEnd(session.getRequest(), created::close);
+                registry = created;
+            } else {
+                registry = (MarathonClientRegistry) data.get(SESSION_KEY);
+            }
+        }
+        return registry;
+    }
+
+    /**
+     * Returns the Marathon client for the given settings.
+     */
+    ExtendedMarathon getMarathon(MarathonClientSettings settings) {
+        return getEntry(settings).marathon;
+    }
+
+    /**
+     * Returns the HTTP client backing the Marathon client for the given settings, for calls
+     * which are not part of the Marathon client API.
+     */
+    OkHttpClient getHttpClient(MarathonClientSettings settings) {
+        return getEntry(settings).httpClient;
+    }
+
+    /**
+     * Returns the URL of the Marathon instance to send calls for the given settings to,
+     * which is the leader if several instances are configured.
+     */
+    String getUrl(MarathonClientSettings settings) {
+        final Entry entry = getEntry(settings);
+        return entry.endpoints.getUrl(entry.httpClient);
+    }
+
+    @Override
+    public void close() {
+        for (Entry entry : clients.values()) {
+            entry.httpClient.getConnectionPool().evictAll();
+        }
+        clients.clear();
+    }
+
+    private Entry getEntry(MarathonClientSettings settings) {
+        return clients.computeIfAbsent(settings, MarathonClientRegistry::createEntry);
+    }
+
+    private static Entry createEntry(MarathonClientSettings settings) {
+        final OkHttpClient httpClient = new OkHttpClient();
+        httpClient.setConnectTimeout(settings.getConnectTimeout(), TimeUnit.MILLISECONDS);
+        httpClient.setReadTimeout(settings.getReadTimeout(), TimeUnit.MILLISECONDS);
+        httpClient.setConnectionPool(new ConnectionPool(settings.getMaxIdleConnections(),
+                settings.getKeepAliveDuration(), TimeUnit.SECONDS));
+        httpClient.setProtocols(settings.isHttp2()
+                ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                : Collections.singletonList(Protocol.HTTP_1_1));
+        if (!settings.isGzip()) {
+            //OkHttp asks for gzip transparently unless told otherwise
+            httpClient.interceptors().add(chain -> chain.proceed(chain.request().newBuilder()
+                    .header("Accept-Encoding", "identity")
+                    .build()));
+        }
+        if (settings.getGzipRequestThreshold() >= 0) {
+            httpClient.interceptors().add(
+                    new GzipRequestInterceptor(settings.getGzipRequestThreshold()));
+        }
+        //authenticate on the HTTP level, so that calls outside of Feign are covered as well
+        final String authorization = getAuthorization(settings);
+        if (authorization != null) {
+            httpClient.interceptors().add(chain -> chain.proceed(chain.request().newBuilder()
+                    .header("Authorization", authorization)
+                    .build()));
+        }
+        final MarathonEndpoints endpoints = new MarathonEndpoints(settings.getMarathonHost());
+        httpClient.interceptors().add(endpoints.getInterceptor());
+
+        final ExtendedMarathon marathon = Feign.builder()
+                .client(new OkHttpFeignClient(httpClient))
+                .retryer(new NeverRetry())
+                .options(new Request.Options(settings.getConnectTimeout(),
+                        settings.getReadTimeout()))
+                .encoder(new GsonEncoder(ModelUtils.GSON))
+                .decoder(new GsonDecoder(ModelUtils.GSON))
+                .errorDecoder((methodKey, response) ->
+                        new MarathonException(response.status(), response.reason()))
+                .requestInterceptor(template -> template
+                        .header("Accept", "application/json")
+                        .header("Content-Type", "application/json"))
+                .target(endpoints.target(ExtendedMarathon.class, httpClient));
+        final RetryPolicy retryPolicy = settings.getRetryPolicy();
+        return new Entry(httpClient, endpoints, RetryingMarathonHandler.wrap(marathon,
+                retryPolicy, getCircuitBreaker(settings)));
+    }
+
+    /**
+     * Returns the circuit breaker for the host and thresholds of the given settings.
+     */
+    static CircuitBreaker getCircuitBreaker(MarathonClientSettings settings) {
+        final RetryPolicy retryPolicy = settings.getRetryPolicy();
+        return CIRCUIT_BREAKERS.computeIfAbsent(settings.getMarathonHost() + "|"
+                        + retryPolicy.getCircuitBreakerThreshold() + "|"
+                        + retryPolicy.getCircuitBreakerOpenMillis(),
+                key -> new CircuitBreaker(retryPolicy.getCircuitBreakerThreshold(),
+                        retryPolicy.getCircuitBreakerOpenMillis()));
+    }
+
+    private static String getAuthorization(MarathonClientSettings settings) {
+        if (settings.getToken() != null) {
+            return "token=" + settings.getToken();
+        } else if (settings.getUsername() != null) {
+            return Credentials.basic(settings.getUsername(),
+                    settings.getPassword() == null ? "" : settings.getPassword());
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Chains a listener into the build which runs the action once the session has ended,
+     * e.g. to release resources of this plugin. Maven looks the listener up from the request
+     * for every event, so it can be swapped while the build is running.
+     */
+    static void runOnSessionEnd(MavenExecutionRequest request, Runnable action) {
+        if (request == null) {
+            return;
+        }
+        final ExecutionListener delegate = request.getExecutionListener();
+        if (delegate == null) {
+            request.setExecutionListener(new AbstractExecutionListener() {
+                @Override
+                public void sessionEnded(ExecutionEvent event) {
+                    action.run();
+                }
+            });
+            return;
+        }
+        request.setExecutionListener((ExecutionListener) Proxy.newProxyInstance(
+                MarathonClientRegistry.class.getClassLoader(),
+                new Class<?>[] {ExecutionListener.class},
+                (proxy, method, args) -> {
+                    try {
+                        return method.invoke(delegate, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    } finally {
+                        if ("sessionEnded".equals(method.getName())) {
+                            action.run();
+                        }
+                    }
+                }));
+    }
+
+    /**
+     * Leaves retrying to {@link RetryingMarathonHandler}, which knows which calls are safe
+     * to repeat.
+     */
+    private static final class NeverRetry implements Retryer {
+        @Override
+        public void continueOrPropagate(RetryableException e) {
+            throw e;
+        }
+
+        @Override
+        public Retryer clone() {
+            return this;
+        }
+    }
+
+    private static final class Entry {
+        private final OkHttpClient httpClient;
+        private final MarathonEndpoints endpoints;
+        private final ExtendedMarathon marathon;
+
+        private Entry(OkHttpClient httpClient, MarathonEndpoints endpoints,
+                ExtendedMarathon marathon) {
+            this.httpClient = httpClient;
+            this.endpoints = endpoints;
+            this.marathon = marathon;
+        }
+    }
+
+}
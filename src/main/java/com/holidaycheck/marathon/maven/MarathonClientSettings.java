@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import java.util.Objects;
+
+/**
+ * Everything that identifies a Marathon client: where it connects to, how it authenticates
+ * and how its HTTP connections are managed. Clients with equal settings can be shared.
+ */
+final class MarathonClientSettings {
+
+    private final String marathonHost;
+    private final String username;
+    private final String password;
+    private final String token;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int maxIdleConnections;
+    private final int keepAliveDuration;
+    private final boolean gzip;
+    private final int gzipRequestThreshold;
+    private final boolean http2;
+    private final RetryPolicy retryPolicy;
+
+    MarathonClientSettings(String marathonHost, String username, String password, String token,
+            int connectTimeout, int readTimeout, int maxIdleConnections, int keepAliveDuration,
+            boolean gzip, int gzipRequestThreshold, boolean http2, RetryPolicy retryPolicy) {
+        this.marathonHost = marathonHost;
+        this.username = username;
+        this.password = password;
+        this.token = token;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.maxIdleConnections = maxIdleConnections;
+        this.keepAliveDuration = keepAliveDuration;
+        this.gzip = gzip;
+        this.gzipRequestThreshold = gzipRequestThreshold;
+        this.http2 = http2;
+        this.retryPolicy = retryPolicy;
+    }
+
+    String getMarathonHost() {
+        return marathonHost;
+    }
+
+    String getUsername() {
+        return username;
+    }
+
+    String getPassword() {
+        return password;
+    }
+
+    String getToken() {
+        return token;
+    }
+
+    /**
+     * Connect timeout in milliseconds.
+     */
+    int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * Read timeout in milliseconds.
+     */
+    int getReadTimeout() {
+        return readTimeout;
+    }
+
+    int getMaxIdleConnections() {
+        return maxIdleConnections;
+    }
+
+    /**
+     * How long idle connections are kept alive, in seconds.
+     */
+    int getKeepAliveDuration() {
+        return keepAliveDuration;
+    }
+
+    /**
+     * Whether responses may be sent gzip compressed.
+     */
+    boolean isGzip() {
+        return gzip;
+    }
+
+    /**
+     * Size in bytes from which on request bodies are sent gzip compressed, negative
+     * if they are never compressed.
+     */
+    int getGzipRequestThreshold() {
+        return gzipRequestThreshold;
+    }
+
+    /**
+     * Whether HTTP/2 may be negotiated with Marathon.
+     */
+    boolean isHttp2() {
+        return http2;
+    }
+
+    RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final MarathonClientSettings that = (MarathonClientSettings) o;
+        return connectTimeout == that.connectTimeout
+                && readTimeout == that.readTimeout
+                && maxIdleConnections == that.maxIdleConnections
+                && keepAliveDuration == that.keepAliveDuration
+                && gzip == that.gzip
+                && gzipRequestThreshold == that.gzipRequestThreshold
+                && http2 == that.http2
+                && Objects.equals(marathonHost, that.marathonHost)
+                && Objects.equals(username, that.username)
+                && Objects.equals(password, that.password)
+                && Objects.equals(token, that.token)
+                && Objects.equals(retryPolicy, that.retryPolicy);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(marathonHost, username, password, token, connectTimeout, readTimeout,
+                maxIdleConnections, keepAliveDuration, gzip, gzipRequestThreshold, http2,
+                retryPolicy);
+    }
+
+}
@@ -0,0 +1,699 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A lightweight in-process stand-in for Marathon, serving the parts of its REST API the
+ * goals of this plugin use: {@code /v2/apps}, deleting {@code /v2/groups},
+ * {@code /v2/deployments}, {@code /v2/tasks}, {@code /v2/events} and {@code /v2/leader}.
+ *
+ * Changes to apps are rolled out by simulated deployments whose steps each take a
+ * configurable time. Once a deployment has finished the app has as many running and healthy
+ * tasks as instances, placed on fake agents with ports allocated from 31000 on. Every
+ * response can be delayed to simulate a remote Marathon.
+ */
+final class MarathonEmulator implements Closeable {
+
+    private static final int FIRST_TASK_PORT = 31000;
+    private static final int AGENTS = 3;
+    /**
+     * Interval of the comments written to idle event stream clients, which is how clients
+     * that went away are noticed and their request threads released.
+     */
+    private static final long EVENT_KEEP_ALIVE_MILLIS = 1000L;
+
+    /**
+     * Emulators started in this JVM by their URL, so a later goal can stop them.
+     */
+    private static final Map<String, MarathonEmulator> RUNNING = new ConcurrentHashMap<>();
+
+    private final HttpServer server;
+    private final ExecutorService requestExecutor;
+    private final ScheduledExecutorService deploymentExecutor;
+    private final long latencyMillis;
+    private final long stepMillis;
+    private final List<EventSubscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    //guarded by this
+    private final Map<String, EmulatedApp> apps = new LinkedHashMap<>();
+    private final Map<String, EmulatedDeployment> deployments = new LinkedHashMap<>();
+    private int nextTaskPort = FIRST_TASK_PORT;
+    private int nextAgent = 0;
+
+    private MarathonEmulator(HttpServer server, long latencyMillis, long stepMillis) {
+        this.server = server;
+        this.latencyMillis = latencyMillis;
+        this.stepMillis = stepMillis;
+        this.requestExecutor = Executors.newCachedThreadPool(
+                daemonThreads("marathon-emulator"));
+        this.deploymentExecutor = Executors.newSingleThreadScheduledExecutor(
+                daemonThreads("marathon-emulator-deployments"));
+    }
+
+    /**
+     * Starts an emulator on the loopback interface.
+     * @param port port to listen on, 0 for any free port
+     * @param latencyMillis delay of every response
+     * @param stepMillis duration of each step of a deployment
+     */
+    static MarathonEmulator start(int port, long latencyMillis, long stepMillis)
+            throws IOException {
+        final HttpServer server = HttpServer.create(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        final MarathonEmulator emulator = new MarathonEmulator(server, latencyMillis,
+                stepMillis);
+        server.setExecutor(emulator.requestExecutor);
+        server.createContext("/", emulator::handle);
+        server.start();
+        RUNNING.put(emulator.getUrl(), emulator);
+        return emulator;
+    }
+
+    /**
+     * Returns the running emulator with the given URL, null if there is none.
+     */
+    static MarathonEmulator forUrl(String url) {
+        return RUNNING.get(url);
+    }
+
+    /**
+     * URL to use as the marathonHost of the goals.
+     */
+    String getUrl() {
+        return "http://" + getHostAndPort();
+    }
+
+    private String getHostAndPort() {
+        return server.getAddress().getAddress().getHostAddress() + ":"
+                + server.getAddress().getPort();
+    }
+
+    /**
+     * Stops the emulator, doing nothing if it has been stopped already.
+     */
+    @Override
+    public void close() {
+        if (!RUNNING.remove(getUrl(), this)) {
+            return;
+        }
+        for (EventSubscriber subscriber : subscribers) {
+            subscriber.close();
+        }
+        server.stop(0);
+        deploymentExecutor.shutdownNow();
+        requestExecutor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            final String method = exchange.getRequestMethod();
+            final URI uri = exchange.getRequestURI();
+            final List<String> path = segments(uri.getPath());
+            if (method.equals("GET") && path.equals(Arrays.asList("v2", "events"))) {
+                subscribe(exchange, uri.getQuery());
+                return;
+            }
+            sleep(latencyMillis);
+            final JsonElement body = method.equals("POST") || method.equals("PUT")
+                    ? parse(exchange) : null;
+            final Response response = route(method, path, uri.getQuery(), body);
+            send(exchange, response.status, response.body);
+        } catch (JsonParseException e) {
+            send(exchange, 400, message("Invalid JSON: " + e.getMessage()));
+        } catch (RuntimeException e) {
+            send(exchange, 500, message(String.valueOf(e)));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private Response route(String method, List<String> path, String query, JsonElement body) {
+        if (path.equals(Collections.singletonList("ping"))) {
+            return new Response(200, new JsonPrimitive("pong"));
+        }
+        if (path.size() < 2 || !path.get(0).equals("v2")) {
+            return notFound("Unknown resource");
+        }
+        final String resource = path.get(1);
+        final String appId = "/" + String.join("/", path.subList(2, path.size()));
+        if (resource.equals("leader") && method.equals("GET")) {
+            final JsonObject leader = new JsonObject();
+            leader.addProperty("leader", getHostAndPort());
+            return new Response(200, leader);
+        } else if (resource.equals("groups") && path.size() > 2 && method.equals("DELETE")) {
+            return deleteGroup(appId);
+        } else if (resource.equals("deployments") && method.equals("GET")) {
+            return new Response(200, getDeployments());
+        } else if (resource.equals("tasks") && method.equals("GET")) {
+            return new Response(200, tasksResponse(null));
+        } else if (resource.equals("apps") && path.size() == 2) {
+            if (method.equals("GET")) {
+                return new Response(200, getApps());
+            } else if (method.equals("POST") && body != null && body.isJsonObject()) {
+                return createApp(body.getAsJsonObject());
+            }
+        } else if (resource.equals("apps") && path.get(path.size() - 1).equals("tasks")
+                && method.equals("GET")) {
+            final String id = appId.substring(0, appId.length() - "/tasks".length());
+            return exists(id) ? new Response(200, tasksResponse(id)) : appNotFound(id);
+        } else if (resource.equals("apps")) {
+            if (method.equals("GET")) {
+                return getApp(appId, query == null || !query.contains("embed=")
+                        || query.contains("embed=app.tasks"));
+            } else if (method.equals("PUT") && body != null && body.isJsonObject()) {
+                return updateApp(appId, body.getAsJsonObject(),
+                        query != null && query.contains("force=true"));
+            } else if (method.equals("DELETE")) {
+                return deleteApp(appId);
+            }
+        }
+        return new Response(405, message("Method " + method + " not allowed"));
+    }
+
+    private synchronized boolean exists(String appId) {
+        return apps.containsKey(appId);
+    }
+
+    private synchronized JsonObject getApps() {
+        final JsonArray array = new JsonArray();
+        for (EmulatedApp app : apps.values()) {
+            array.add(app.toJson(false));
+        }
+        final JsonObject response = new JsonObject();
+        response.add("apps", array);
+        return response;
+    }
+
+    private synchronized Response getApp(String appId, boolean withTasks) {
+        final EmulatedApp app = apps.get(appId);
+        if (app == null) {
+            return appNotFound(appId);
+        }
+        final JsonObject response = new JsonObject();
+        response.add("app", app.toJson(withTasks));
+        return new Response(200, response);
+    }
+
+    private synchronized Response createApp(JsonObject definition) {
+        if (!definition.has("id")) {
+            return new Response(422, message("App id is missing"));
+        }
+        final String appId = "/" + Utils.trimLeadingSlash(definition.get("id").getAsString());
+        if (apps.containsKey(appId)) {
+            return new Response(409, message("An app with id [" + appId
+                    + "] already exists."));
+        }
+        definition.addProperty("id", appId);
+        final EmulatedApp app = new EmulatedApp(definition);
+        apps.put(appId, app);
+        startDeployment(app, "StartApplication", "ScaleApplication");
+        return new Response(201, app.toJson(false));
+    }
+
+    private synchronized Response updateApp(String appId, JsonObject update, boolean force) {
+        final EmulatedApp app = apps.get(appId);
+        if (app == null) {
+            update.addProperty("id", appId);
+            final EmulatedApp created = new EmulatedApp(update);
+            apps.put(appId, created);
+            return new Response(201, deploymentResult(
+                    startDeployment(created, "StartApplication", "ScaleApplication")));
+        }
+        if (app.deployment != null) {
+            if (!force) {
+                return new Response(409, message("App is locked by one or more deployments."));
+            }
+            deployments.remove(app.deployment.id);
+        }
+        final boolean onlyInstances = update.entrySet().size() == 1 && update.has("instances");
+        for (Map.Entry<String, JsonElement> field : update.entrySet()) {
+            if (!field.getKey().equals("id")) {
+                app.definition.add(field.getKey(), field.getValue());
+            }
+        }
+        app.version = Instant.now().toString();
+        return new Response(200, deploymentResult(startDeployment(app,
+                onlyInstances ? "ScaleApplication" : "RestartApplication")));
+    }
+
+    private synchronized Response deleteApp(String appId) {
+        final EmulatedApp app = apps.remove(appId);
+        if (app == null) {
+            return appNotFound(appId);
+        }
+        if (app.deployment != null) {
+            deployments.remove(app.deployment.id);
+        }
+        app.tasks.clear();
+        return new Response(200, deploymentResult(startDeployment(app, "StopApplication")));
+    }
+
+    /**
+     * Removes all apps within the group, stopping them in a single deployment.
+     */
+    private synchronized Response deleteGroup(String groupId) {
+        final List<EmulatedApp> removed = new ArrayList<>();
+        for (EmulatedApp app : new ArrayList<>(apps.values())) {
+            if (app.getId().startsWith(groupId + "/")) {
+                apps.remove(app.getId());
+                if (app.deployment != null) {
+                    deployments.remove(app.deployment.id);
+                }
+                app.tasks.clear();
+                removed.add(app);
+            }
+        }
+        if (removed.isEmpty()) {
+            return notFound("Group '" + groupId + "' does not exist");
+        }
+        return new Response(200, deploymentResult(
+                startDeployment(removed, Collections.singletonList("StopApplication"))));
+    }
+
+    private synchronized JsonArray getDeployments() {
+        final JsonArray array = new JsonArray();
+        for (EmulatedDeployment deployment : deployments.values()) {
+            array.add(deployment.toJson());
+        }
+        return array;
+    }
+
+    private synchronized JsonObject tasksResponse(String appId) {
+        final JsonArray tasks = new JsonArray();
+        for (EmulatedApp app : apps.values()) {
+            if (appId == null || app.getId().equals(appId)) {
+                for (JsonObject task : app.tasks) {
+                    tasks.add(task);
+                }
+            }
+        }
+        final JsonObject response = new JsonObject();
+        response.add("tasks", tasks);
+        return response;
+    }
+
+    //guarded by this
+    private EmulatedDeployment startDeployment(EmulatedApp app, String... actions) {
+        return startDeployment(Collections.singletonList(app), Arrays.asList(actions));
+    }
+
+    //guarded by this
+    private EmulatedDeployment startDeployment(List<EmulatedApp> affectedApps,
+            List<String> actions) {
+        final EmulatedDeployment deployment = new EmulatedDeployment(affectedApps, actions);
+        for (EmulatedApp app : affectedApps) {
+            app.deployment = deployment;
+        }
+        deployments.put(deployment.id, deployment);
+        deploymentExecutor.schedule(() -> advance(deployment), stepMillis,
+                TimeUnit.MILLISECONDS);
+        return deployment;
+    }
+
+    private void advance(EmulatedDeployment deployment) {
+        final List<JsonObject> events = new ArrayList<>();
+        synchronized (this) {
+            if (!deployments.containsKey(deployment.id)) {
+                //superseded by a forced update or a delete
+                return;
+            }
+            if (deployment.currentStep < deployment.actions.size()) {
+                deployment.currentStep++;
+                deploymentExecutor.schedule(() -> advance(deployment), stepMillis,
+                        TimeUnit.MILLISECONDS);
+                return;
+            }
+            deployments.remove(deployment.id);
+            for (EmulatedApp app : deployment.apps) {
+                if (app.deployment == deployment) {
+                    app.deployment = null;
+                }
+                if (apps.get(app.getId()) == app) {
+                    events.addAll(replaceTasks(app));
+                }
+            }
+            final JsonObject success = new JsonObject();
+            success.addProperty("eventType", DeploymentEventStream.DEPLOYMENT_SUCCESS);
+            final JsonObject plan = new JsonObject();
+            plan.addProperty("id", deployment.id);
+            success.add("plan", plan);
+            events.add(success);
+        }
+        for (JsonObject event : events) {
+            for (EventSubscriber subscriber : subscribers) {
+                subscriber.send(event);
+            }
+        }
+    }
+
+    /**
+     * Replaces the tasks of the app by as many tasks of its current version as it has
+     * instances.
+     * @return the status updates of the new tasks
+     */
+    //guarded by this
+    private List<JsonObject> replaceTasks(EmulatedApp app) {
+        final List<JsonObject> events = new ArrayList<>();
+        app.tasks.clear();
+        for (int i = 0; i < app.getInstances(); i++) {
+            final int agent = nextAgent++ % AGENTS + 1;
+            final JsonObject task = new JsonObject();
+            task.addProperty("id", Utils.trimLeadingSlash(app.getId()).replace('/', '_')
+                    + "." + UUID.randomUUID());
+            task.addProperty("appId", app.getId());
+            task.addProperty("host", "agent-" + agent + ".emulator");
+            task.addProperty("slaveId", "agent-" + agent);
+            final JsonArray ports = new JsonArray();
+            for (int port = 0; port < app.getPortCount(); port++) {
+                ports.add(new JsonPrimitive(nextTaskPort++));
+            }
+            task.add("ports", ports);
+            final String now = Instant.now().toString();
+            task.addProperty("stagedAt", now);
+            task.addProperty("startedAt", now);
+            task.addProperty("version", app.version);
+            final JsonArray healthCheckResults = new JsonArray();
+            if (app.definition.has("healthChecks")
+                    && app.definition.get("healthChecks").isJsonArray()) {
+                for (int check = 0; check < app.definition.getAsJsonArray("healthChecks")
+                        .size(); check++) {
+                    final JsonObject result = new JsonObject();
+                    result.addProperty("alive", true);
+                    result.addProperty("taskId", task.get("id").getAsString());
+                    healthCheckResults.add(result);
+                }
+            }
+            task.add("healthCheckResults", healthCheckResults);
+            app.tasks.add(task);
+
+            final JsonObject event = new JsonObject();
+            event.addProperty("eventType", DeploymentEventStream.STATUS_UPDATE);
+            event.addProperty("appId", app.getId());
+            event.addProperty("taskId", task.get("id").getAsString());
+            event.addProperty("taskStatus", "TASK_RUNNING");
+            events.add(event);
+        }
+        return events;
+    }
+
+    private void subscribe(HttpExchange exchange, String query) throws IOException {
+        final EventSubscriber subscriber = new EventSubscriber(exchange, query);
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        subscribers.add(subscriber);
+        try {
+            //keep the stream open until the client goes away or the emulator is closed
+            while (!subscriber.closed.await(EVENT_KEEP_ALIVE_MILLIS, TimeUnit.MILLISECONDS)) {
+                subscriber.keepAlive();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            subscribers.remove(subscriber);
+            exchange.close();
+        }
+    }
+
+    private static JsonObject deploymentResult(EmulatedDeployment deployment) {
+        final JsonObject result = new JsonObject();
+        result.addProperty("deploymentId", deployment.id);
+        result.addProperty("version", deployment.version);
+        return result;
+    }
+
+    private static Response appNotFound(String appId) {
+        return notFound("App '" + appId + "' does not exist");
+    }
+
+    private static Response notFound(String message) {
+        return new Response(404, message(message));
+    }
+
+    private static JsonObject message(String message) {
+        final JsonObject body = new JsonObject();
+        body.addProperty("message", message);
+        return body;
+    }
+
+    private static JsonElement parse(HttpExchange exchange) throws IOException {
+        return new JsonParser().parse(new String(
+                ByteStreams.toByteArray(exchange.getRequestBody()), Charsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, JsonElement body)
+            throws IOException {
+        final byte[] bytes = body.toString().getBytes(Charsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static List<String> segments(String path) {
+        final List<String> segments = new ArrayList<>();
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(segment);
+            }
+        }
+        return segments;
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return runnable -> {
+            final Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class Response {
+        private final int status;
+        private final JsonElement body;
+
+        Response(int status, JsonElement body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private static final class EmulatedApp {
+        private final JsonObject definition;
+        private final List<JsonObject> tasks = new ArrayList<>();
+        private String version = Instant.now().toString();
+        private EmulatedDeployment deployment;
+
+        EmulatedApp(JsonObject definition) {
+            this.definition = definition;
+        }
+
+        String getId() {
+            return definition.get("id").getAsString();
+        }
+
+        int getInstances() {
+            return definition.has("instances") && !definition.get("instances").isJsonNull()
+                    ? definition.get("instances").getAsInt() : 1;
+        }
+
+        int getPortCount() {
+            for (String field : Arrays.asList("portDefinitions", "ports")) {
+                if (definition.has(field) && definition.get(field).isJsonArray()) {
+                    return definition.getAsJsonArray(field).size();
+                }
+            }
+            if (definition.has("container") && definition.get("container").isJsonObject()) {
+                final JsonObject container = definition.getAsJsonObject("container");
+                if (container.has("docker") && container.get("docker").isJsonObject()
+                        && container.getAsJsonObject("docker").has("portMappings")) {
+                    return container.getAsJsonObject("docker")
+                            .getAsJsonArray("portMappings").size();
+                }
+            }
+            return 1;
+        }
+
+        JsonObject toJson(boolean withTasks) {
+            final JsonObject json = new JsonObject();
+            for (Map.Entry<String, JsonElement> field : definition.entrySet()) {
+                json.add(field.getKey(), field.getValue());
+            }
+            json.addProperty("version", version);
+            final int staged = deployment != null && deployment.isScaling() ? getInstances() : 0;
+            json.addProperty("tasksStaged", staged);
+            json.addProperty("tasksRunning", tasks.size());
+            json.addProperty("tasksHealthy", definition.has("healthChecks") ? tasks.size() : 0);
+            json.addProperty("tasksUnhealthy", 0);
+            final JsonArray deploymentIds = new JsonArray();
+            if (deployment != null) {
+                final JsonObject id = new JsonObject();
+                id.addProperty("id", deployment.id);
+                deploymentIds.add(id);
+            }
+            json.add("deployments", deploymentIds);
+            if (withTasks) {
+                final JsonArray taskArray = new JsonArray();
+                for (JsonObject task : tasks) {
+                    taskArray.add(task);
+                }
+                json.add("tasks", taskArray);
+            }
+            return json;
+        }
+    }
+
+    private static final class EmulatedDeployment {
+        private final String id = UUID.randomUUID().toString();
+        private final List<EmulatedApp> apps;
+        private final List<String> actions;
+        private final String version;
+        private int currentStep = 1;
+
+        EmulatedDeployment(List<EmulatedApp> apps, List<String> actions) {
+            this.apps = apps;
+            this.actions = actions;
+            this.version = apps.size() == 1 ? apps.get(0).version : Instant.now().toString();
+        }
+
+        boolean isScaling() {
+            final String action = actions.get(currentStep - 1);
+            return action.equals("ScaleApplication") || action.equals("RestartApplication");
+        }
+
+        JsonObject toJson() {
+            final JsonObject json = new JsonObject();
+            json.addProperty("id", id);
+            json.addProperty("version", version);
+            final JsonArray affectedApps = new JsonArray();
+            final JsonArray currentActions = new JsonArray();
+            for (EmulatedApp app : apps) {
+                affectedApps.add(new JsonPrimitive(app.getId()));
+                final JsonObject action = new JsonObject();
+                action.addProperty("action", actions.get(currentStep - 1));
+                action.addProperty("app", app.getId());
+                currentActions.add(action);
+            }
+            json.add("affectedApps", affectedApps);
+            json.addProperty("currentStep", currentStep);
+            json.addProperty("totalSteps", actions.size());
+            json.add("currentActions", currentActions);
+            return json;
+        }
+    }
+
+    /**
+     * A client of the event stream, receiving the events of the types it asked for.
+     */
+    private static final class EventSubscriber {
+        private final HttpExchange exchange;
+        private final List<String> eventTypes = new ArrayList<>();
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        EventSubscriber(HttpExchange exchange, String query) {
+            this.exchange = exchange;
+            if (query != null) {
+                for (String parameter : query.split("&")) {
+                    if (parameter.startsWith("event_type=")) {
+                        eventTypes.add(parameter.substring("event_type=".length()));
+                    }
+                }
+            }
+        }
+
+        synchronized void send(JsonObject event) {
+            final String eventType = event.get("eventType").getAsString();
+            if (!eventTypes.isEmpty() && !eventTypes.contains(eventType)) {
+                return;
+            }
+            write("event: " + eventType + "\ndata: " + event + "\n\n");
+        }
+
+        /**
+         * Writes a comment, which clients ignore, closing the subscriber if the client is
+         * gone.
+         */
+        synchronized void keepAlive() {
+            write(":\n\n");
+        }
+
+        private void write(String text) {
+            try {
+                final OutputStream out = exchange.getResponseBody();
+                out.write(text.getBytes(Charsets.UTF_8));
+                out.flush();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void close() {
+            closed.countDown();
+        }
+    }
+
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import com.google.common.base.Splitter;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.squareup.okhttp.HttpUrl;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import feign.RequestTemplate;
+import feign.Target;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The Marathon instances given as a comma separated marathonHost, and which of them currently
+ * is the leader.
+ *
+ * With several instances the leader is discovered via {@code /v2/leader} and all calls go to
+ * it directly, saving the hop through a non-leader which would proxy them. The leader is
+ * forgotten when it cannot be reached or reports that it has no leader, and updated when
+ * Marathon names a different leader in its responses, so the next call fails over.
+ */
+final class MarathonEndpoints {
+
+    /**
+     * Response header in which Marathon names the current leader.
+     */
+    static final String LEADER_HEADER = "X-Marathon-Leader";
+
+    private final List<String> endpoints;
+    private final AtomicInteger nextEndpoint = new AtomicInteger();
+    private volatile String leader;
+
+    MarathonEndpoints(String marathonHost) {
+        final List<String> parsed = new ArrayList<>();
+        for (String endpoint : Splitter.on(',').trimResults().omitEmptyStrings()
+                .split(StringUtils.defaultString(marathonHost))) {
+            parsed.add(StringUtils.removeEnd(endpoint, "/"));
+        }
+        this.endpoints = Collections.unmodifiableList(parsed);
+    }
+
+    List<String> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Returns the URL to send calls to: the only endpoint, or the leader of several,
+     * discovering it first if it is not known.
+     */
+    String getUrl(OkHttpClient client) {
+        if (endpoints.size() <= 1) {
+            return endpoints.isEmpty() ? "" : endpoints.get(0);
+        }
+        final String knownLeader = leader;
+        return knownLeader != null ? knownLeader : discoverLeader(client);
+    }
+
+    /**
+     * Returns the leader if it is known, without discovering it.
+     */
+    String getLeader() {
+        return leader;
+    }
+
+    private synchronized String discoverLeader(OkHttpClient client) {
+        if (leader != null) {
+            return leader;
+        }
+        //start with a different instance each time, so that a dead one is not asked first
+        final int start = Math.floorMod(nextEndpoint.getAndIncrement(), endpoints.size());
+        for (int i = 0; i < endpoints.size(); i++) {
+            final String endpoint = endpoints.get((start + i) % endpoints.size());
+            final String discovered = askForLeader(client, endpoint);
+            if (discovered != null) {
+                leader = discovered;
+                return discovered;
+            }
+        }
+        //no instance knows the leader, let the next one proxy or fail
+        return endpoints.get(start);
+    }
+
+    private String askForLeader(OkHttpClient client, String endpoint) {
+        final Request request = new Request.Builder()
+                .url(endpoint + "/v2/leader")
+                .header("Accept", "application/json")
+                .build();
+        try {
+            final Response response = client.newCall(request).execute();
+            try {
+                if (!response.isSuccessful()) {
+                    return null;
+                }
+                final JsonElement body = new JsonParser().parse(response.body().string());
+                final JsonElement leaderElement = body.isJsonObject()
+                        ? ((JsonObject) body).get("leader") : null;
+                return leaderElement == null || leaderElement.isJsonNull()
+                        ? null : toUrl(leaderElement.getAsString(), endpoint);
+            } finally {
+                response.body().close();
+            }
+        } catch (IOException | JsonParseException | IllegalStateException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Turns a leader given as {@code host:port} or URL into the URL to call, preferring the
+     * matching configured endpoint so that its scheme and path are kept.
+     */
+    private String toUrl(String leaderAddress, String askedEndpoint) {
+        final String leaderUrl = leaderAddress.contains("://") ? leaderAddress
+                : HttpUrl.parse(askedEndpoint).scheme() + "://" + leaderAddress;
+        final HttpUrl parsedLeader = HttpUrl.parse(leaderUrl);
+        if (parsedLeader == null) {
+            return null;
+        }
+        for (String endpoint : endpoints) {
+            final HttpUrl parsedEndpoint = HttpUrl.parse(endpoint);
+            if (parsedEndpoint != null && parsedEndpoint.host().equals(parsedLeader.host())
+                    && parsedEndpoint.port() == parsedLeader.port()) {
+                return endpoint;
+            }
+        }
+        return StringUtils.removeEnd(leaderUrl, "/");
+    }
+
+    /**
+     * Forgets the leader if it is the instance at the given URL.
+     */
+    void invalidate(HttpUrl failedUrl) {
+        final String knownLeader = leader;
+        if (knownLeader != null && failedUrl.toString().startsWith(knownLeader)) {
+            leader = null;
+        }
+    }
+
+    /**
+     * Watches the calls to Marathon for leader changes and unreachable leaders.
+     */
+    Interceptor getInterceptor() {
+        return chain -> {
+            final Request request = chain.request();
+            final Response response;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                invalidate(request.httpUrl());
+                throw e;
+            }
+            if (endpoints.size() > 1) {
+                final String reportedLeader = response.header(LEADER_HEADER);
+                if (response.code() == 503) {
+                    invalidate(request.httpUrl());
+                } else if (reportedLeader != null && leader != null) {
+                    final String reportedUrl = toUrl(reportedLeader, leader);
+                    if (reportedUrl != null && !reportedUrl.equals(leader)) {
+                        leader = reportedUrl;
+                    }
+                }
+            }
+            return response;
+        };
+    }
+
+    /**
+     * A Feign target sending every call to the current leader.
+     */
+    <T> Target<T> target(Class<T> type, OkHttpClient client) {
+        return new Target<T>() {
+            @Override
+            public Class<T> type() {
+                return type;
+            }
+
+            @Override
+            public String name() {
+                return StringUtils.join(endpoints, ',');
+            }
+
+            @Override
+            public String url() {
+                return getUrl(client);
+            }
+
+            @Override
+            public feign.Request apply(RequestTemplate input) {
+                if (input.url().indexOf("http") != 0) {
+                    input.insert(0, url());
+                }
+                return input.request();
+            }
+        };
+    }
+
+}
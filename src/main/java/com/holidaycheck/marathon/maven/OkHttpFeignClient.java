@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.RequestBody;
+import com.squareup.okhttp.Response;
+import feign.Client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Feign transport backed by OkHttp, so that connections can be pooled and kept alive.
+ */
+final class OkHttpFeignClient implements Client {
+
+    private static final String CONTENT_TYPE = "Content-Type";
+    private static final MediaType DEFAULT_MEDIA_TYPE = MediaType.parse("application/json");
+
+    private final OkHttpClient client;
+
+    OkHttpFeignClient(OkHttpClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public feign.Response execute(feign.Request input, feign.Request.Options options)
+            throws IOException {
+        final Response response = client.newCall(toOkHttpRequest(input)).execute();
+        return toFeignResponse(response);
+    }
+
+    private static Request toOkHttpRequest(feign.Request input) {
+        final Request.Builder builder = new Request.Builder().url(input.url());
+        MediaType mediaType = DEFAULT_MEDIA_TYPE;
+        for (Map.Entry<String, Collection<String>> header : input.headers().entrySet()) {
+            for (String value : header.getValue()) {
+                if (CONTENT_TYPE.equalsIgnoreCase(header.getKey())) {
+                    mediaType = MediaType.parse(value);
+                } else {
+                    builder.addHeader(header.getKey(), value);
+                }
+            }
+        }
+
+        byte[] body = input.body();
+        final String method = input.method();
+        if (body == null && ("POST".equals(method) || "PUT".equals(method)
+                || "PATCH".equals(method))) {
+            body = new byte[0];
+        }
+        builder.method(method, body == null ? null : RequestBody.create(mediaType, body));
+        return builder.build();
+    }
+
+    private static feign.Response toFeignResponse(Response response) throws IOException {
+        final Map<String, Collection<String>> headers = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> header : response.headers().toMultimap().entrySet()) {
+            headers.put(header.getKey(), new ArrayList<>(header.getValue()));
+        }
+        final long length = response.body().contentLength();
+        return feign.Response.create(response.code(), response.message(), headers,
+                response.body().byteStream(),
+                length >= 0 && length <= Integer.MAX_VALUE ? (int) length : null);
+    }
+
+}
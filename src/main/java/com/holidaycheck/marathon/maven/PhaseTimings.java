@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import com.google.common.base.Charsets;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import mesosphere.marathon.client.utils.ModelUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Durations of the phases of a goal, e.g. checking whether an app exists or waiting for its
+ * deployment, along with counters like the number of polls.
+ *
+ * Phases which are entered more than once accumulate their durations. The timings are
+ * reported under the goal and the id of its execution, so several executions of a goal in
+ * one build keep their own entries. Safe for use by concurrent threads.
+ */
+final class PhaseTimings {
+
+    private final String goal;
+    private final long startNanos = System.nanoTime();
+    private final Instant startInstant = Instant.now();
+    private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+    private volatile String appId;
+    private volatile String executionId;
+
+    PhaseTimings(String goal) {
+        this.goal = goal;
+    }
+
+    String getGoal() {
+        return goal;
+    }
+
+    /**
+     * Sets the app the goal works on, to be included in the report.
+     */
+    void setAppId(String appId) {
+        this.appId = appId;
+    }
+
+    /**
+     * Sets the id of the mojo execution running the goal, which the timings are reported
+     * under.
+     */
+    void setExecutionId(String executionId) {
+        this.executionId = executionId;
+    }
+
+    /**
+     * The key the timings are reported under, {@code <goal>.<executionId>} or just the goal
+     * if it does not run as part of a build.
+     */
+    String getKey() {
+        return executionId == null ? goal : goal + "." + executionId;
+    }
+
+    /**
+     * Starts timing a phase, which ends when the returned phase is closed.
+     */
+    Phase start(String phase) {
+        return new Phase(phase, System.nanoTime());
+    }
+
+    synchronized void increment(String counter) {
+        final Long count = counters.get(counter);
+        counters.put(counter, count == null ? 1L : count + 1L);
+    }
+
+    synchronized Map<String, Long> getPhaseNanos() {
+        return new LinkedHashMap<>(phaseNanos);
+    }
+
+    synchronized Map<String, Long> getCounters() {
+        return new LinkedHashMap<>(counters);
+    }
+
+    private synchronized void add(String phase, long nanos) {
+        final Long total = phaseNanos.get(phase);
+        phaseNanos.put(phase, total == null ? nanos : total + nanos);
+    }
+
+    /**
+     * Sets a property per phase holding its duration in milliseconds, named
+     * {@code <prefix><key>.<phase>}, and one per counter likewise.
+     */
+    void exportProperties(Properties properties, String prefix) {
+        final String goalPrefix = prefix + getKey() + ".";
+        properties.setProperty(goalPrefix + "total",
+                String.valueOf(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)));
+        for (Map.Entry<String, Long> phase : getPhaseNanos().entrySet()) {
+            properties.setProperty(goalPrefix + phase.getKey(),
+                    String.valueOf(TimeUnit.NANOSECONDS.toMillis(phase.getValue())));
+        }
+        for (Map.Entry<String, Long> counter : getCounters().entrySet()) {
+            properties.setProperty(goalPrefix + counter.getKey(),
+                    String.valueOf(counter.getValue()));
+        }
+    }
+
+    /**
+     * Adds the timings of the goal to the JSON report under its key, keeping the entries of
+     * other goals and executions which have been written to it during the build.
+     */
+    void writeReport(File report) throws IOException {
+        JsonObject root = null;
+        if (report.isFile()) {
+            try {
+                final JsonElement existing = new JsonParser().parse(
+                        new String(Files.readAllBytes(report.toPath()), Charsets.UTF_8));
+                root = existing.isJsonObject() ? existing.getAsJsonObject() : null;
+            } catch (JsonParseException e) {
+                //start over with a fresh report
+                root = null;
+            }
+        }
+        if (root == null) {
+            root = new JsonObject();
+        }
+        root.add(getKey(), toJson());
+
+        final File directory = report.getAbsoluteFile().getParentFile();
+        if (directory != null) {
+            Files.createDirectories(directory.toPath());
+        }
+        Files.write(report.toPath(), ModelUtils.GSON.toJson(root).getBytes(Charsets.UTF_8));
+    }
+
+    private JsonObject toJson() {
+        final JsonObject json = new JsonObject();
+        json.addProperty("goal", goal);
+        if (executionId != null) {
+            json.addProperty("executionId", executionId);
+        }
+        if (appId != null) {
+            json.addProperty("appId", appId);
+        }
+        json.addProperty("startedAt", startInstant.toString());
+        json.addProperty("totalMillis", toMillis(System.nanoTime() - startNanos));
+        final JsonObject phases = new JsonObject();
+        for (Map.Entry<String, Long> phase : getPhaseNanos().entrySet()) {
+            phases.addProperty(phase.getKey(), toMillis(phase.getValue()));
+        }
+        json.add("phasesMillis", phases);
+        final JsonObject counts = new JsonObject();
+        for (Map.Entry<String, Long> counter : getCounters().entrySet()) {
+            counts.addProperty(counter.getKey(), counter.getValue());
+        }
+        json.add("counters", counts);
+        return json;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1000L / 1000.0;
+    }
+
+    /**
+     * A running phase, to be closed when the phase ends.
+     */
+    final class Phase implements AutoCloseable {
+        private final String name;
+        private final long phaseStartNanos;
+
+        private Phase(String name, long phaseStartNanos) {
+            this.name = name;
+            this.phaseStartNanos = phaseStartNanos;
+        }
+
+        @Override
+        public void close() {
+            add(name, System.nanoTime() - phaseStartNanos);
+        }
+    }
+
+}
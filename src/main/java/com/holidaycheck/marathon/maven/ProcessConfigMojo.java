@@ -21,23 +21,55 @@
 
 package com.holidaycheck.marathon.maven;
 
-import static com.holidaycheck.marathon.maven.Utils.readApp;
-import static com.holidaycheck.marathon.maven.Utils.writeApp;
+import static com.holidaycheck.marathon.maven.Utils.readTokens;
+import static com.holidaycheck.marathon.maven.Utils.renderApp;
 
-import mesosphere.marathon.client.model.v2.App;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
+import org.sonatype.plexus.build.incremental.BuildContext;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteSource;
+import com.google.common.io.Files;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
 
 /**
  * Used to process Marathon config file.
+ *
+ * With variants set, the source is parsed once and rendered into one file per variant in
+ * parallel instead of into the finalMarathonConfigFile.
  */
 @Mojo(name = "processConfig", defaultPhase = LifecyclePhase.VERIFY)
 public class ProcessConfigMojo extends AbstractMarathonMojo {
 
+    private static final String FINGERPRINT_SUFFIX = ".fingerprint";
+
     /**
      * Path to JSON file to read from when processing Marathon config.
      * Default is ${basedir}/marathon.json
@@ -46,6 +78,16 @@ public class ProcessConfigMojo extends AbstractMarathonMojo {
             defaultValue = "${basedir}/marathon.json")
     private String sourceMarathonConfigFile;
 
+    /**
+     * Path to a JSON file shared by several modules which the sourceMarathonConfigFile is
+     * laid over, e.g. holding common health checks, upgradeStrategy, constraints and labels.
+     * Objects like env and labels are merged key by key, portDefinitions and portMappings
+     * element by element, other values of the source replace those of the base and a null
+     * removes them. The base is parsed only once per build.
+     */
+    @Parameter(property = "baseMarathonConfigFile")
+    private String baseMarathonConfigFile;
+
     /**
      * Image name as specified in pom.xml.
      */
@@ -58,17 +100,317 @@ public class ProcessConfigMojo extends AbstractMarathonMojo {
     @Parameter(property = "id")
     private String id;
 
+    /**
+     * Further values to set in the Marathon config, keyed by their dot separated path,
+     * e.g. {@code <container.docker.forcePullImage>true</container.docker.forcePullImage>}.
+     * Replaced numbers and booleans keep their type, other values are set as strings.
+     * Values added at paths missing in the source are booleans for true and false, numbers
+     * if they parse as one and strings otherwise, except below env and labels.
+     */
+    @Parameter
+    private Map<String, String> configPatches = new HashMap<>();
+
+    /**
+     * Whether to always regenerate the final Marathon config file, even if its inputs
+     * did not change since it was last written.
+     */
+    @Parameter(property = "forceProcessConfig")
+    private boolean forceProcessConfig = false;
+
+    /**
+     * Variants of the config to render, each into its own outputFile, e.g. one per
+     * environment or datacenter. A variant can set its id, image, instances, cpus, mem, env
+     * and constraints on top of the other settings of this goal.
+     */
+    @Parameter
+    private List<ConfigVariant> variants = new ArrayList<>();
+
+    @Component
+    private BuildContext buildContext;
 
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
+        if (!variants.isEmpty()) {
+            processVariants();
+            return;
+        }
+
+        final ByteSource source = getSource();
+        if (process(source, hash(source), finalMarathonConfigFile, getPatches(),
+                Collections.<String>emptySet())) {
+            buildContext.refresh(new File(finalMarathonConfigFile));
+        }
+    }
+
+    /**
+     * Renders all variants which are not up to date from the source, which is read and parsed
+     * only once for all of them.
+     */
+    private void processVariants() throws MojoExecutionException {
+        for (ConfigVariant variant : variants) {
+            if (variant.getOutputFile() == null) {
+                throw new MojoExecutionException("Variant of Marathon config file "
+                        + sourceMarathonConfigFile + " without outputFile");
+            }
+        }
+
+        final ByteSource source = readSource(getSource());
+        final HashCode sourceHash = hash(source);
+        final Map<ConfigVariant, Map<String, String>> outdated = new LinkedHashMap<>();
+        for (ConfigVariant variant : variants) {
+            final Map<String, String> patches = getPatches(variant);
+            if (!isUpToDate(variant.getOutputFile().getPath(),
+                    fingerprint(sourceHash, patches))) {
+                outdated.put(variant, patches);
+            }
+        }
+        if (outdated.isEmpty()) {
+            return;
+        }
+
+        final JsonTokenBuffer tokens;
+        try (Reader reader = source.asCharSource(Charsets.UTF_8).openStream()) {
+            tokens = readTokens(reader, sourceMarathonConfigFile);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to read Marathon config file "
+                    + sourceMarathonConfigFile, e);
+        }
+        getLog().info("rendering " + outdated.size() + " variants of Marathon config file "
+                + sourceMarathonConfigFile);
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(outdated.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            final Map<File, Future<?>> renderings = new LinkedHashMap<>();
+            for (Map.Entry<ConfigVariant, Map<String, String>> entry : outdated.entrySet()) {
+                final ConfigVariant variant = entry.getKey();
+                final Map<String, String> patches = entry.getValue();
+                final Set<String> jsonPaths = getJsonPaths(variant);
+                final String outputFile = variant.getOutputFile().getPath();
+                final String fingerprint = fingerprint(sourceHash, patches);
+                renderings.put(variant.getOutputFile(), executor.submit(() -> {
+                    logProcessing(outputFile);
+                    renderApp(tokens, sourceMarathonConfigFile, outputFile, patches, jsonPaths);
+                    writeFingerprint(new File(outputFile + FINGERPRINT_SUFFIX), fingerprint);
+                    return null;
+                }));
+            }
+            for (Map.Entry<File, Future<?>> rendering : renderings.entrySet()) {
+                awaitRendering(rendering.getKey(), rendering.getValue());
+                buildContext.refresh(rendering.getKey());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void awaitRendering(File outputFile, Future<?> rendering)
+            throws MojoExecutionException {
+        try {
+            rendering.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MojoExecutionException) {
+                throw (MojoExecutionException) e.getCause();
+            }
+            throw new MojoExecutionException("Failed to render Marathon config file "
+                    + outputFile, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while rendering Marathon config file "
+                    + outputFile, e);
+        }
+    }
+
+    /**
+     * Writes the target from the source unless it is up to date. The fingerprint covers the
+     * patches from parameters and properties as well, so even an incremental build without
+     * changed files is decided here rather than by the build context's delta.
+     * @return whether the target has been written
+     */
+    private boolean process(ByteSource source, HashCode sourceHash, String targetFile,
+            Map<String, String> patches, Set<String> jsonPaths) throws MojoExecutionException {
+        final String fingerprint = fingerprint(sourceHash, patches);
+        if (isUpToDate(targetFile, fingerprint)) {
+            return false;
+        }
+
+        logProcessing(targetFile);
+        try (Reader reader = source.asCharSource(Charsets.UTF_8).openBufferedStream()) {
+            renderApp(reader, sourceMarathonConfigFile, targetFile, patches, jsonPaths);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to read Marathon config file "
+                    + sourceMarathonConfigFile, e);
+        }
+        writeFingerprint(new File(targetFile + FINGERPRINT_SUFFIX), fingerprint);
+        return true;
+    }
+
+    private boolean isUpToDate(String targetFile, String fingerprint) {
+        if (!forceProcessConfig && new File(targetFile).isFile()
+                && fingerprint.equals(readFingerprint(
+                        new File(targetFile + FINGERPRINT_SUFFIX)))) {
+            getLog().info("Marathon config file " + targetFile
+                    + " is up to date, skipping processing");
+            return true;
+        }
+        return false;
+    }
+
+    private void logProcessing(String targetFile) {
         getLog().info("processing Marathon config file from " + sourceMarathonConfigFile
-                + " to " + finalMarathonConfigFile);
-        App app = readApp(sourceMarathonConfigFile);
+                + (baseMarathonConfigFile == null ? "" : " over " + baseMarathonConfigFile)
+                + " to " + targetFile);
+    }
+
+    /**
+     * The source, laid over the base if there is one. Without a base the source file is
+     * streamed rather than read into memory.
+     */
+    private ByteSource getSource() throws MojoExecutionException {
+        if (baseMarathonConfigFile != null) {
+            final JsonObject base = BaseConfigCache.forSession(session)
+                    .get(new File(baseMarathonConfigFile));
+            final JsonObject overlay = BaseConfigCache.parse(new File(sourceMarathonConfigFile));
+            return ByteSource.wrap(
+                    BaseConfigCache.merge(base, overlay).toString().getBytes(Charsets.UTF_8));
+        }
+        final File sourceFile = new File(sourceMarathonConfigFile);
+        if (!sourceFile.isFile()) {
+            throw new MojoExecutionException("Marathon config file not found at "
+                    + sourceMarathonConfigFile);
+        }
+        return Files.asByteSource(sourceFile);
+    }
+
+    /**
+     * The source held in memory, so that hashing and parsing it read the file only once.
+     */
+    private ByteSource readSource(ByteSource source) throws MojoExecutionException {
+        try {
+            return ByteSource.wrap(source.read());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to read Marathon config file "
+                    + sourceMarathonConfigFile, e);
+        }
+    }
+
+    private HashCode hash(ByteSource source) throws MojoExecutionException {
+        try {
+            return source.hash(Hashing.sha256());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to read Marathon config file "
+                    + sourceMarathonConfigFile, e);
+        }
+    }
+
+    private Map<String, String> getPatches() {
+        final Map<String, String> patches = new TreeMap<>(configPatches);
         if (id != null) {
-            app.setId(id);
+            patches.put("id", id);
+        }
+        patches.put("container.docker.image", image);
+        return patches;
+    }
+
+    private Map<String, String> getPatches(ConfigVariant variant)
+            throws MojoExecutionException {
+        final Map<String, String> patches = getPatches();
+        if (variant.getId() != null) {
+            patches.put("id", variant.getId());
+        }
+        if (variant.getImage() != null) {
+            patches.put("container.docker.image", variant.getImage());
+        }
+        if (variant.getInstances() != null) {
+            patches.put("instances", String.valueOf(variant.getInstances()));
+        }
+        if (variant.getCpus() != null) {
+            patches.put("cpus", toJsonNumber(variant.getCpus()));
+        }
+        if (variant.getMem() != null) {
+            patches.put("mem", toJsonNumber(variant.getMem()));
+        }
+        for (Map.Entry<String, String> env : variant.getEnv().entrySet()) {
+            patches.put("env." + Utils.escapePathSegment(env.getKey()), env.getValue());
+        }
+        if (!variant.getConstraints().isEmpty()) {
+            patches.put("constraints", toJsonConstraints(variant.getConstraints()));
+        }
+        return patches;
+    }
+
+    /**
+     * The paths of the variant's patches which are not strings.
+     */
+    private static Set<String> getJsonPaths(ConfigVariant variant) {
+        final Set<String> jsonPaths = new HashSet<>();
+        if (variant.getInstances() != null) {
+            jsonPaths.add("instances");
+        }
+        if (variant.getCpus() != null) {
+            jsonPaths.add("cpus");
+        }
+        if (variant.getMem() != null) {
+            jsonPaths.add("mem");
+        }
+        if (!variant.getConstraints().isEmpty()) {
+            jsonPaths.add("constraints");
+        }
+        return jsonPaths;
+    }
+
+    private static String toJsonNumber(double value) {
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    private static String toJsonConstraints(List<String> constraints)
+            throws MojoExecutionException {
+        final JsonArray array = new JsonArray();
+        for (String constraint : constraints) {
+            final String[] parts = constraint.trim().split(":", 3);
+            if (parts.length < 2) {
+                throw new MojoExecutionException("Invalid constraint '" + constraint
+                        + "', expected field:OPERATOR[:value]");
+            }
+            final JsonArray parsed = new JsonArray();
+            for (String part : parts) {
+                parsed.add(new JsonPrimitive(part));
+            }
+            array.add(parsed);
+        }
+        return array.toString();
+    }
+
+    /**
+     * Fingerprint of everything the final Marathon config file is generated from.
+     */
+    private static String fingerprint(HashCode sourceHash, Map<String, String> patches) {
+        return Hashing.sha256().newHasher()
+                .putBytes(sourceHash.asBytes())
+                .putChar('\n')
+                .putChar('\n')
+                .putString(new TreeMap<>(patches).toString(), Charsets.UTF_8)
+                .hash().toString();
+    }
+
+    private String readFingerprint(File fingerprintFile) {
+        if (!fingerprintFile.isFile()) {
+            return null;
+        }
+        try {
+            return Files.toString(fingerprintFile, Charsets.UTF_8).trim();
+        } catch (IOException e) {
+            //an unreadable fingerprint just means the config gets processed again
+            return null;
+        }
+    }
+
+    private void writeFingerprint(File fingerprintFile, String fingerprint) {
+        try {
+            Files.write(fingerprint, fingerprintFile, Charsets.UTF_8);
+        } catch (IOException e) {
+            getLog().warn("Failed to write fingerprint of Marathon config file to "
+                    + fingerprintFile + ": " + e.getMessage());
         }
-        app.getContainer().getDocker().setImage(image);
-        writeApp(app, finalMarathonConfigFile);
     }
 
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How often and how patiently calls to Marathon are retried after transient failures, and
+ * when the circuit breaker of a Marathon host opens.
+ */
+final class RetryPolicy {
+
+    private final int maxRetries;
+    private final long initialDelayMillis;
+    private final long maxDelayMillis;
+    private final int circuitBreakerThreshold;
+    private final long circuitBreakerOpenMillis;
+
+    RetryPolicy(int maxRetries, long initialDelayMillis, long maxDelayMillis,
+            int circuitBreakerThreshold, long circuitBreakerOpenMillis) {
+        this.maxRetries = maxRetries;
+        this.initialDelayMillis = initialDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.circuitBreakerThreshold = circuitBreakerThreshold;
+        this.circuitBreakerOpenMillis = circuitBreakerOpenMillis;
+    }
+
+    int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Number of consecutive failures of a host after which its circuit breaker opens.
+     */
+    int getCircuitBreakerThreshold() {
+        return circuitBreakerThreshold;
+    }
+
+    /**
+     * How long an open circuit breaker rejects calls before letting them probe the host again.
+     */
+    long getCircuitBreakerOpenMillis() {
+        return circuitBreakerOpenMillis;
+    }
+
+    /**
+     * Delay before the given retry (starting with 0): a random time up to the exponentially
+     * growing backoff, so that concurrent clients do not retry in lockstep.
+     */
+    long getDelayMillis(int retry) {
+        final long backoff = Math.min(maxDelayMillis,
+                initialDelayMillis << Math.min(retry, 30));
+        return backoff <= 0 ? 0L : ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        final RetryPolicy that = (RetryPolicy) o;
+        return maxRetries == that.maxRetries
+                && initialDelayMillis == that.initialDelayMillis
+                && maxDelayMillis == that.maxDelayMillis
+                && circuitBreakerThreshold == that.circuitBreakerThreshold
+                && circuitBreakerOpenMillis == that.circuitBreakerOpenMillis;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(maxRetries, initialDelayMillis, maxDelayMillis,
+                circuitBreakerThreshold, circuitBreakerOpenMillis);
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import feign.RequestLine;
+import feign.RetryableException;
+import mesosphere.marathon.client.utils.MarathonException;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+
+/**
+ * Retries calls to Marathon which failed for transient reasons, as far as this is safe.
+ *
+ * Marathon being unavailable (502, 503, 504), throttling (429) and connection failures are
+ * retried for all calls. A conflict (409, e.g. an app locked by a running deployment) is
+ * retried for everything but creating apps, where it means the app exists already. Timeouts
+ * and other I/O failures after the request may have been sent are only retried for idempotent
+ * requests. All calls go through the circuit breaker of the host.
+ */
+final class RetryingMarathonHandler implements InvocationHandler {
+
+    private final ExtendedMarathon target;
+    private final RetryPolicy policy;
+    private final CircuitBreaker circuitBreaker;
+
+    private RetryingMarathonHandler(ExtendedMarathon target, RetryPolicy policy,
+            CircuitBreaker circuitBreaker) {
+        this.target = target;
+        this.policy = policy;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    static ExtendedMarathon wrap(ExtendedMarathon target, RetryPolicy policy,
+            CircuitBreaker circuitBreaker) {
+        return (ExtendedMarathon) Proxy.newProxyInstance(
+                RetryingMarathonHandler.class.getClassLoader(),
+                new Class<?>[] {ExtendedMarathon.class},
+                new RetryingMarathonHandler(target, policy, circuitBreaker));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            return invokeTarget(method, args);
+        }
+        final String httpMethod = getHttpMethod(method);
+        int retry = 0;
+        while (true) {
+            final long waitMillis = circuitBreaker.acquire();
+            if (waitMillis > 0) {
+                if (retry >= policy.getMaxRetries()) {
+                    throw new MarathonException(503, "Marathon is considered unavailable "
+                            + "after repeated failures, not calling it for " + waitMillis + " ms");
+                }
+                sleep(waitMillis, new MarathonException(503,
+                        "Interrupted while waiting for Marathon to recover"));
+                retry++;
+                continue;
+            }
+
+            final Exception failure;
+            try {
+                final Object result = invokeTarget(method, args);
+                circuitBreaker.onSuccess();
+                return result;
+            } catch (MarathonException | RetryableException e) {
+                if (isHostFailure(e)) {
+                    circuitBreaker.onFailure();
+                } else {
+                    circuitBreaker.onSuccess();
+                }
+                if (retry >= policy.getMaxRetries() || !isRetryable(e, httpMethod)) {
+                    throw e;
+                }
+                failure = e;
+            } catch (Throwable e) {
+                //the host answered, even if the answer could not be handled
+                circuitBreaker.onSuccess();
+                throw e;
+            }
+            sleep(policy.getDelayMillis(retry), failure);
+            retry++;
+        }
+    }
+
+    private Object invokeTarget(Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Whether the failure says something about the health of the host rather than about
+     * the request.
+     */
+    private static boolean isHostFailure(Exception e) {
+        return e instanceof RetryableException
+                || ((MarathonException) e).getStatus() >= 500;
+    }
+
+    private static boolean isRetryable(Exception e, String httpMethod) {
+        if (e instanceof MarathonException) {
+            final int status = ((MarathonException) e).getStatus();
+            return status == 429 || status == 502 || status == 503 || status == 504
+                    || status == 409 && !"POST".equals(httpMethod);
+        }
+        //nothing has been sent if the connection could not even be established
+        return hasCause(e, ConnectException.class) || hasCause(e, UnknownHostException.class)
+                || isIdempotent(httpMethod);
+    }
+
+    private static boolean isIdempotent(String httpMethod) {
+        return "GET".equals(httpMethod) || "HEAD".equals(httpMethod)
+                || "PUT".equals(httpMethod) || "DELETE".equals(httpMethod);
+    }
+
+    private static boolean hasCause(Throwable e, Class<? extends Throwable> type) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (type.isInstance(cause)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getHttpMethod(Method method) {
+        final RequestLine requestLine = method.getAnnotation(RequestLine.class);
+        if (requestLine == null) {
+            return null;
+        }
+        final String value = requestLine.value().trim();
+        final int space = value.indexOf(' ');
+        return space < 0 ? value : value.substring(0, space);
+    }
+
+    /**
+     * Sleeps before the next attempt, giving up with the given failure if interrupted.
+     */
+    private static void sleep(long millis, Exception failure) throws Exception {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw failure;
+        }
+    }
+
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import mesosphere.marathon.client.model.v2.App;
+import mesosphere.marathon.client.model.v2.GetAppResponse;
+import mesosphere.marathon.client.model.v2.Result;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static com.holidaycheck.marathon.maven.Utils.getApp;
+import static com.holidaycheck.marathon.maven.Utils.readApp;
+import static com.holidaycheck.marathon.maven.Utils.trimLeadingSlash;
+
+/**
+ * Scales an app in Marathon by changing only its number of instances, without sending the
+ * rest of its definition and thus without restarting its running tasks.
+ */
+@Mojo(name = "scale", defaultPhase = LifecyclePhase.DEPLOY)
+public class ScaleMojo extends AbstractMarathonMojo {
+
+    private static final long POLL_INTERVAL_MILLIS = 1000L;
+
+    /**
+     * URL of the marathon host as specified in pom.xml. Several instances of a Marathon
+     * cluster can be given separated by commas, calls then go straight to the leader.
+     */
+    @Parameter(property = "marathonHost", required = true)
+    private String marathonHost;
+
+    /**
+     * ID of the app to scale. Default is the id in finalMarathonConfigFile.
+     */
+    @Parameter(property = "appId")
+    private String appId;
+
+    /**
+     * Number of instances to scale the app to.
+     */
+    @Parameter(property = "instances")
+    private Integer instances;
+
+    /**
+     * Number of instances to add to the app, or to remove if negative.
+     * Used if instances is not set.
+     */
+    @Parameter(property = "instancesDelta")
+    private Integer instancesDelta;
+
+    /**
+     * Whether to scale the app even if it is locked by a running deployment.
+     */
+    @Parameter(property = "forceScale")
+    private boolean forceScale = false;
+
+    /**
+     * Whether to wait until the new number of instances is running.
+     */
+    @Parameter(property = "waitForScaled")
+    private boolean waitForScaled = false;
+
+    /**
+     * Timeout in seconds for waiting until the new number of instances is running.
+     */
+    @Parameter(property = "waitForScaledTimeout")
+    private long waitForScaledTimeout = 60L;
+
+    /**
+     * Whether to fail the build if the new number of instances is not running within the
+     * waitForScaledTimeout, instead of only logging a warning.
+     */
+    @Parameter(property = "failOnScaleTimeout")
+    private boolean failOnScaleTimeout = false;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        final PhaseTimings timings = new PhaseTimings("scale");
+        try {
+            scale(timings);
+        } finally {
+            reportTimings(timings);
+        }
+    }
+
+    private void scale(PhaseTimings timings)
+            throws MojoExecutionException, MojoFailureException {
+        if (instances == null && instancesDelta == null) {
+            throw new MojoExecutionException("Either instances or instancesDelta has to be set");
+        }
+        final ExtendedMarathon marathon = getMarathon(marathonHost);
+        final String id = appId != null ? appId : readApp(finalMarathonConfigFile).getId();
+        timings.setAppId(id);
+
+        final int targetInstances;
+        if (instances != null) {
+            targetInstances = instances;
+        } else {
+            final App app;
+            try (PhaseTimings.Phase ignored = timings.start("appExists")) {
+                app = getExistingApp(marathon, id);
+            }
+            final int currentInstances = app.getInstances() == null ? 0 : app.getInstances();
+            targetInstances = currentInstances + instancesDelta;
+        }
+        if (targetInstances < 0) {
+            throw new MojoExecutionException("Cannot scale " + id + " to " + targetInstances
+                    + " instances");
+        }
+
+        getLog().info("scaling " + id + " to " + targetInstances + " instances");
+        try (PhaseTimings.Phase ignored = timings.start("scaleApp")) {
+            final Result result = marathon.scaleApp(trimLeadingSlash(id),
+                    new ExtendedMarathon.ScaleRequest(targetInstances), forceScale);
+            if (result != null && result.getDeploymentId() != null) {
+                getLog().info("Scaling " + id + " in deployment " + result.getDeploymentId());
+            }
+        } catch (Exception scaleAppException) {
+            throw new MojoExecutionException("Failed to scale " + id + " at " + marathonHost,
+                    scaleAppException);
+        }
+
+        if (waitForScaled) {
+            try (PhaseTimings.Phase ignored = timings.start("waitForScaled")) {
+                waitForScaled(marathon, id, targetInstances, timings);
+            }
+        }
+    }
+
+    private App getExistingApp(ExtendedMarathon marathon, String id)
+            throws MojoExecutionException {
+        final GetAppResponse response = getApp(marathon, id);
+        if (response == null || response.getApp() == null) {
+            throw new MojoExecutionException(id + " does not exist - nothing to scale");
+        }
+        return response.getApp();
+    }
+
+    /**
+     * Polls the app until the given number of tasks is running and no deployment of it is
+     * left, or we have a timeout.
+     */
+    private void waitForScaled(ExtendedMarathon marathon, String id, int targetInstances,
+            PhaseTimings timings) throws MojoExecutionException, MojoFailureException {
+        final Instant deadline = Instant.now().plusSeconds(waitForScaledTimeout);
+        while (true) {
+            timings.increment("waitForScaled.polls");
+            final App app = getExistingApp(marathon, id);
+            final int running = app.getTasksRunning() == null ? 0 : app.getTasksRunning();
+            final boolean deploying = app.getDeployments() != null
+                    && !app.getDeployments().isEmpty();
+            if (running == targetInstances && !deploying) {
+                getLog().info(running + " instances of " + id + " are running");
+                return;
+            }
+            final long remaining = Duration.between(Instant.now(), deadline).toMillis();
+            if (remaining <= 0 && failOnScaleTimeout) {
+                throw new MojoFailureException("Timeout waiting for " + targetInstances
+                        + " instances of " + id + " after " + waitForScaledTimeout + " s, "
+                        + running + " are running");
+            } else if (remaining <= 0) {
+                getLog().warn("Timeout waiting for " + targetInstances + " instances of " + id
+                        + ", " + running + " are running");
+                return;
+            }
+            getLog().debug(running + " of " + targetInstances + " instances of " + id
+                    + " are running");
+            try {
+                Thread.sleep(Math.min(POLL_INTERVAL_MILLIS, remaining));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new MojoExecutionException("Interrupted while waiting for " + id, e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import java.io.IOException;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Starts an in-process Marathon emulator, e.g. to run deploy, apptasks and delete against
+ * in integration tests without a real Marathon. Its URL is set as a project property, to be
+ * used as the marathonHost of the following goals.
+ *
+ * The emulator runs until the stop-emulator goal or the end of the build session, so it is
+ * stopped even if a failing integration test keeps post-integration-test from running.
+ */
+@Mojo(name = "start-emulator", defaultPhase = LifecyclePhase.PRE_INTEGRATION_TEST)
+public class StartEmulatorMojo extends AbstractMarathonMojo {
+
+    /**
+     * Port to listen on, any free port by default.
+     */
+    @Parameter(property = "emulatorPort")
+    private int emulatorPort = 0;
+
+    /**
+     * Delay in milliseconds of every response, to simulate a remote Marathon.
+     */
+    @Parameter(property = "emulatorLatency")
+    private long emulatorLatency = 0L;
+
+    /**
+     * Duration in milliseconds of each step of a simulated deployment.
+     */
+    @Parameter(property = "emulatorDeploymentStepDuration")
+    private long emulatorDeploymentStepDuration = 500L;
+
+    /**
+     * Name of the project property to set to the URL of the emulator.
+     */
+    @Parameter(property = "emulatorUrlProperty")
+    private String emulatorUrlProperty = "marathonEmulator.url";
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        final MarathonEmulator emulator;
+        try {
+            emulator = MarathonEmulator.start(emulatorPort, emulatorLatency,
+                    emulatorDeploymentStepDuration);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to start Marathon emulator on port "
+                    + emulatorPort, e);
+        }
+        if (session != null) {
+            MarathonClientRegistry.runOnSessionEnd(session.getRequest(), emulator::close);
+        }
+        project.getProperties().put(emulatorUrlProperty, emulator.getUrl());
+        getLog().info("Marathon emulator listening at " + emulator.getUrl() + ", setting "
+                + emulatorUrlProperty);
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Stops a Marathon emulator started by the start-emulator goal.
+ */
+@Mojo(name = "stop-emulator", defaultPhase = LifecyclePhase.POST_INTEGRATION_TEST)
+public class StopEmulatorMojo extends AbstractMarathonMojo {
+
+    /**
+     * URL of the emulator to stop. By default the URL start-emulator set as the project
+     * property named by emulatorUrlProperty.
+     */
+    @Parameter(property = "emulatorUrl")
+    private String emulatorUrl;
+
+    /**
+     * Name of the project property start-emulator set to the URL of the emulator.
+     */
+    @Parameter(property = "emulatorUrlProperty")
+    private String emulatorUrlProperty = "marathonEmulator.url";
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        final String emulatorUrl = this.emulatorUrl != null
+                ? this.emulatorUrl : project.getProperties().getProperty(emulatorUrlProperty);
+        if (emulatorUrl == null) {
+            getLog().warn("No Marathon emulator URL in property " + emulatorUrlProperty);
+            return;
+        }
+        final MarathonEmulator emulator = MarathonEmulator.forUrl(emulatorUrl);
+        if (emulator == null) {
+            getLog().warn("No Marathon emulator running at " + emulatorUrl);
+            return;
+        }
+        emulator.close();
+        getLog().info("Stopped Marathon emulator at " + emulatorUrl);
+    }
+
+}
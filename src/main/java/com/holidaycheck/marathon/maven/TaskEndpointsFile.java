@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import com.google.common.base.Charsets;
+import com.google.gson.stream.JsonWriter;
+import com.holidaycheck.marathon.maven.ExtendedMarathon.AgentTask;
+import mesosphere.marathon.client.model.v2.HealthCheckResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Writes the endpoints of many tasks to a single compact file instead of one project property
+ * per task and port.
+ *
+ * The JSON format is an array holding an object per task with its appId, id, host, agentId,
+ * health and ports. The CSV format has a row per endpoint with the columns
+ * appId,taskId,host,portIndex,port.
+ */
+final class TaskEndpointsFile {
+
+    static final String JSON = "json";
+    static final String CSV = "csv";
+
+    private TaskEndpointsFile() {
+    }
+
+    /**
+     * Writes the tasks in the given format.
+     * @param portIndices indices of the ports to write, all ports if empty
+     * @return the number of endpoints written
+     */
+    static int write(File file, String format, Collection<AgentTask> tasks,
+                     List<Integer> portIndices) throws IOException {
+        final File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null) {
+            Files.createDirectories(directory.toPath());
+        }
+        try (Writer writer = Files.newBufferedWriter(file.toPath(), Charsets.UTF_8)) {
+            if (JSON.equalsIgnoreCase(format)) {
+                return writeJson(writer, tasks, portIndices);
+            } else if (CSV.equalsIgnoreCase(format)) {
+                return writeCsv(writer, tasks, portIndices);
+            }
+            throw new IllegalArgumentException("Unknown tasks file format " + format);
+        }
+    }
+
+    /**
+     * Health of a task as reported by its health check results: healthy, unhealthy or unknown
+     * if there are no results (yet).
+     */
+    static String getHealth(AgentTask task) {
+        if (task.getHealthCheckResults() == null || task.getHealthCheckResults().isEmpty()) {
+            return "unknown";
+        }
+        for (final HealthCheckResult result : task.getHealthCheckResults()) {
+            if (result == null || !result.isAlive()) {
+                return "unhealthy";
+            }
+        }
+        return "healthy";
+    }
+
+    private static int writeJson(Writer writer, Collection<AgentTask> tasks,
+                                 List<Integer> portIndices) throws IOException {
+        int endpoints = 0;
+        final JsonWriter json = new JsonWriter(writer);
+        json.beginArray();
+        for (final AgentTask task : tasks) {
+            json.beginObject();
+            json.name("appId").value(task.getAppId());
+            json.name("id").value(task.getId());
+            json.name("host").value(task.getHost());
+            json.name("agentId").value(task.getAgentId());
+            json.name("health").value(getHealth(task));
+            json.name("ports").beginArray();
+            final List<Integer> ports = getPorts(task);
+            for (final int index : selectPortIndices(ports, portIndices)) {
+                json.value(ports.get(index));
+                endpoints++;
+            }
+            json.endArray();
+            json.endObject();
+        }
+        json.endArray();
+        json.flush();
+        return endpoints;
+    }
+
+    private static int writeCsv(Writer writer, Collection<AgentTask> tasks,
+                                List<Integer> portIndices) throws IOException {
+        int endpoints = 0;
+        writer.write("appId,taskId,host,portIndex,port\n");
+        for (final AgentTask task : tasks) {
+            final List<Integer> ports = getPorts(task);
+            for (final int index : selectPortIndices(ports, portIndices)) {
+                writer.write(csv(task.getAppId()) + "," + csv(task.getId()) + ","
+                        + csv(task.getHost()) + "," + index + "," + ports.get(index) + "\n");
+                endpoints++;
+            }
+        }
+        return endpoints;
+    }
+
+    private static List<Integer> getPorts(AgentTask task) {
+        return task.getPorts() == null
+                ? new ArrayList<Integer>() : new ArrayList<>(task.getPorts());
+    }
+
+    /**
+     * The requested port indices the task actually has, or all of its indices.
+     */
+    private static List<Integer> selectPortIndices(List<Integer> ports,
+                                                   List<Integer> portIndices) {
+        final List<Integer> indices = new ArrayList<>();
+        if (portIndices.isEmpty()) {
+            for (int index = 0; index < ports.size(); index++) {
+                indices.add(index);
+            }
+        } else {
+            for (final Integer index : portIndices) {
+                if (index != null && index >= 0 && index < ports.size()) {
+                    indices.add(index);
+                }
+            }
+        }
+        return indices;
+    }
+
+    private static String csv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+}
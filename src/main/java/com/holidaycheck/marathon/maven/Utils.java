@@ -30,8 +30,17 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
+import mesosphere.marathon.client.Marathon;
 import mesosphere.marathon.client.model.v2.App;
+import mesosphere.marathon.client.model.v2.GetAppResponse;
+import mesosphere.marathon.client.utils.MarathonException;
 import mesosphere.marathon.client.utils.ModelUtils;
 
 import org.apache.maven.plugin.MojoExecutionException;
@@ -39,6 +48,9 @@ import org.apache.maven.plugin.MojoExecutionException;
 import com.google.common.base.Charsets;
 import com.google.gson.JsonIOException;
 import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 public class Utils {
 
@@ -72,4 +84,335 @@ public class Utils {
             throw new MojoExecutionException("Failed to serialize Marathon config file", e);
         }
     }
+
+    public static boolean appExists(Marathon marathon, String appId)
+            throws MojoExecutionException {
+        return getApp(marathon, appId) != null;
+    }
+
+    /**
+     * Gets the app as currently known to Marathon.
+     * @return the response or null if there is no such app
+     */
+    public static GetAppResponse getApp(Marathon marathon, String appId)
+            throws MojoExecutionException {
+        try {
+            final GetAppResponse response = marathon.getApp(trimLeadingSlash(appId));
+            return response == null ? new GetAppResponse() : response;
+        } catch (MarathonException getAppException) {
+            if (getAppException.getStatus() == 404) {
+                return null;
+            } else {
+                throw new MojoExecutionException("Failed to check if an app " + appId + " exists",
+                        getAppException);
+            }
+        } catch (Exception e) {
+            throw new MojoExecutionException("Failed to check if an app " + appId + " exists", e);
+        }
+    }
+
+    public static String trimLeadingSlash(final String appId) {
+        if (appId != null && appId.startsWith("/")) {
+            return appId.substring(1);
+        } else {
+            return appId;
+        }
+    }
+
+    /**
+     * Copies a Marathon config file token by token, replacing the values at the given paths.
+     *
+     * Paths are dot separated object keys like {@code container.docker.image}, with dots and
+     * backslashes within a key escaped by a backslash (see {@link #escapePathSegment}). A replaced
+     * number or boolean keeps its type, anything else is written as a string. Paths missing
+     * in the source are added, as a boolean for {@code true} or {@code false}, as a number if
+     * the value is one and as a string otherwise. Values below env and labels are always
+     * strings, as Marathon expects them. All other content, including fields unknown to the
+     * {@link App} model, is copied through unchanged without binding the document. Like
+     * reading a config, parsing is lenient, so comments and single quotes are accepted.
+     *
+     * The values of the patches at jsonPaths are JSON literals written as they are, e.g. a
+     * number or an array.
+     */
+    public static void renderApp(Reader source, String sourceFile, String targetFile,
+            Map<String, String> patches, Set<String> jsonPaths) throws MojoExecutionException {
+        renderApp(newConfigReader(source), sourceFile, targetFile, patches, jsonPaths);
+    }
+
+    /**
+     * Renders the config from the tokens of a source read before, see
+     * {@link #renderApp(Reader, String, String, Map, Set)}.
+     */
+    static void renderApp(JsonTokenBuffer source, String sourceFile, String targetFile,
+            Map<String, String> patches, Set<String> jsonPaths) throws MojoExecutionException {
+        renderApp(source.newReader(), sourceFile, targetFile, patches, jsonPaths);
+    }
+
+    /**
+     * Reads the tokens of a Marathon config file to render it several times.
+     */
+    static JsonTokenBuffer readTokens(Reader source, String sourceFile)
+            throws MojoExecutionException {
+        try {
+            return JsonTokenBuffer.read(newConfigReader(source));
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw new MojoExecutionException("Failed to read Marathon config file "
+                    + sourceFile, e);
+        }
+    }
+
+    private static JsonReader newConfigReader(Reader source) {
+        final JsonReader reader = new JsonReader(source);
+        //as lenient as the Gson binding used to read configs
+        reader.setLenient(true);
+        return reader;
+    }
+
+    private static void renderApp(JsonReader source, String sourceFile, String targetFile,
+            Map<String, String> patches, Set<String> jsonPaths) throws MojoExecutionException {
+        try (Writer writer = new OutputStreamWriter(
+                     new FileOutputStream(new File(targetFile)), Charsets.UTF_8)) {
+            patchApp(source, writer, sourceFile, patches, jsonPaths);
+        } catch (FileNotFoundException e) {
+            throw new MojoExecutionException("Marathon config file cannot be written at "
+                    + targetFile, e);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Failed to process Marathon config file "
+                    + sourceFile, e);
+        }
+    }
+
+    private static void patchApp(JsonReader reader, Writer target, String sourceFile,
+            Map<String, String> patches, Set<String> jsonPaths)
+            throws IOException, MojoExecutionException {
+        final Patches pending = new Patches(patches, jsonPaths);
+        final JsonWriter writer = new JsonWriter(target);
+        writer.setIndent("  ");
+        try {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                throw new MojoExecutionException("Marathon config file " + sourceFile
+                        + " does not contain a JSON object");
+            }
+            patchObject(reader, writer, "", pending);
+            writer.flush();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new MojoExecutionException("Failed to process Marathon config file "
+                    + sourceFile, e);
+        }
+    }
+
+    private static void patchObject(JsonReader reader, JsonWriter writer, String path,
+            Patches patches) throws IOException {
+        reader.beginObject();
+        writer.beginObject();
+        while (reader.hasNext()) {
+            final String name = reader.nextName();
+            final String childPath = path.isEmpty()
+                    ? escapePathSegment(name) : path + "." + escapePathSegment(name);
+            writer.name(name);
+            final JsonToken token = reader.peek();
+            if (patches.values.containsKey(childPath)) {
+                reader.skipValue();
+                patches.write(writer, childPath, token);
+            } else if (patches.hasPatchesBelow(childPath)) {
+                if (token != JsonToken.BEGIN_OBJECT && token != JsonToken.NULL) {
+                    throw new IllegalStateException("Cannot patch below " + childPath
+                            + " as it is not an object");
+                } else if (token == JsonToken.NULL) {
+                    //replace a null parent with an object holding just the patched values
+                    reader.nextNull();
+                    writer.beginObject();
+                    writeMissing(writer, childPath, patches);
+                    writer.endObject();
+                } else {
+                    patchObject(reader, writer, childPath, patches);
+                }
+            } else {
+                copyValue(reader, writer);
+            }
+        }
+        writeMissing(writer, path, patches);
+        reader.endObject();
+        writer.endObject();
+    }
+
+    /**
+     * Adds the patched paths below the given object path that were not present in the source.
+     */
+    private static void writeMissing(JsonWriter writer, String path, Patches patches)
+            throws IOException {
+        final String prefix = path.isEmpty() ? "" : path + ".";
+        final SortedMap<String, String> missing = new TreeMap<>();
+        for (Map.Entry<String, String> patch : patches.values.entrySet()) {
+            if (patch.getKey().startsWith(prefix) && !patches.applied.contains(patch.getKey())) {
+                missing.put(patch.getKey().substring(prefix.length()), patch.getValue());
+            }
+        }
+        String openedChild = null;
+        for (Map.Entry<String, String> patch : missing.entrySet()) {
+            final String relativePath = patch.getKey();
+            final int dot = indexOfSeparator(relativePath);
+            if (dot < 0) {
+                writer.name(unescapePathSegment(relativePath));
+                patches.write(writer, prefix + relativePath, null);
+            } else {
+                final String child = relativePath.substring(0, dot);
+                if (!child.equals(openedChild)) {
+                    openedChild = child;
+                    writer.name(unescapePathSegment(child)).beginObject();
+                    writeMissing(writer, prefix + child, patches);
+                    writer.endObject();
+                }
+            }
+        }
+    }
+
+    /**
+     * Escapes an object key for use in a patch path, so that e.g. an environment variable
+     * named {@code com.example.flag} is not taken for nested objects.
+     */
+    static String escapePathSegment(String name) {
+        return name.replace("\\", "\\\\").replace(".", "\\.");
+    }
+
+    private static String unescapePathSegment(String segment) {
+        final StringBuilder name = new StringBuilder(segment.length());
+        for (int i = 0; i < segment.length(); i++) {
+            final char c = segment.charAt(i);
+            if (c == '\\' && i + 1 < segment.length()) {
+                i++;
+                name.append(segment.charAt(i));
+            } else {
+                name.append(c);
+            }
+        }
+        return name.toString();
+    }
+
+    /**
+     * Index of the first dot of the path which is not escaped, -1 if there is none.
+     */
+    private static int indexOfSeparator(String path) {
+        for (int i = 0; i < path.length(); i++) {
+            final char c = path.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == '.') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The values to set by their paths and which of them have been written so far.
+     */
+    private static final class Patches {
+        private final Map<String, String> values;
+        private final Set<String> jsonPaths;
+        private final Set<String> applied = new HashSet<>();
+
+        Patches(Map<String, String> values, Set<String> jsonPaths) {
+            this.values = values;
+            this.jsonPaths = jsonPaths;
+        }
+
+        boolean hasPatchesBelow(String path) {
+            for (String patchPath : values.keySet()) {
+                if (patchPath.startsWith(path + ".")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Writes the value of the path in place of a value of the given type, or of a value
+         * missing in the source if the type is null.
+         */
+        void write(JsonWriter writer, String path, JsonToken replacedToken) throws IOException {
+            final String value = values.get(path);
+            applied.add(path);
+            if (value == null) {
+                writer.nullValue();
+            } else if (jsonPaths.contains(path)) {
+                writer.jsonValue(value);
+            } else if (replacedToken == null) {
+                write(writer, path, inferToken(path, value));
+            } else if (replacedToken == JsonToken.NUMBER) {
+                writer.jsonValue(new BigDecimal(value.trim()).toString());
+            } else if (replacedToken == JsonToken.BOOLEAN) {
+                writer.value(Boolean.parseBoolean(value));
+            } else {
+                writer.value(value);
+            }
+        }
+
+        /**
+         * The type of a value added at a path missing in the source.
+         */
+        private static JsonToken inferToken(String path, String value) {
+            if (path.startsWith("env.") || path.startsWith("labels.")) {
+                return JsonToken.STRING;
+            }
+            if ("true".equals(value) || "false".equals(value)) {
+                return JsonToken.BOOLEAN;
+            }
+            try {
+                new BigDecimal(value.trim());
+                return JsonToken.NUMBER;
+            } catch (NumberFormatException e) {
+                return JsonToken.STRING;
+            }
+        }
+    }
+
+    /**
+     * Copies the next value with all of its nested content.
+     */
+    private static void copyValue(JsonReader reader, JsonWriter writer) throws IOException {
+        int depth = 0;
+        do {
+            switch (reader.peek()) {
+                case BEGIN_OBJECT:
+                    reader.beginObject();
+                    writer.beginObject();
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    reader.endObject();
+                    writer.endObject();
+                    depth--;
+                    break;
+                case BEGIN_ARRAY:
+                    reader.beginArray();
+                    writer.beginArray();
+                    depth++;
+                    break;
+                case END_ARRAY:
+                    reader.endArray();
+                    writer.endArray();
+                    depth--;
+                    break;
+                case NAME:
+                    writer.name(reader.nextName());
+                    break;
+                case STRING:
+                    writer.value(reader.nextString());
+                    break;
+                case NUMBER:
+                    writer.jsonValue(reader.nextString());
+                    break;
+                case BOOLEAN:
+                    writer.value(reader.nextBoolean());
+                    break;
+                case NULL:
+                    reader.nextNull();
+                    writer.nullValue();
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected JSON token " + reader.peek());
+            }
+        } while (depth > 0);
+    }
 }
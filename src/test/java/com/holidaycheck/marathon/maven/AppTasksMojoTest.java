@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.configuration.DefaultPlexusConfiguration;
+import org.codehaus.plexus.configuration.PlexusConfiguration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+
+public class AppTasksMojoTest extends AbstractMarathonMojoTestWithJUnit4 {
+
+    private static final String APP_ID = "/example-1";
+    private static final String MARATHON_PATH = "/v2/apps";
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+    @Rule
+    public final MockWebServer server = new MockWebServer();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final MavenProject project = new MavenProject();
+
+    private String getMarathonHost() {
+        return StringUtils.removeEnd(server.url("").toString(), "/");
+    }
+
+    private AppTasksMojo lookupAppTasksMojo(String minReadyTasks) throws Exception {
+        PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("marathonHost", getMarathonHost());
+        pluginCfg.addChild("finalMarathonConfigFile", getTestMarathonConfigFile());
+        pluginCfg.addChild("propertyPrefix", "mesos-");
+        pluginCfg.addChild("minReadyTasks", minReadyTasks);
+        pluginCfg.addChild("readyTasksTimeout", "5");
+        final AppTasksMojo mojo = (AppTasksMojo) lookupMarathonMojo("apptasks", pluginCfg);
+        setVariableValueToObject(mojo, "project", project);
+        return mojo;
+    }
+
+    private AppTasksMojo lookupTasksFileMojo(File tasksFile, String... config)
+            throws Exception {
+        PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("marathonHost", getMarathonHost());
+        pluginCfg.addChild("propertyPrefix", "mesos-");
+        pluginCfg.addChild("tasksFile", tasksFile.getAbsolutePath());
+        for (int i = 0; i < config.length; i += 2) {
+            pluginCfg.addChild(config[i], config[i + 1]);
+        }
+        if (pluginCfg.getChild("finalMarathonConfigFile", false) == null) {
+            pluginCfg.addChild("finalMarathonConfigFile", getTestMarathonConfigFile());
+        }
+        final AppTasksMojo mojo = (AppTasksMojo) lookupMarathonMojo("apptasks", pluginCfg);
+        setVariableValueToObject(mojo, "project", project);
+        return mojo;
+    }
+
+    private static String agentTask(String appId, String host, String agentId, Boolean alive,
+                                    int... ports) {
+        final StringBuilder portList = new StringBuilder();
+        for (final int port : ports) {
+            portList.append(portList.length() == 0 ? "" : ", ").append(port);
+        }
+        return "{ \"id\": \"" + host + "-task\", \"appId\": \"" + appId + "\", "
+                + "\"host\": \"" + host + "\", \"slaveId\": \"" + agentId + "\", "
+                + "\"ports\": [ " + portList + " ]"
+                + (alive == null
+                        ? "" : ", \"healthCheckResults\": [ { \"alive\": " + alive + " } ]")
+                + " }";
+    }
+
+    private static String task(String host, int port, String startedAt, Boolean alive) {
+        return "{ \"id\": \"" + host + "-task\", \"appId\": \"" + APP_ID + "\", "
+                + "\"host\": \"" + host + "\", \"ports\": [ " + port + " ]"
+                + (startedAt == null ? "" : ", \"startedAt\": \"" + startedAt + "\"")
+                + (alive == null ? "" : ", \"healthCheckResults\": [ { \"alive\": " + alive + " } ]")
+                + " }";
+    }
+
+    private static MockResponse tasksResponse(String... tasks) {
+        return new MockResponse().setResponseCode(200)
+                .setBody("{ \"tasks\": [ " + StringUtils.join(tasks, ", ") + " ] }");
+    }
+
+    @Test
+    public void testSetsPropertiesForAllTasks() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200)); //does the app exist
+        server.enqueue(tasksResponse(task("host-a", 31000, null, null),
+                task("host-b", 31001, "2016-05-01T10:00:00.000Z", true)));
+
+        lookupAppTasksMojo("0").execute();
+
+        assertEquals(2, server.getRequestCount());
+        assertEquals(MARATHON_PATH + APP_ID, server.takeRequest().getPath());
+        assertEquals(MARATHON_PATH + APP_ID + "/tasks", server.takeRequest().getPath());
+        final Properties properties = project.getProperties();
+        assertEquals("host-a", properties.getProperty("mesos-host0"));
+        assertEquals("31000", properties.getProperty("mesos-port0-0"));
+        assertEquals("host-b", properties.getProperty("mesos-host1"));
+        assertEquals("31001", properties.getProperty("mesos-port1-0"));
+    }
+
+    @Test
+    public void testWaitsForReadyTasks() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200)); //does the app exist
+        server.enqueue(tasksResponse()); //nothing scheduled yet
+        server.enqueue(tasksResponse(task("host-a", 31000, null, null),
+                task("host-b", 31001, "2016-05-01T10:00:00.000Z", false)));
+        server.enqueue(tasksResponse(task("host-a", 31000, "2016-05-01T10:00:01.000Z", true),
+                task("host-b", 31001, "2016-05-01T10:00:00.000Z", true)));
+
+        lookupAppTasksMojo("2").execute();
+
+        assertEquals(4, server.getRequestCount());
+        final Properties properties = project.getProperties();
+        assertEquals("host-a", properties.getProperty("mesos-host0"));
+        assertEquals("host-b", properties.getProperty("mesos-host1"));
+    }
+
+    @Test
+    public void testIgnoresDelayWhenWaitingForReadyTasks() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200)); //does the app exist
+        server.enqueue(tasksResponse(task("host-a", 31000, "2016-05-01T10:00:00.000Z", true)));
+        final AppTasksMojo mojo = lookupAppTasksMojo("1");
+        setVariableValueToObject(mojo, "delay", 30L);
+
+        final long start = System.nanoTime();
+        mojo.execute();
+        final long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertTrue("took " + elapsedMillis + "ms", elapsedMillis < 5000);
+        assertEquals("host-a", project.getProperties().getProperty("mesos-host0"));
+    }
+
+    @Test
+    public void testFailsOnReadyTasksTimeout() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200)); //does the app exist
+        for (int i = 0; i < 10; i++) {
+            server.enqueue(tasksResponse(task("host-a", 31000, null, null)));
+        }
+        final AppTasksMojo mojo = lookupAppTasksMojo("1");
+        setVariableValueToObject(mojo, "readyTasksTimeout", 1L);
+        setVariableValueToObject(mojo, "failOnReadyTasksTimeout", true);
+        thrown.expect(MojoFailureException.class);
+        thrown.expectMessage("only 0 are ready");
+
+        try {
+            mojo.execute();
+        } finally {
+            assertNull(project.getProperties().getProperty("mesos-host0"));
+        }
+    }
+
+    @Test
+    public void testFailsOnMarathonErrorWhileWaitingForReadyTasks() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200)); //does the app exist
+        server.enqueue(new MockResponse().setResponseCode(500)); //get the tasks
+        thrown.expect(MojoExecutionException.class);
+
+        lookupAppTasksMojo("1").execute();
+    }
+
+    @Test
+    public void testExportsOnlyReadyTasks() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200)); //does the app exist
+        server.enqueue(tasksResponse(task("host-a", 31000, "2016-05-01T10:00:01.000Z", false),
+                task("host-b", 31001, "2016-05-01T10:00:00.000Z", true)));
+
+        lookupAppTasksMojo("1").execute();
+
+        assertEquals(2, server.getRequestCount());
+        final Properties properties = project.getProperties();
+        assertEquals("host-b", properties.getProperty("mesos-host0"));
+        assertNull(properties.getProperty("mesos-host1"));
+    }
+
+    @Test
+    public void testWritesTasksOfSeveralAppsToJsonFile() throws Exception {
+        server.enqueue(tasksResponse(
+                agentTask("/group/a", "host-a", "agent-1", true, 31000, 31001)));
+        server.enqueue(tasksResponse(
+                agentTask("/group/b", "host-b", "agent-2", false, 31002, 31003),
+                agentTask("/group/b", "host-c", "agent-3", true, 31004)));
+        final File tasksFile = new File(folder.getRoot(), "tasks/endpoints.json");
+
+        lookupTasksFileMojo(tasksFile, "appIds", "/group/a,group/b", "taskHealth", "healthy",
+                "taskPortIndices", "1").execute();
+
+        assertEquals(2, server.getRequestCount());
+        assertEquals("/v2/apps/group/a/tasks", server.takeRequest().getPath());
+        assertEquals("/v2/apps/group/b/tasks", server.takeRequest().getPath());
+        assertEquals(tasksFile.getAbsolutePath(), project.getProperties().get("mesos-tasksFile"));
+        assertNull(project.getProperties().get("mesos-host0"));
+        assertEquals("[{\"appId\":\"/group/a\",\"id\":\"host-a-task\",\"host\":\"host-a\","
+                + "\"agentId\":\"agent-1\",\"health\":\"healthy\",\"ports\":[31001]},"
+                + "{\"appId\":\"/group/b\",\"id\":\"host-c-task\",\"host\":\"host-c\","
+                + "\"agentId\":\"agent-3\",\"health\":\"healthy\",\"ports\":[]}]",
+                new String(Files.readAllBytes(tasksFile.toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testWritesTasksOfManyAppsFromClusterTasks() throws Exception {
+        server.enqueue(tasksResponse(agentTask("/app-1", "host-a", "agent-1", null, 31000),
+                agentTask("/app-6", "host-b", "agent-2", null, 31001),
+                agentTask("/other", "host-c", "agent-3", null, 31002)));
+        final File tasksFile = new File(folder.getRoot(), "endpoints.csv");
+
+        lookupTasksFileMojo(tasksFile, "tasksFileFormat", "csv",
+                "appIds", "app-1,app-2,app-3,app-4,app-5,app-6").execute();
+
+        assertEquals(1, server.getRequestCount());
+        assertEquals("/v2/tasks", server.takeRequest().getPath());
+        assertEquals("appId,taskId,host,portIndex,port\n"
+                + "/app-1,host-a-task,host-a,0,31000\n"
+                + "/app-6,host-b-task,host-b,0,31001\n",
+                new String(Files.readAllBytes(tasksFile.toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testWritesEndpointsOfMatchingAgentsToCsvFile() throws Exception {
+        server.enqueue(tasksResponse(agentTask(APP_ID, "host-a", "agent-1", null, 31000, 31001),
+                agentTask(APP_ID, "host-b", "agent-2", null, 31002)));
+        final File tasksFile = new File(folder.getRoot(), "endpoints.csv");
+
+        lookupTasksFileMojo(tasksFile, "tasksFileFormat", "csv",
+                "taskAgentPattern", "agent-1").execute();
+
+        assertEquals("appId,taskId,host,portIndex,port\n"
+                + "/example-1,host-a-task,host-a,0,31000\n"
+                + "/example-1,host-a-task,host-a,1,31001\n",
+                new String(Files.readAllBytes(tasksFile.toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testWritesTasksOfConfiguredAppWithoutLeadingSlash() throws Exception {
+        final File config = folder.newFile("marathon.json");
+        Files.write(config.toPath(), "{ \"id\": \"example-1\" }".getBytes(StandardCharsets.UTF_8));
+        server.enqueue(tasksResponse(agentTask(APP_ID, "host-a", "agent-1", null, 31000)));
+        final File tasksFile = new File(folder.getRoot(), "endpoints.csv");
+
+        lookupTasksFileMojo(tasksFile, "tasksFileFormat", "csv",
+                "finalMarathonConfigFile", config.getAbsolutePath()).execute();
+
+        assertEquals("appId,taskId,host,portIndex,port\n"
+                + "/example-1,host-a-task,host-a,0,31000\n",
+                new String(Files.readAllBytes(tasksFile.toPath()), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testWaitsForReadyTasksOfTasksFile() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody("{ \"app\": { \"id\": \""
+                + APP_ID + "\", \"healthChecks\": [ { \"protocol\": \"HTTP\" } ] } }"));
+        //started, but its health check has not passed yet
+        server.enqueue(tasksResponse(started(agentTask(APP_ID, "host-a", "agent-1", null, 31000)),
+                agentTask(APP_ID, "host-b", "agent-2", true, 31001)));
+        server.enqueue(tasksResponse(started(agentTask(APP_ID, "host-a", "agent-1", true, 31000)),
+                agentTask(APP_ID, "host-b", "agent-2", true, 31001)));
+        final File tasksFile = new File(folder.getRoot(), "endpoints.csv");
+
+        lookupTasksFileMojo(tasksFile, "tasksFileFormat", "csv", "minReadyTasks", "1",
+                "readyTasksTimeout", "5").execute();
+
+        assertEquals(3, server.getRequestCount());
+        assertEquals("/v2/apps/example-1", server.takeRequest().getPath());
+        //the task which has never been started is not ready either
+        assertEquals("appId,taskId,host,portIndex,port\n"
+                + "/example-1,host-a-task,host-a,0,31000\n",
+                new String(Files.readAllBytes(tasksFile.toPath()), StandardCharsets.UTF_8));
+    }
+
+    private static String started(String agentTask) {
+        return agentTask.replace("\"ports\"",
+                "\"startedAt\": \"2016-05-01T10:00:00.000Z\", \"ports\"");
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import org.apache.commons.lang3.StringUtils;
+import org.codehaus.plexus.configuration.DefaultPlexusConfiguration;
+import org.codehaus.plexus.configuration.PlexusConfiguration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class AwaitMojoTest extends AbstractMarathonMojoTestWithJUnit4 {
+
+    private static final String APP_ID = "/example-1";
+
+    @Rule
+    public final MockWebServer server = new MockWebServer();
+
+    private final File stateFile = new File(getTestPath("target/await"),
+            "marathon-deployments.properties");
+
+    @Before
+    public void removeStateFile() {
+        stateFile.delete();
+    }
+
+    private String getMarathonHost() {
+        return StringUtils.removeEnd(server.url("").toString(), "/");
+    }
+
+    @Test
+    public void testDeployAsyncThenAwait() throws Exception {
+        final UUID deploymentId = UUID.randomUUID();
+        server.enqueue(new MockResponse().setResponseCode(404)); //does the app exist
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBody("{ \"id\": \"" + APP_ID + "\", \"deployments\": [ { \"id\": \""
+                        + deploymentId + "\" } ] }")); //create the app
+
+        final PlexusConfiguration deployCfg = new DefaultPlexusConfiguration("configuration");
+        deployCfg.addChild("marathonHost", getMarathonHost());
+        deployCfg.addChild("finalMarathonConfigFile", getTestMarathonConfigFile());
+        deployCfg.addChild("waitForDeploymentFinished", "true");
+        deployCfg.addChild("deployAsync", "true");
+        deployCfg.addChild("deploymentStateFile", stateFile.getPath());
+        lookupMarathonMojo("deploy", deployCfg).execute();
+
+        //the deploy goal returned without looking at the deployments
+        assertEquals(2, server.getRequestCount());
+        assertTrue(stateFile.isFile());
+
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBody("{ \"app\": { \"id\": \"" + APP_ID + "\", \"deployments\": [ { "
+                        + "\"id\": \"" + deploymentId + "\" } ] } }")); //deployment still running
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBody("{ \"app\": { \"id\": \"" + APP_ID + "\", \"deployments\": [] } }")); //finished
+
+        final PlexusConfiguration awaitCfg = new DefaultPlexusConfiguration("configuration");
+        awaitCfg.addChild("deploymentStateFile", stateFile.getPath());
+        lookupMarathonMojo("await", awaitCfg).execute();
+
+        assertEquals(4, server.getRequestCount());
+        server.takeRequest();
+        server.takeRequest();
+        final RecordedRequest waitRequest = server.takeRequest();
+        assertEquals("/v2/apps" + APP_ID + "?embed=app.deployments&embed=app.counts",
+                waitRequest.getPath());
+        assertFalse(stateFile.exists());
+    }
+
+    @Test
+    public void testAwaitWithoutStateFile() throws Exception {
+        final PlexusConfiguration awaitCfg = new DefaultPlexusConfiguration("configuration");
+        awaitCfg.addChild("deploymentStateFile", stateFile.getPath());
+
+        lookupMarathonMojo("await", awaitCfg).execute();
+
+        assertEquals(0, server.getRequestCount());
+    }
+
+    @Test
+    public void testAwaitUsesOneDeadlineForAllApps() throws Exception {
+        final DeploymentState state = new DeploymentState(stateFile);
+        state.put("/app-1", getMarathonHost(), Collections.singletonList("d1"));
+        state.put("/app-2", getMarathonHost(), Collections.singletonList("d2"));
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                //neither deployment ever finishes
+                return new MockResponse().setResponseCode(200).setBody("{ \"app\": { "
+                        + "\"deployments\": [ { \"id\": \"d1\" }, { \"id\": \"d2\" } ] } }");
+            }
+        });
+
+        final PlexusConfiguration awaitCfg = new DefaultPlexusConfiguration("configuration");
+        awaitCfg.addChild("deploymentStateFile", stateFile.getPath());
+        awaitCfg.addChild("waitForDeploymentTimeout", "2");
+        final long start = System.nanoTime();
+        lookupMarathonMojo("await", awaitCfg).execute();
+        final long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        //the second app only gets what the first one left of the timeout
+        assertTrue("took " + elapsedMillis + "ms", elapsedMillis < 3500);
+        assertTrue(server.getRequestCount() >= 3);
+        //the running deployments are kept for a later await
+        assertEquals(2, new DeploymentState(stateFile).getAll().size());
+    }
+
+    @Test
+    public void testAwaitAgainAfterTimeout() throws Exception {
+        new DeploymentState(stateFile).put(APP_ID, getMarathonHost(),
+                Collections.singletonList("d1"));
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBody("{ \"app\": { \"id\": \"" + APP_ID + "\", \"deployments\": [ { "
+                        + "\"id\": \"d1\" } ] } }")); //deployment still running
+        final PlexusConfiguration awaitCfg = new DefaultPlexusConfiguration("configuration");
+        awaitCfg.addChild("deploymentStateFile", stateFile.getPath());
+        awaitCfg.addChild("waitForDeploymentTimeout", "0");
+        lookupMarathonMojo("await", awaitCfg).execute();
+        assertEquals(1, server.getRequestCount());
+        assertTrue(stateFile.isFile());
+
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBody("{ \"app\": { \"id\": \"" + APP_ID + "\", \"deployments\": [] } }"));
+        lookupMarathonMojo("await", awaitCfg).execute();
+
+        //the second await still knew the deployment to wait for
+        assertEquals(2, server.getRequestCount());
+        assertTrue(new DeploymentState(stateFile).getAll().isEmpty());
+    }
+
+    @Test
+    public void testConcurrentStateUpdatesAreKept() throws Exception {
+        final int apps = 16;
+        final ExecutorService executor = Executors.newFixedThreadPool(apps);
+        try {
+            final List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < apps; i++) {
+                final String appId = "/app-" + i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        //each goal execution has its own instance
+                        new DeploymentState(stateFile).put(appId, getMarathonHost(),
+                                Collections.singletonList(appId + "-deployment"));
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(apps, new DeploymentState(stateFile).getAll().size());
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    private final FakeTicker ticker = new FakeTicker();
+    private final CircuitBreaker breaker = new CircuitBreaker(2, 1000L, ticker);
+
+    @Test
+    public void testOpensAfterConsecutiveFailures() {
+        breaker.onFailure();
+        assertEquals(0L, breaker.acquire());
+        breaker.onSuccess();
+        breaker.onFailure();
+        assertFalse(breaker.isOpen());
+
+        breaker.onFailure();
+        assertTrue(breaker.isOpen());
+        assertEquals(1000L, breaker.acquire());
+        ticker.advance(400L);
+        assertEquals(600L, breaker.acquire());
+    }
+
+    @Test
+    public void testAdmitsSingleProbeWhenHalfOpen() {
+        open();
+        ticker.advance(1000L);
+
+        assertEquals(0L, breaker.acquire()); //the probe
+        assertTrue(breaker.acquire() > 0L);
+        assertTrue(breaker.acquire() > 0L);
+        assertTrue(breaker.isOpen());
+    }
+
+    @Test
+    public void testSuccessfulProbeClosesBreaker() {
+        open();
+        ticker.advance(1000L);
+        assertEquals(0L, breaker.acquire());
+
+        breaker.onSuccess();
+
+        assertFalse(breaker.isOpen());
+        assertEquals(0L, breaker.acquire());
+        assertEquals(0L, breaker.acquire());
+    }
+
+    @Test
+    public void testFailedProbeOpensBreakerAgain() {
+        open();
+        ticker.advance(1000L);
+        assertEquals(0L, breaker.acquire());
+
+        breaker.onFailure();
+
+        assertEquals(1000L, breaker.acquire());
+        ticker.advance(1000L);
+        assertEquals(0L, breaker.acquire()); //the next probe
+    }
+
+    @Test
+    public void testAdmitsNewProbeIfProbeNeverReports() {
+        open();
+        ticker.advance(1000L);
+        assertEquals(0L, breaker.acquire());
+
+        ticker.advance(999L);
+        assertEquals(1L, breaker.acquire());
+        ticker.advance(1L);
+        assertEquals(0L, breaker.acquire());
+        assertTrue(breaker.acquire() > 0L);
+    }
+
+    private void open() {
+        breaker.onFailure();
+        breaker.onFailure();
+        assertTrue(breaker.isOpen());
+    }
+
+    private static final class FakeTicker extends Ticker {
+        private long nanos = 0L;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        void advance(long millis) {
+            nanos += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+
+}
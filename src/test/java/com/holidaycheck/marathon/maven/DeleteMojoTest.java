@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.codehaus.plexus.configuration.DefaultPlexusConfiguration;
+import org.codehaus.plexus.configuration.PlexusConfiguration;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DeleteMojoTest extends AbstractMarathonMojoTestWithJUnit4 {
+
+    private static final String APP_ID = "/example-1";
+    private static final String MARATHON_PATH = "/v2/apps";
+
+    @Rule
+    public final MockWebServer server = new MockWebServer();
+
+    private DeleteMojo lookupDeleteMojo(String... config) throws Exception {
+        final PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("marathonHost", StringUtils.removeEnd(server.url("").toString(), "/"));
+        pluginCfg.addChild("finalMarathonConfigFile", getTestMarathonConfigFile());
+        for (int i = 0; i < config.length; i += 2) {
+            pluginCfg.addChild(config[i], config[i + 1]);
+        }
+        return (DeleteMojo) lookupMarathonMojo("delete", pluginCfg);
+    }
+
+    private static MockResponse deleted(String deploymentId) {
+        return new MockResponse().setResponseCode(200).setBody("{ \"deploymentId\": \""
+                + deploymentId + "\", \"version\": \"2016-01-01T00:00:00.000Z\" }");
+    }
+
+    @Test
+    public void testDeletesConfiguredAppWithoutCheckingItExists() throws Exception {
+        server.enqueue(deleted("d1"));
+
+        lookupDeleteMojo().execute();
+
+        assertEquals(1, server.getRequestCount());
+        final RecordedRequest deleteRequest = server.takeRequest();
+        assertEquals("DELETE", deleteRequest.getMethod());
+        assertEquals(MARATHON_PATH + APP_ID, deleteRequest.getPath());
+    }
+
+    @Test
+    public void testDeletesListedAppsTreatingMissingOnesAsDeleted() throws Exception {
+        final Set<String> deletedPaths = ConcurrentHashMap.newKeySet();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                deletedPaths.add(request.getMethod() + " " + request.getPath());
+                return request.getPath().endsWith("/missing")
+                        ? new MockResponse().setResponseCode(404) : deleted("d");
+            }
+        });
+
+        lookupDeleteMojo("appIds", "/env/a,env/b,/env/missing").execute();
+
+        assertEquals(new HashSet<>(Arrays.asList("DELETE /v2/apps/env/a",
+                "DELETE /v2/apps/env/b", "DELETE /v2/apps/env/missing")), deletedPaths);
+    }
+
+    @Test
+    public void testFailsIfAnAppCannotBeDeleted() throws Exception {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return request.getPath().endsWith("/locked")
+                        ? new MockResponse().setResponseCode(409) : deleted("d");
+            }
+        });
+
+        try {
+            lookupDeleteMojo("appIds", "/env/a,/env/locked", "marathonRetries", "0").execute();
+            fail("Expected MojoExecutionException");
+        } catch (MojoExecutionException e) {
+            assertTrue(e.getMessage().contains("[/env/locked]"));
+        }
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void testDeletesAppsByPrefixAndWaitsForTeardown() throws Exception {
+        final Set<String> deletedPaths = ConcurrentHashMap.newKeySet();
+        final AtomicInteger deploymentPolls = new AtomicInteger();
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if ("DELETE".equals(request.getMethod())) {
+                    deletedPaths.add(request.getPath());
+                    return deleted("d" + request.getPath().replace('/', '-'));
+                } else if (request.getPath().startsWith("/v2/apps?id=")) {
+                    return new MockResponse().setResponseCode(200).setBody("{ \"apps\": [ "
+                            + "{ \"id\": \"/env-1/a\" }, { \"id\": \"/env-1/b\" }, "
+                            + "{ \"id\": \"/env-10/c\" } ] }");
+                } else if ("/v2/deployments".equals(request.getPath())) {
+                    return new MockResponse().setResponseCode(200).setBody(
+                            deploymentPolls.incrementAndGet() == 1
+                                    ? "[ { \"id\": \"d-v2-apps-env-1-a\" } ]" : "[]");
+                }
+                return new MockResponse().setResponseCode(404);
+            }
+        });
+
+        lookupDeleteMojo("appIdPrefix", "/env-1/", "waitForDeploymentFinished", "true")
+                .execute();
+
+        assertEquals(new HashSet<>(Arrays.asList("/v2/apps/env-1/a", "/v2/apps/env-1/b")),
+                deletedPaths);
+        assertEquals(2, deploymentPolls.get());
+    }
+
+    @Test
+    public void testDeletesGroup() throws Exception {
+        server.enqueue(deleted("d1"));
+
+        lookupDeleteMojo("groupId", "/env-1").execute();
+
+        assertEquals(1, server.getRequestCount());
+        final RecordedRequest deleteRequest = server.takeRequest();
+        assertEquals("DELETE", deleteRequest.getMethod());
+        assertEquals("/v2/groups/env-1", deleteRequest.getPath());
+    }
+
+}
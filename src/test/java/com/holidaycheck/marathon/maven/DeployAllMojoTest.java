@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import mesosphere.marathon.client.model.v2.App;
+import mesosphere.marathon.client.utils.ModelUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.codehaus.plexus.configuration.DefaultPlexusConfiguration;
+import org.codehaus.plexus.configuration.PlexusConfiguration;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+public class DeployAllMojoTest extends AbstractMarathonMojoTestWithJUnit4 {
+
+    private static final String MARATHON_PATH = "/v2/apps";
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+    @Rule
+    public final MockWebServer server = new MockWebServer();
+
+    private String getMarathonHost() {
+        return StringUtils.removeEnd(server.url("").toString(), "/");
+    }
+
+    private File createConfigDirectory(String... appIds) throws Exception {
+        final File directory = new File(getTestPath("target/deploy-all"));
+        FileUtils.deleteDirectory(directory);
+        for (String appId : appIds) {
+            final File appDirectory = new File(directory, appId);
+            assertTrue(appDirectory.mkdirs());
+            final App app = Utils.readApp(getTestMarathonConfigFile());
+            app.setId("/" + appId);
+            Utils.writeApp(app, new File(appDirectory, "marathon.json").getPath());
+        }
+        return directory;
+    }
+
+    private void writeConfig(File directory, String appId, String... dependencies)
+            throws Exception {
+        final File appDirectory = new File(directory, appId);
+        assertTrue(appDirectory.mkdirs());
+        final App app = Utils.readApp(getTestMarathonConfigFile());
+        app.setId("/group/" + appId);
+        for (String dependency : dependencies) {
+            app.addDependency(dependency);
+        }
+        Utils.writeApp(app, new File(appDirectory, "marathon.json").getPath());
+    }
+
+    private DeployAllMojo lookupDeployAllMojo(File configDirectory) throws Exception {
+        PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("marathonHost", getMarathonHost());
+        pluginCfg.addChild("marathonConfigDirectory", configDirectory.getPath());
+        pluginCfg.addChild("deployThreads", "4");
+        return (DeployAllMojo) lookupMarathonMojo("deploy-all", pluginCfg);
+    }
+
+    @Test
+    public void testDeploysAllAppsConcurrently() throws Exception {
+        final File configDirectory = createConfigDirectory("app-1", "app-2", "app-3", "app-4");
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                Thread.sleep(500);
+                return new MockResponse().setResponseCode(
+                        "GET".equals(request.getMethod()) ? 404 : 200);
+            }
+        });
+
+        final DeployAllMojo mojo = lookupDeployAllMojo(configDirectory);
+        assertNotNull(mojo);
+
+        final long start = System.nanoTime();
+        mojo.execute();
+        final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(8, server.getRequestCount());
+        final Set<String> createdPaths = new HashSet<>();
+        for (int i = 0; i < 8; i++) {
+            final RecordedRequest request = server.takeRequest();
+            if ("GET".equals(request.getMethod())) {
+                createdPaths.add(request.getPath());
+            }
+        }
+        assertEquals(4, createdPaths.size());
+        assertTrue(createdPaths.contains(MARATHON_PATH + "/app-1"));
+        assertTrue(createdPaths.contains(MARATHON_PATH + "/app-4"));
+        //sequentially this would take at least 8 * 500 ms
+        assertTrue("took " + elapsedMillis + " ms", elapsedMillis < 3000);
+    }
+
+    @Test
+    public void testReportsFailedApps() throws Exception {
+        final File configDirectory = createConfigDirectory("app-1", "app-2");
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if ("GET".equals(request.getMethod())) {
+                    return new MockResponse().setResponseCode(
+                            request.getPath().endsWith("app-2") ? 500 : 404);
+                }
+                return new MockResponse().setResponseCode(200);
+            }
+        });
+        thrown.expect(MojoFailureException.class);
+        thrown.expectMessage("/app-2");
+
+        final DeployAllMojo mojo = lookupDeployAllMojo(configDirectory);
+        assertNotNull(mojo);
+
+        try {
+            mojo.execute();
+        } finally {
+            //the healthy app is deployed regardless of the failing one
+            assertEquals(3, server.getRequestCount());
+        }
+    }
+
+    @Test
+    public void testDeploysInDependencyOrder() throws Exception {
+        final File configDirectory = new File(getTestPath("target/deploy-all"));
+        FileUtils.deleteDirectory(configDirectory);
+        writeConfig(configDirectory, "a-web", "api");
+        writeConfig(configDirectory, "api", "/group/db", "/elsewhere/cache");
+        writeConfig(configDirectory, "db");
+        writeConfig(configDirectory, "worker", "../group/db");
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if ("POST".equals(request.getMethod())) {
+                    final String appId = ModelUtils.GSON.fromJson(
+                            request.getBody().readUtf8(), App.class).getId();
+                    events.add("create " + appId);
+                    return new MockResponse().setResponseCode(201).setBody("{ \"id\": \""
+                            + appId + "\", \"deployments\": [ { \"id\": \"d" + appId
+                            + "\" } ] }");
+                } else if (request.getPath().endsWith("?embed=app.deployments&embed=app.counts")) {
+                    events.add("deployments");
+                    return new MockResponse().setResponseCode(200).setBody("{ \"app\": { "
+                            + "\"deployments\": [] } }");
+                }
+                return new MockResponse().setResponseCode(404);
+            }
+        });
+        final PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("marathonHost", getMarathonHost());
+        pluginCfg.addChild("marathonConfigDirectory", configDirectory.getPath());
+        pluginCfg.addChild("deployInDependencyOrder", "true");
+
+        lookupMarathonMojo("deploy-all", pluginCfg).execute();
+
+        assertEquals(0, events.indexOf("create /group/db"));
+        final int api = events.indexOf("create /group/api");
+        final int worker = events.indexOf("create /group/worker");
+        final int web = events.indexOf("create /group/a-web");
+        //each level waited for its deployments before the next level started
+        assertEquals("deployments", events.get(1));
+        assertTrue(api > 1 && worker > 1);
+        assertTrue(events.subList(Math.max(api, worker), web).contains("deployments"));
+        //the last level is not waited for
+        assertEquals(web, events.size() - 1);
+    }
+
+    @Test
+    public void testStopsWhenDependedOnLevelTimesOut() throws Exception {
+        final File configDirectory = new File(getTestPath("target/deploy-all"));
+        FileUtils.deleteDirectory(configDirectory);
+        writeConfig(configDirectory, "api", "/group/db");
+        writeConfig(configDirectory, "db");
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if ("POST".equals(request.getMethod())) {
+                    final String appId = ModelUtils.GSON.fromJson(
+                            request.getBody().readUtf8(), App.class).getId();
+                    events.add("create " + appId);
+                    return new MockResponse().setResponseCode(201).setBody("{ \"id\": \""
+                            + appId + "\", \"deployments\": [ { \"id\": \"d1\" } ] }");
+                } else if (request.getPath().endsWith("?embed=app.deployments&embed=app.counts")) {
+                    //the deployment of db never finishes
+                    return new MockResponse().setResponseCode(200).setBody("{ \"app\": { "
+                            + "\"deployments\": [ { \"id\": \"d1\" } ] } }");
+                }
+                return new MockResponse().setResponseCode(404);
+            }
+        });
+        thrown.expect(MojoFailureException.class);
+        thrown.expectMessage("/group/db");
+
+        final PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("marathonHost", getMarathonHost());
+        pluginCfg.addChild("marathonConfigDirectory", configDirectory.getPath());
+        pluginCfg.addChild("deployInDependencyOrder", "true");
+        pluginCfg.addChild("waitForDeploymentTimeout", "1");
+
+        try {
+            lookupMarathonMojo("deploy-all", pluginCfg).execute();
+        } finally {
+            //without failOnDeploymentTimeout the timeout still kept api from being deployed
+            assertEquals(Collections.singletonList("create /group/db"), events);
+        }
+    }
+
+    @Test
+    public void testDetectsDependencyCycles() throws Exception {
+        final File configDirectory = new File(getTestPath("target/deploy-all"));
+        FileUtils.deleteDirectory(configDirectory);
+        writeConfig(configDirectory, "a", "/group/b");
+        writeConfig(configDirectory, "b", "/group/c");
+        writeConfig(configDirectory, "c", "/group/a");
+        writeConfig(configDirectory, "d");
+        thrown.expect(MojoExecutionException.class);
+        thrown.expectMessage("cycle");
+
+        final PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("marathonHost", getMarathonHost());
+        pluginCfg.addChild("marathonConfigDirectory", configDirectory.getPath());
+        pluginCfg.addChild("deployInDependencyOrder", "true");
+        try {
+            lookupMarathonMojo("deploy-all", pluginCfg).execute();
+        } finally {
+            assertEquals(0, server.getRequestCount());
+        }
+    }
+
+}
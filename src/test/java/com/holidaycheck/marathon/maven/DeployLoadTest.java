@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import com.google.common.base.Charsets;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.squareup.okhttp.mockwebserver.Dispatcher;
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import mesosphere.marathon.client.model.v2.App;
+import mesosphere.marathon.client.utils.ModelUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.plugin.Mojo;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.configuration.DefaultPlexusConfiguration;
+import org.codehaus.plexus.configuration.PlexusConfiguration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs many deploy and apptasks goals concurrently against a slow and flaky Marathon and
+ * reports throughput, goal latency percentiles, threads and heap usage.
+ *
+ * Not part of the default build, run with {@code mvn test -Pload-tests}. The load can be
+ * tuned with {@code -DloadTest.concurrency}, {@code -DloadTest.goals},
+ * {@code -DloadTest.latencyMillis}, {@code -DloadTest.errorRate} and
+ * {@code -DloadTest.deploymentMillis}. Reports are written to {@code target/load-tests}.
+ */
+public class DeployLoadTest extends AbstractMarathonMojoTestWithJUnit4 {
+
+    private static final int CONCURRENCY = Integer.getInteger("loadTest.concurrency", 50);
+    private static final int GOALS = Integer.getInteger("loadTest.goals", 200);
+    private static final long LATENCY_MILLIS = Long.getLong("loadTest.latencyMillis", 50L);
+    private static final double ERROR_RATE = Double.parseDouble(
+            System.getProperty("loadTest.errorRate", "0.05"));
+    private static final long DEPLOYMENT_MILLIS = Long.getLong("loadTest.deploymentMillis",
+            1500L);
+
+    @Rule
+    public final MockWebServer server = new MockWebServer();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final SlowMarathon marathon = new SlowMarathon();
+
+    private String getMarathonHost() {
+        return StringUtils.removeEnd(server.url("").toString(), "/");
+    }
+
+    @Test
+    public void testConcurrentDeploys() throws Exception {
+        server.setDispatcher(marathon);
+        final List<Mojo> goals = new ArrayList<>();
+        for (int i = 0; i < GOALS; i++) {
+            goals.add(lookupGoal("deploy", "/load/app-" + i,
+                    "waitForDeploymentFinished", "true",
+                    "waitForDeploymentTimeout", "60",
+                    "failOnDeploymentTimeout", "true"));
+        }
+
+        assertEquals(GOALS, run("deploy", goals));
+    }
+
+    @Test
+    public void testConcurrentAppTasks() throws Exception {
+        server.setDispatcher(marathon);
+        final List<Mojo> goals = new ArrayList<>();
+        for (int i = 0; i < GOALS; i++) {
+            final String appId = "/load/app-" + i;
+            marathon.deployed.put(appId, 0L);
+            goals.add(lookupGoal("apptasks", appId, "propertyPrefix", "mesos-"));
+        }
+
+        assertEquals(GOALS, run("apptasks", goals));
+    }
+
+    private Mojo lookupGoal(String goal, String appId, String... config) throws Exception {
+        final File configFile = folder.newFile();
+        Files.write(configFile.toPath(), ("{ \"id\": \"" + appId + "\", \"instances\": 2, "
+                + "\"cpus\": 0.1, \"mem\": 64 }").getBytes(Charsets.UTF_8));
+        final PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("marathonHost", getMarathonHost());
+        pluginCfg.addChild("finalMarathonConfigFile", configFile.getPath());
+        pluginCfg.addChild("marathonRetries", "5");
+        pluginCfg.addChild("marathonRetryInitialDelay", "100");
+        pluginCfg.addChild("marathonCircuitBreakerThreshold", "1000");
+        pluginCfg.addChild("marathonMaxIdleConnections", String.valueOf(CONCURRENCY));
+        for (int i = 0; i < config.length; i += 2) {
+            pluginCfg.addChild(config[i], config[i + 1]);
+        }
+        final Mojo mojo = lookupMarathonMojo(goal, pluginCfg);
+        setVariableValueToObject(mojo, "project", new MavenProject());
+        return mojo;
+    }
+
+    /**
+     * Executes the goals concurrently and writes a report.
+     * @return the number of goals which succeeded
+     */
+    private int run(String name, List<Mojo> goals) throws Exception {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        threads.resetPeakThreadCount();
+        final int threadsBefore = threads.getThreadCount();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(CONCURRENCY);
+        final long start = System.nanoTime();
+        final List<Future<Long>> executions = new ArrayList<>();
+        for (Mojo goal : goals) {
+            executions.add(executor.submit(() -> {
+                final long goalStart = System.nanoTime();
+                goal.execute();
+                return System.nanoTime() - goalStart;
+            }));
+        }
+        final List<Long> latencies = new ArrayList<>();
+        final List<String> failures = new ArrayList<>();
+        for (Future<Long> execution : executions) {
+            try {
+                latencies.add(execution.get());
+            } catch (Exception e) {
+                failures.add(String.valueOf(e.getCause()));
+            }
+        }
+        final long wallNanos = System.nanoTime() - start;
+        executor.shutdown();
+
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+        final JsonObject json = new JsonObject();
+        json.addProperty("goal", name);
+        json.addProperty("goals", goals.size());
+        json.addProperty("concurrency", CONCURRENCY);
+        json.addProperty("latencyMillis", LATENCY_MILLIS);
+        json.addProperty("errorRate", ERROR_RATE);
+        json.addProperty("deploymentMillis", DEPLOYMENT_MILLIS);
+        json.addProperty("succeeded", latencies.size());
+        json.addProperty("failed", failures.size());
+        json.addProperty("requests", server.getRequestCount());
+        json.addProperty("injectedErrors", marathon.injectedErrors.size());
+        json.addProperty("throughputPerSecond",
+                goals.size() / (wallNanos / (double) TimeUnit.SECONDS.toNanos(1)));
+        json.addProperty("p50Millis", percentile(latencies, 0.50));
+        json.addProperty("p99Millis", percentile(latencies, 0.99));
+        json.addProperty("maxMillis", percentile(latencies, 1.0));
+        json.addProperty("threadsBefore", threadsBefore);
+        json.addProperty("peakThreads", threads.getPeakThreadCount());
+        json.addProperty("peakHeapBytes", peakHeap);
+        final String reportJson = new GsonBuilder().setPrettyPrinting().create().toJson(json);
+        System.out.println("Load test report: " + reportJson);
+        final File reportFile = new File(getTestPath("target/load-tests"), name + ".json");
+        reportFile.getParentFile().mkdirs();
+        Files.write(reportFile.toPath(), reportJson.getBytes(Charsets.UTF_8));
+        if (!failures.isEmpty()) {
+            System.out.println("First failures: "
+                    + failures.subList(0, Math.min(5, failures.size())));
+        }
+        return latencies.size();
+    }
+
+    private static long percentile(List<Long> latencies, double percentile) {
+        if (latencies.isEmpty()) {
+            return 0;
+        }
+        final List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        final int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+        return TimeUnit.NANOSECONDS.toMillis(sorted.get(Math.max(index, 0)));
+    }
+
+    /**
+     * A Marathon which answers every request late, fails some of them with a 503 and takes
+     * its time to finish deployments.
+     */
+    private static final class SlowMarathon extends Dispatcher {
+        /**
+         * When the deployment of each app finishes, by app id.
+         */
+        private final Map<String, Long> deployed = new ConcurrentHashMap<>();
+        private final List<String> injectedErrors = Collections.synchronizedList(
+                new ArrayList<String>());
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            final MockResponse response = respond(request);
+            return response.setBodyDelay(LATENCY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        private MockResponse respond(RecordedRequest request) {
+            if (ThreadLocalRandom.current().nextDouble() < ERROR_RATE) {
+                injectedErrors.add(request.getPath());
+                return new MockResponse().setResponseCode(503);
+            }
+            final String path = request.getPath();
+            if (path.equals("/v2/apps") && request.getMethod().equals("POST")) {
+                final String appId = ModelUtils.GSON.fromJson(
+                        request.getBody().readUtf8(), App.class).getId();
+                deployed.put(appId, System.currentTimeMillis() + DEPLOYMENT_MILLIS);
+                return json("{ \"id\": \"" + appId + "\", \"deployments\": [ { \"id\": \""
+                        + deploymentId(appId) + "\" } ] }");
+            } else if (path.startsWith("/v2/apps/") && path.endsWith("/tasks")) {
+                final String appId = path.substring("/v2/apps".length(),
+                        path.length() - "/tasks".length());
+                return json("{ \"tasks\": [ " + task(appId, 0) + ", " + task(appId, 1)
+                        + " ] }");
+            } else if (path.equals("/v2/deployments")) {
+                final List<String> deployments = new ArrayList<>();
+                for (Map.Entry<String, Long> app : deployed.entrySet()) {
+                    if (app.getValue() > System.currentTimeMillis()) {
+                        deployments.add("{ \"id\": \"" + deploymentId(app.getKey())
+                                + "\", \"currentStep\": 1, \"totalSteps\": 1 }");
+                    }
+                }
+                return json("[ " + StringUtils.join(deployments, ", ") + " ]");
+            } else if (path.startsWith("/v2/apps/")) {
+                final String appId = StringUtils.substringBefore(
+                        path.substring("/v2/apps".length()), "?");
+                final Long deployedUntil = deployed.get(appId);
+                if (deployedUntil == null) {
+                    return new MockResponse().setResponseCode(404);
+                }
+                return json("{ \"app\": { \"id\": \"" + appId + "\", \"instances\": 2, "
+                        + "\"tasksRunning\": 2, \"deployments\": [ "
+                        + (deployedUntil > System.currentTimeMillis()
+                                ? "{ \"id\": \"" + deploymentId(appId) + "\" }" : "")
+                        + " ] } }");
+            }
+            return new MockResponse().setResponseCode(404);
+        }
+
+        private static String deploymentId(String appId) {
+            return "deployment" + appId.replace('/', '-');
+        }
+
+        private static String task(String appId, int index) {
+            return "{ \"id\": \"" + appId.replace('/', '_') + "." + index + "\", \"appId\": \""
+                    + appId + "\", \"host\": \"agent-" + index + "\", \"ports\": [ "
+                    + (31000 + index) + " ] }";
+        }
+
+        private static MockResponse json(String body) {
+            return new MockResponse().setResponseCode(200)
+                    .setHeader("Content-Type", "application/json")
+                    .setBody(body);
+        }
+    }
+
+}
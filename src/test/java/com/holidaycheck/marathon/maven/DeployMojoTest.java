@@ -22,21 +22,35 @@
 package com.holidaycheck.marathon.maven;
 
 
+import com.squareup.okhttp.mockwebserver.Dispatcher;
 import com.squareup.okhttp.mockwebserver.MockResponse;
 import com.squareup.okhttp.mockwebserver.MockWebServer;
 import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import mesosphere.marathon.client.model.v2.App;
 import mesosphere.marathon.client.utils.MarathonException;
 import mesosphere.marathon.client.utils.ModelUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.configuration.DefaultPlexusConfiguration;
 import org.codehaus.plexus.configuration.PlexusConfiguration;
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.GzipSink;
+import okio.GzipSource;
+import okio.Okio;
 
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.util.Properties;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -47,12 +61,19 @@ public class DeployMojoTest extends AbstractMarathonMojoTestWithJUnit4 {
 
     private static final String APP_ID = "/example-1";
     private static final String MARATHON_PATH = "/v2/apps";
+    private static final String WAIT_PATH = MARATHON_PATH + APP_ID
+            + "?embed=app.deployments&embed=app.counts";
 
     @Rule
     public final ExpectedException thrown = ExpectedException.none();
     @Rule
     public final MockWebServer server = new MockWebServer();
 
+    @Before
+    public void clearDeployCache() throws Exception {
+        FileUtils.deleteDirectory(getTestPath("target/deploy-cache"));
+    }
+
     private String getMarathonHost() {
         return StringUtils.removeEnd(server.url("").toString(), "/");
     }
@@ -116,6 +137,348 @@ public class DeployMojoTest extends AbstractMarathonMojoTestWithJUnit4 {
         assertEquals(APP_ID, requestApp.getId());
     }
 
+    private static final String DEPLOYED_APP = "{ \"app\": { \"id\": \"" + APP_ID + "\", "
+            + "\"container\": { \"type\": \"DOCKER\", \"docker\": { "
+            + "\"image\": \"docker-registry.your.org/test/example\", \"network\": \"BRIDGE\", "
+            + "\"forcePullImage\": false, \"privileged\": false, \"portMappings\": [ "
+            + "{ \"containerPort\": 7070, \"hostPort\": 0, \"servicePort\": 10000, "
+            + "\"protocol\": \"tcp\" }, "
+            + "{ \"containerPort\": 7071, \"hostPort\": 0, \"servicePort\": 10001, "
+            + "\"protocol\": \"tcp\" } ] } }, "
+            + "\"env\": { \"_JAVA_OPTIONS\": \"-Xms64m -Xmx128m -XX:MaxPermSize=64m\", "
+            + "\"PATH_PREFIX\": \"/example\" }, "
+            + "\"instances\": 1, \"cpus\": 0.5, \"mem\": 256.0, \"ports\": [ 10000, 10001 ], "
+            + "\"requirePorts\": false, \"backoffSeconds\": 1, \"backoffFactor\": 1.15, "
+            + "\"upgradeStrategy\": { \"minimumHealthCapacity\": 1.0, "
+            + "\"maximumOverCapacity\": 1.0 }, "
+            + "\"healthChecks\": [ { \"protocol\": \"HTTP\", \"portIndex\": 0, "
+            + "\"path\": \"/example/v1.0/healthcheck\", \"gracePeriodSeconds\": 3, "
+            + "\"intervalSeconds\": 10, \"timeoutSeconds\": 10, "
+            + "\"maxConsecutiveFailures\": 5, \"ignoreHttp1xx\": false } ], "
+            + "\"version\": \"2016-05-01T10:00:00.000Z\", \"tasksRunning\": 1, "
+            + "\"tasksHealthy\": 1, \"deployments\": [], "
+            + "\"tasks\": [ { \"id\": \"example-1.1\", \"host\": \"agent-1\" } ] } }";
+
+    @Test
+    public void testDeploySkippedForUnchangedApp() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(DEPLOYED_APP));
+
+        final DeployMojo mojo = lookupDeployMojo();
+        assertNotNull(mojo);
+
+        mojo.execute();
+
+        assertEquals(1, server.getRequestCount());
+
+        RecordedRequest getAppRequest = server.takeRequest();
+        assertEquals(MARATHON_PATH + APP_ID, getAppRequest.getPath());
+        assertEquals("GET", getAppRequest.getMethod());
+    }
+
+    private String writeConfigWithPorts(String ports) throws Exception {
+        final File config = new File(getTestPath("target/ports"), "marathon.json");
+        config.getParentFile().mkdirs();
+        FileUtils.fileWrite(config.getPath(), FileUtils.fileRead(getTestMarathonConfigFile())
+                .replace("\"instances\": 1,", "\"instances\": 1, \"ports\": " + ports + ","));
+        return config.getPath();
+    }
+
+    @Test
+    public void testDeploySkippedForUnchangedAppWithAssignedPorts() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(DEPLOYED_APP));
+
+        lookupDeployMojo(writeConfigWithPorts("[ 0, 0 ]")).execute();
+
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void testDeployUpdatesAppWithChangedFixedPort() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(DEPLOYED_APP));
+        server.enqueue(new MockResponse().setResponseCode(200));
+
+        lookupDeployMojo(writeConfigWithPorts("[ 0, 10005 ]")).execute();
+
+        assertEquals(2, server.getRequestCount());
+        server.takeRequest();
+        assertEquals("PUT", server.takeRequest().getMethod());
+    }
+
+    @Test
+    public void testDeployUpdatesChangedApp() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBody(DEPLOYED_APP.replace("\"instances\": 1", "\"instances\": 3")));
+        server.enqueue(new MockResponse().setResponseCode(200));
+
+        final DeployMojo mojo = lookupDeployMojo();
+        assertNotNull(mojo);
+
+        mojo.execute();
+
+        assertEquals(2, server.getRequestCount());
+
+        assertEquals("GET", server.takeRequest().getMethod());
+        RecordedRequest updateAppRequest = server.takeRequest();
+        assertEquals(MARATHON_PATH + APP_ID + "?force=false", updateAppRequest.getPath());
+        assertEquals("PUT", updateAppRequest.getMethod());
+    }
+
+    @Test
+    public void testUpsertDeploysWithSinglePut() throws Exception {
+        final UUID deploymentId = UUID.randomUUID();
+        server.enqueue(new MockResponse().setResponseCode(201)
+                .setBody("{ \"deploymentId\": \"" + deploymentId + "\", "
+                        + "\"version\": \"2016-01-01T00:00:00.000Z\" }")); //create or update
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBody(deployingApp(null))); //get the app without deployments
+
+        final PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("marathonHost", getMarathonHost());
+        pluginCfg.addChild("finalMarathonConfigFile", getTestMarathonConfigFile());
+        pluginCfg.addChild("upsert", "true");
+        pluginCfg.addChild("waitForDeploymentFinished", "true");
+        final DeployMojo mojo = (DeployMojo) lookupMarathonMojo("deploy", pluginCfg);
+        assertNotNull(mojo);
+
+        mojo.execute();
+
+        assertEquals(2, server.getRequestCount());
+        RecordedRequest upsertRequest = server.takeRequest();
+        assertEquals("PUT", upsertRequest.getMethod());
+        assertEquals(MARATHON_PATH + APP_ID + "?force=false", upsertRequest.getPath());
+        App requestApp = ModelUtils.GSON.fromJson(upsertRequest.getBody().readUtf8(), App.class);
+        assertEquals(APP_ID, requestApp.getId());
+        //only a deployment id read from the response is waited for
+        assertEquals(WAIT_PATH, server.takeRequest().getPath());
+    }
+
+    @Test
+    public void testDeployWaitsForDeploymentInProgressOfUnchangedApp() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(DEPLOYED_APP
+                .replace("\"deployments\": []", "\"deployments\": [ { \"id\": \"d0\" } ]")));
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBody(deployingApp(null))); //the earlier deployment finished
+
+        final PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("marathonHost", getMarathonHost());
+        pluginCfg.addChild("finalMarathonConfigFile", getTestMarathonConfigFile());
+        pluginCfg.addChild("waitForDeploymentFinished", "true");
+        lookupMarathonMojo("deploy", pluginCfg).execute();
+
+        assertEquals(2, server.getRequestCount());
+        assertEquals("GET", server.takeRequest().getMethod());
+        assertEquals(WAIT_PATH, server.takeRequest().getPath());
+    }
+
+    @Test
+    public void testDeployUpdatesUnchangedAppForcingImagePull() throws Exception {
+        final File config = new File(getTestPath("target/force-pull"), "marathon.json");
+        config.getParentFile().mkdirs();
+        FileUtils.fileWrite(config.getPath(), FileUtils.fileRead(getTestMarathonConfigFile())
+                .replace("\"network\": \"BRIDGE\",",
+                        "\"network\": \"BRIDGE\", \"forcePullImage\": true,"));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(DEPLOYED_APP
+                .replace("\"forcePullImage\": false", "\"forcePullImage\": true")));
+        server.enqueue(new MockResponse().setResponseCode(200));
+
+        lookupDeployMojo(config.getPath()).execute();
+
+        assertEquals(2, server.getRequestCount());
+        assertEquals("GET", server.takeRequest().getMethod());
+        assertEquals("PUT", server.takeRequest().getMethod());
+    }
+
+    @Test
+    public void testDeployUpdatesUnchangedAppIfNotSkipped() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(DEPLOYED_APP));
+        server.enqueue(new MockResponse().setResponseCode(200));
+
+        final PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("marathonHost", getMarathonHost());
+        pluginCfg.addChild("finalMarathonConfigFile", getTestMarathonConfigFile());
+        pluginCfg.addChild("skipUnchangedApps", "false");
+        final DeployMojo mojo = (DeployMojo) lookupMarathonMojo("deploy", pluginCfg);
+        assertNotNull(mojo);
+
+        mojo.execute();
+
+        assertEquals(2, server.getRequestCount());
+        assertEquals("GET", server.takeRequest().getMethod());
+        assertEquals("PUT", server.takeRequest().getMethod());
+    }
+
+    @Test
+    public void testDeployReadsGzipResponses() throws Exception {
+        final Buffer compressed = new Buffer();
+        try (BufferedSink sink = Okio.buffer(new GzipSink(compressed))) {
+            sink.writeUtf8(DEPLOYED_APP);
+        }
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .addHeader("Content-Encoding", "gzip")
+                .setBody(compressed));
+
+        final DeployMojo mojo = lookupDeployMojo();
+        assertNotNull(mojo);
+
+        mojo.execute();
+
+        //the app is only found unchanged if the response was decompressed
+        assertEquals(1, server.getRequestCount());
+        assertEquals("gzip", server.takeRequest().getHeader("Accept-Encoding"));
+    }
+
+    @Test
+    public void testDeployCompressesLargeRequests() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(404));
+        server.enqueue(new MockResponse().setResponseCode(200));
+
+        final PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("marathonHost", getMarathonHost());
+        pluginCfg.addChild("finalMarathonConfigFile", getTestMarathonConfigFile());
+        pluginCfg.addChild("marathonGzipRequestThreshold", "100");
+        final DeployMojo mojo = (DeployMojo) lookupMarathonMojo("deploy", pluginCfg);
+        assertNotNull(mojo);
+
+        mojo.execute();
+
+        assertEquals(2, server.getRequestCount());
+        assertNull(server.takeRequest().getHeader("Content-Encoding"));
+        RecordedRequest createAppRequest = server.takeRequest();
+        assertEquals("POST", createAppRequest.getMethod());
+        assertEquals("gzip", createAppRequest.getHeader("Content-Encoding"));
+        App requestApp = ModelUtils.GSON.fromJson(
+                Okio.buffer(new GzipSource(createAppRequest.getBody())).readUtf8(), App.class);
+        assertEquals(APP_ID, requestApp.getId());
+    }
+
+    private DeployMojo lookupCachingDeployMojo(String... extraConfig) throws Exception {
+        final PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("marathonHost", getMarathonHost());
+        pluginCfg.addChild("finalMarathonConfigFile", getTestMarathonConfigFile());
+        pluginCfg.addChild("deployCache", "true");
+        pluginCfg.addChild("deployCacheDirectory", getTestPath("target/deploy-cache"));
+        for (int i = 0; i < extraConfig.length; i += 2) {
+            pluginCfg.addChild(extraConfig[i], extraConfig[i + 1]);
+        }
+        return (DeployMojo) lookupMarathonMojo("deploy", pluginCfg);
+    }
+
+    private static MockResponse appVersion(String version) {
+        return new MockResponse().setResponseCode(200)
+                .setBody("{ \"app\": { \"id\": \"" + APP_ID + "\", \"version\": \"" + version
+                        + "\" } }");
+    }
+
+    @Test
+    public void testDeployCacheSkipsRepeatedDeploy() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(404)); //does the app exist
+        server.enqueue(new MockResponse().setResponseCode(200)); //create the app
+        server.enqueue(appVersion("v1")); //version to remember
+        server.enqueue(appVersion("v1")); //version still matches
+        server.enqueue(new MockResponse().setResponseCode(404)); //does the app exist
+        server.enqueue(new MockResponse().setResponseCode(200)); //create the app
+        server.enqueue(appVersion("v2")); //version to remember
+
+        lookupCachingDeployMojo("waitForDeploymentFinished", "true").execute();
+        assertEquals(3, server.getRequestCount());
+
+        lookupCachingDeployMojo("waitForDeploymentFinished", "true").execute();
+        assertEquals(4, server.getRequestCount());
+
+        lookupCachingDeployMojo("waitForDeploymentFinished", "true", "forceDeploy", "true")
+                .execute();
+        assertEquals(7, server.getRequestCount());
+    }
+
+    @Test
+    public void testDeployCacheExpires() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(404));
+        server.enqueue(new MockResponse().setResponseCode(200));
+        server.enqueue(appVersion("v1"));
+        server.enqueue(new MockResponse().setResponseCode(404));
+        server.enqueue(new MockResponse().setResponseCode(200));
+        server.enqueue(appVersion("v2"));
+
+        lookupCachingDeployMojo("waitForDeploymentFinished", "true").execute();
+        lookupCachingDeployMojo("waitForDeploymentFinished", "true", "deployCacheTtl", "0")
+                .execute();
+
+        assertEquals(6, server.getRequestCount());
+    }
+
+    @Test
+    public void testDeployCacheVerifiesVersion() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200)); //does the app exist
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBody("{ \"version\": \"v1\", \"deploymentId\": \"d1\" }")); //update
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBody(deployingApp(null))); //deployment finished
+        server.enqueue(appVersion("v1"));
+        server.enqueue(appVersion("v2"));
+        server.enqueue(new MockResponse().setResponseCode(200)); //does the app exist
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBody("{ \"version\": \"v3\", \"deploymentId\": \"d2\" }")); //update
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBody(deployingApp(null))); //deployment finished
+
+        lookupCachingDeployMojo("waitForDeploymentFinished", "true").execute();
+        assertEquals(3, server.getRequestCount());
+
+        //version still matches
+        lookupCachingDeployMojo("waitForDeploymentFinished", "true").execute();
+        assertEquals(4, server.getRequestCount());
+
+        //app has been changed in the meantime
+        lookupCachingDeployMojo("waitForDeploymentFinished", "true").execute();
+        assertEquals(8, server.getRequestCount());
+    }
+
+    @Test
+    public void testDeployCacheForgetsUnconfirmedDeploys() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200)); //does the app exist
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBody("{ \"version\": \"v1\", \"deploymentId\": \"d1\" }")); //update
+        server.enqueue(new MockResponse().setResponseCode(200)); //does the app exist
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBody("{ \"version\": \"v1\", \"deploymentId\": \"d1\" }")); //update
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBodyDelay(2, TimeUnit.SECONDS)
+                .setBody("{ \"app\": { \"id\": \"" + APP_ID + "\", "
+                        + "\"deployments\": [ { \"id\": \"d1\" } ] } }")); //still deploying
+        server.enqueue(new MockResponse().setResponseCode(200)); //does the app exist
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBody("{ \"version\": \"v1\", \"deploymentId\": \"d1\" }")); //update
+
+        //not waited for
+        lookupCachingDeployMojo().execute();
+        assertEquals(2, server.getRequestCount());
+
+        //timed out while waiting
+        lookupCachingDeployMojo("waitForDeploymentFinished", "true",
+                "waitForDeploymentTimeout", "1").execute();
+        assertEquals(5, server.getRequestCount());
+
+        lookupCachingDeployMojo().execute();
+        assertEquals(7, server.getRequestCount());
+    }
+
+    @Test
+    public void testConsecutiveDeploysReuseConnection() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200));
+        server.enqueue(new MockResponse().setResponseCode(200));
+        server.enqueue(new MockResponse().setResponseCode(200));
+        server.enqueue(new MockResponse().setResponseCode(200));
+
+        lookupDeployMojo().execute();
+        lookupDeployMojo().execute();
+
+        assertEquals(4, server.getRequestCount());
+        for (int i = 0; i < 4; i++) {
+            //sequence number counts the requests served on the same connection
+            assertEquals(i, server.takeRequest().getSequenceNumber());
+        }
+    }
+
     @Test
     public void testDeployFailedDueToMissingMarathonConfigFile() throws Exception {
         thrown.expect(MojoExecutionException.class);
@@ -193,6 +556,153 @@ public class DeployMojoTest extends AbstractMarathonMojoTestWithJUnit4 {
         assertEquals("PUT", updateAppRequest.getMethod());
     }
     
+    private DeployMojo lookupRetryingDeployMojo(String... extraConfig) throws Exception {
+        final PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("marathonHost", getMarathonHost());
+        pluginCfg.addChild("finalMarathonConfigFile", getTestMarathonConfigFile());
+        pluginCfg.addChild("marathonRetryInitialDelay", "10");
+        for (int i = 0; i < extraConfig.length; i += 2) {
+            pluginCfg.addChild(extraConfig[i], extraConfig[i + 1]);
+        }
+        return (DeployMojo) lookupMarathonMojo("deploy", pluginCfg);
+    }
+
+    @Test
+    public void testDeployRetriesUnavailableMarathon() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503)); //leader election
+        server.enqueue(new MockResponse().setResponseCode(404)); //does the app exist
+        server.enqueue(new MockResponse().setResponseCode(201)); //create the app
+
+        lookupRetryingDeployMojo().execute();
+
+        assertEquals(3, server.getRequestCount());
+        assertEquals("GET", server.takeRequest().getMethod());
+        assertEquals("GET", server.takeRequest().getMethod());
+        assertEquals("POST", server.takeRequest().getMethod());
+    }
+
+    @Test
+    public void testDeployRetriesLockedApp() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(DEPLOYED_APP));
+        server.enqueue(new MockResponse().setResponseCode(409)); //locked by deployment
+        server.enqueue(new MockResponse().setResponseCode(200)); //update the app
+
+        lookupRetryingDeployMojo("skipUnchangedApps", "false").execute();
+
+        assertEquals(3, server.getRequestCount());
+        server.takeRequest();
+        assertEquals("PUT", server.takeRequest().getMethod());
+        assertEquals("PUT", server.takeRequest().getMethod());
+    }
+
+    @Test
+    public void testDeployDoesNotRetryConflictingCreate() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(404)); //does the app exist
+        server.enqueue(new MockResponse().setResponseCode(409)); //created in the meantime
+        thrown.expect(MojoExecutionException.class);
+
+        try {
+            lookupRetryingDeployMojo().execute();
+        } finally {
+            assertEquals(2, server.getRequestCount());
+        }
+    }
+
+    @Test
+    public void testCircuitBreakerSuspendsCalls() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        try {
+            lookupRetryingDeployMojo("marathonRetries", "0",
+                    "marathonCircuitBreakerThreshold", "1",
+                    "marathonCircuitBreakerOpenTime", "2").execute();
+            fail("Expected the deploy to fail");
+        } catch (MojoExecutionException expected) {
+            assertEquals(1, server.getRequestCount());
+        }
+        thrown.expect(MojoExecutionException.class);
+
+        try {
+            lookupRetryingDeployMojo("marathonRetries", "0",
+                    "marathonCircuitBreakerThreshold", "1",
+                    "marathonCircuitBreakerOpenTime", "2").execute();
+        } finally {
+            //the breaker kept the second deploy from calling Marathon
+            assertEquals(1, server.getRequestCount());
+        }
+    }
+
+    private static String leaderResponse(MockWebServer leader) {
+        return "{ \"leader\": \"" + leader.url("").host() + ":" + leader.getPort() + "\" }";
+    }
+
+    private DeployMojo lookupMultiHostDeployMojo(MockWebServer... instances) throws Exception {
+        final StringBuilder marathonHost = new StringBuilder();
+        for (MockWebServer instance : instances) {
+            if (marathonHost.length() > 0) {
+                marathonHost.append(", ");
+            }
+            marathonHost.append(StringUtils.removeEnd(instance.url("").toString(), "/"));
+        }
+        final PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("marathonHost", marathonHost.toString());
+        pluginCfg.addChild("finalMarathonConfigFile", getTestMarathonConfigFile());
+        pluginCfg.addChild("marathonRetryInitialDelay", "10");
+        return (DeployMojo) lookupMarathonMojo("deploy", pluginCfg);
+    }
+
+    @Test
+    public void testDeploySendsCallsToDiscoveredLeader() throws Exception {
+        final MockWebServer leader = new MockWebServer();
+        leader.start();
+        try {
+            server.enqueue(new MockResponse().setResponseCode(200)
+                    .setBody(leaderResponse(leader)));
+            leader.enqueue(new MockResponse().setResponseCode(404)); //does the app exist
+            leader.enqueue(new MockResponse().setResponseCode(201)); //create the app
+
+            lookupMultiHostDeployMojo(server, leader).execute();
+
+            assertEquals(1, server.getRequestCount());
+            assertEquals("/v2/leader", server.takeRequest().getPath());
+            assertEquals(2, leader.getRequestCount());
+            assertEquals(MARATHON_PATH + APP_ID, leader.takeRequest().getPath());
+            assertEquals(MARATHON_PATH, leader.takeRequest().getPath());
+        } finally {
+            leader.shutdown();
+        }
+    }
+
+    @Test
+    public void testDeployFailsOverWhenLeaderIsGone() throws Exception {
+        final MockWebServer leader = new MockWebServer();
+        leader.start();
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(leaderResponse(leader)));
+        leader.enqueue(new MockResponse().setResponseCode(404)); //does the app exist
+        leader.enqueue(new MockResponse().setResponseCode(201)); //create the app
+        lookupMultiHostDeployMojo(server, leader).execute();
+        assertEquals(2, leader.getRequestCount());
+        leader.shutdown();
+
+        //the former follower took over
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(leaderResponse(server)));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(DEPLOYED_APP));
+        lookupMultiHostDeployMojo(server, leader).execute();
+
+        assertEquals(3, server.getRequestCount());
+        assertEquals("/v2/leader", server.takeRequest().getPath());
+        assertEquals("/v2/leader", server.takeRequest().getPath());
+        assertEquals(MARATHON_PATH + APP_ID, server.takeRequest().getPath());
+    }
+
+    /**
+     * Response of the app polled while waiting, with the given deployment or none if null.
+     */
+    private static String deployingApp(UUID deploymentId) {
+        return "{ \"app\": { \"id\": \"" + APP_ID + "\", \"deployments\": [ "
+                + (deploymentId == null ? "" : "{ \"id\": \"" + deploymentId + "\" }")
+                + " ] } }";
+    }
+
     @Test
     public void testDeployWithWait() throws Exception {
         final UUID deploymentId = UUID.randomUUID();
@@ -201,20 +711,28 @@ public class DeployMojoTest extends AbstractMarathonMojoTestWithJUnit4 {
         server.enqueue(new MockResponse().setResponseCode(200)
             .setBody("{ \"id\": \"" + APP_ID + "\", \"deployments\": [ { \"id\": \"" + deploymentId + "\" } ] }")); //create the app
         server.enqueue(new MockResponse().setResponseCode(200)
-                .setBody("[ { \"affectedApps\": [ \"" + APP_ID + "\" ], \"id\": \"" + deploymentId + "\" } ]")); //get the current deployments containing ids
+                .setBody("{ \"app\": { \"id\": \"" + APP_ID + "\", \"instances\": 2, "
+                        + "\"tasksStaged\": 1, \"tasksRunning\": 1, \"tasksHealthy\": 0, "
+                        + "\"deployments\": [ { \"id\": \"" + deploymentId + "\" } ] } }")); //get the app with its deployments
         server.enqueue(new MockResponse().setResponseCode(200)
-                .setBody("[]")); //get the current deployments excluding ids
+                .setBody("[ { \"affectedApps\": [ \"" + APP_ID + "\" ], \"id\": \"" + deploymentId + "\", "
+                        + "\"currentStep\": 1, \"totalSteps\": 1, "
+                        + "\"currentActions\": [ { \"action\": \"StartApplication\", \"app\": \"" + APP_ID + "\" } ] } ]")); //get the steps of the deployment
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBody("{ \"app\": { \"id\": \"" + APP_ID + "\", \"instances\": 2, "
+                        + "\"tasksRunning\": 2, \"deployments\": [] } }")); //get the app without deployments
 
         final PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
         pluginCfg.addChild("marathonHost", getMarathonHost());
         pluginCfg.addChild("finalMarathonConfigFile", getTestMarathonConfigFile());
         pluginCfg.addChild("waitForDeploymentFinished", "true");
+        pluginCfg.addChild("logDeploymentSteps", "true");
         final DeployMojo mojo = (DeployMojo) lookupMarathonMojo("deploy", pluginCfg);
         assertNotNull(mojo);
 
         mojo.execute();
 
-        assertEquals(4, server.getRequestCount());
+        assertEquals(5, server.getRequestCount());
 
         RecordedRequest getAppRequest = server.takeRequest();
         assertEquals(MARATHON_PATH + APP_ID, getAppRequest.getPath());
@@ -227,15 +745,60 @@ public class DeployMojoTest extends AbstractMarathonMojoTestWithJUnit4 {
         assertNotNull(requestApp);
         assertEquals(APP_ID, requestApp.getId());
         
-        RecordedRequest getDeploymentsRequest1 = server.takeRequest();
-        assertEquals("/v2/deployments", getDeploymentsRequest1.getPath());
-        assertEquals("GET", getDeploymentsRequest1.getMethod());
-        
-        RecordedRequest getDeploymentsRequest2 = server.takeRequest();
-        assertEquals("/v2/deployments", getDeploymentsRequest2.getPath());
-        assertEquals("GET", getDeploymentsRequest2.getMethod());
+        RecordedRequest waitRequest1 = server.takeRequest();
+        assertEquals(WAIT_PATH, waitRequest1.getPath());
+        assertEquals("GET", waitRequest1.getMethod());
+
+        RecordedRequest getDeploymentsRequest = server.takeRequest();
+        assertEquals("/v2/deployments", getDeploymentsRequest.getPath());
+        assertEquals("GET", getDeploymentsRequest.getMethod());
+
+        RecordedRequest waitRequest2 = server.takeRequest();
+        assertEquals(WAIT_PATH, waitRequest2.getPath());
+        assertEquals("GET", waitRequest2.getMethod());
     }
     
+    @Test
+    public void testDeployReportsTimings() throws Exception {
+        final UUID deploymentId = UUID.randomUUID();
+        server.enqueue(new MockResponse().setResponseCode(404)); //does the app exist
+        server.enqueue(new MockResponse().setResponseCode(200)
+            .setBody("{ \"id\": \"" + APP_ID + "\", \"deployments\": [ { \"id\": \"" + deploymentId + "\" } ] }")); //create the app
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBody(deployingApp(deploymentId))); //get the app with its deployments
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBody(deployingApp(null))); //get the app without deployments
+
+        final File timingsFile = new File(getTestPath("target/timings"), "marathon-timings.json");
+        timingsFile.delete();
+        final PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("marathonHost", getMarathonHost());
+        pluginCfg.addChild("finalMarathonConfigFile", getTestMarathonConfigFile());
+        pluginCfg.addChild("waitForDeploymentFinished", "true");
+        pluginCfg.addChild("marathonTimingsFile", timingsFile.getPath());
+        final DeployMojo mojo = (DeployMojo) lookupMarathonMojo("deploy", pluginCfg);
+        final MavenProject project = new MavenProject();
+        setVariableValueToObject(mojo, "project", project);
+
+        mojo.execute();
+
+        final JsonObject deploy = new JsonParser().parse(FileUtils.fileRead(timingsFile))
+                .getAsJsonObject().getAsJsonObject("deploy");
+        assertEquals(APP_ID, deploy.get("appId").getAsString());
+        final JsonObject phases = deploy.getAsJsonObject("phasesMillis");
+        assertTrue(phases.has("appExists"));
+        assertTrue(phases.has("createApp"));
+        assertTrue(phases.get("waitForApp").getAsDouble() >= 1000.0);
+        assertEquals(2, deploy.getAsJsonObject("counters").get("waitForApp.polls").getAsInt());
+        //the cluster wide deployments list is left alone unless steps are logged
+        assertFalse(deploy.getAsJsonObject("counters").has("waitForApp.deploymentSteps"));
+
+        final Properties properties = project.getProperties();
+        assertNotNull(properties.getProperty("marathon.timings.deploy.appExists"));
+        assertNotNull(properties.getProperty("marathon.timings.deploy.total"));
+        assertEquals("2", properties.getProperty("marathon.timings.deploy.waitForApp.polls"));
+    }
+
     @Test
     public void testDeployWithTimeout() throws Exception {
         final UUID deploymentId = UUID.randomUUID();
@@ -243,11 +806,9 @@ public class DeployMojoTest extends AbstractMarathonMojoTestWithJUnit4 {
         server.enqueue(new MockResponse().setResponseCode(404)); //does the app exist
         server.enqueue(new MockResponse().setResponseCode(200)
             .setBody("{ \"id\": \"" + APP_ID + "\", \"deployments\": [ { \"id\": \"" + deploymentId + "\" } ] }")); //create the app
-        final String deploymentsBody = "[ { \"affectedApps\": [ \"" + APP_ID 
-                + "\" ], \"id\": \"" + deploymentId + "\" } ]";
         server.enqueue(new MockResponse().setResponseCode(200)
                 .setBodyDelay(2, TimeUnit.SECONDS) //take two seconds for the response
-                .setBody(deploymentsBody)); //get the current deployments containing ids
+                .setBody(deployingApp(deploymentId))); //get the app with its deployments
 
         final PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
         pluginCfg.addChild("marathonHost", getMarathonHost());
@@ -272,9 +833,194 @@ public class DeployMojoTest extends AbstractMarathonMojoTestWithJUnit4 {
         assertNotNull(requestApp);
         assertEquals(APP_ID, requestApp.getId());
         
-        RecordedRequest getDeploymentsRequest1 = server.takeRequest();
-        assertEquals("/v2/deployments", getDeploymentsRequest1.getPath());
-        assertEquals("GET", getDeploymentsRequest1.getMethod());
+        RecordedRequest waitRequest = server.takeRequest();
+        assertEquals(WAIT_PATH, waitRequest.getPath());
+        assertEquals("GET", waitRequest.getMethod());
+    }
+
+    @Test
+    public void testDeployFailsOnTimeout() throws Exception {
+        final UUID deploymentId = UUID.randomUUID();
+
+        server.enqueue(new MockResponse().setResponseCode(404)); //does the app exist
+        server.enqueue(new MockResponse().setResponseCode(200)
+            .setBody("{ \"id\": \"" + APP_ID + "\", \"deployments\": [ { \"id\": \"" + deploymentId + "\" } ] }")); //create the app
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBodyDelay(2, TimeUnit.SECONDS) //take two seconds for the response
+                .setBody(deployingApp(deploymentId)));
+
+        final PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("marathonHost", getMarathonHost());
+        pluginCfg.addChild("finalMarathonConfigFile", getTestMarathonConfigFile());
+        pluginCfg.addChild("waitForDeploymentFinished", "true");
+        pluginCfg.addChild("waitForDeploymentTimeout", "1");
+        pluginCfg.addChild("failOnDeploymentTimeout", "true");
+        final DeployMojo mojo = (DeployMojo) lookupMarathonMojo("deploy", pluginCfg);
+
+        try {
+            mojo.execute();
+            fail("Expected MojoFailureException");
+        } catch (MojoFailureException e) {
+            assertTrue(e.getMessage().contains(deploymentId.toString()));
+        }
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void testDeployWithEventStreamWait() throws Exception {
+        final UUID deploymentId = UUID.randomUUID();
+
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().startsWith("/v2/events")) {
+                    return new MockResponse().setResponseCode(200)
+                            .setHeader("Content-Type", "text/event-stream")
+                            .setBody("event: status_update_event\n"
+                                    + "data: {\"eventType\": \"status_update_event\", "
+                                    + "\"appId\": \"" + APP_ID + "\", \"taskId\": \"t1\", "
+                                    + "\"taskStatus\": \"TASK_RUNNING\"}\n\n"
+                                    + "event: deployment_success\n"
+                                    + "data: {\"eventType\": \"deployment_success\", "
+                                    + "\"id\": \"" + deploymentId + "\"}\n\n");
+                } else if ("GET".equals(request.getMethod())) {
+                    return new MockResponse().setResponseCode(404);
+                } else {
+                    return new MockResponse().setResponseCode(200)
+                            .setBody("{ \"id\": \"" + APP_ID + "\", \"deployments\": "
+                                    + "[ { \"id\": \"" + deploymentId + "\" } ] }");
+                }
+            }
+        });
+
+        final PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("marathonHost", getMarathonHost());
+        pluginCfg.addChild("finalMarathonConfigFile", getTestMarathonConfigFile());
+        pluginCfg.addChild("waitForDeploymentFinished", "true");
+        pluginCfg.addChild("waitForDeploymentUsingEvents", "true");
+        final DeployMojo mojo = (DeployMojo) lookupMarathonMojo("deploy", pluginCfg);
+        assertNotNull(mojo);
+
+        mojo.execute();
+
+        assertEquals(3, server.getRequestCount());
+
+        RecordedRequest eventsRequest = server.takeRequest();
+        assertTrue(eventsRequest.getPath().startsWith("/v2/events"));
+        assertEquals("text/event-stream", eventsRequest.getHeader("Accept"));
+
+        RecordedRequest getAppRequest = server.takeRequest();
+        assertEquals(MARATHON_PATH + APP_ID, getAppRequest.getPath());
+
+        RecordedRequest createAppRequest = server.takeRequest();
+        assertEquals(MARATHON_PATH, createAppRequest.getPath());
+        assertEquals("POST", createAppRequest.getMethod());
+    }
+
+    @Test
+    public void testDeployFallsBackToPollingWhenEventStreamEnds() throws Exception {
+        final UUID deploymentId = UUID.randomUUID();
+
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (request.getPath().startsWith("/v2/events")) {
+                    //the stream ends while the deployment is being waited for
+                    return new MockResponse().setResponseCode(200)
+                            .setHeader("Content-Type", "text/event-stream")
+                            .throttleBody(64, 500, TimeUnit.MILLISECONDS)
+                            .setBody("event: status_update_event\n"
+                                    + "data: {\"eventType\": \"status_update_event\", "
+                                    + "\"appId\": \"" + APP_ID + "\", \"taskId\": \"t1\", "
+                                    + "\"taskStatus\": \"TASK_STAGING\"}\n\n");
+                } else if (WAIT_PATH.equals(request.getPath())) {
+                    return new MockResponse().setResponseCode(200).setBody(deployingApp(null));
+                } else if ("GET".equals(request.getMethod())) {
+                    return new MockResponse().setResponseCode(404);
+                } else {
+                    return new MockResponse().setResponseCode(200)
+                            .setBody("{ \"id\": \"" + APP_ID + "\", \"deployments\": "
+                                    + "[ { \"id\": \"" + deploymentId + "\" } ] }");
+                }
+            }
+        });
+
+        final PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("marathonHost", getMarathonHost());
+        pluginCfg.addChild("finalMarathonConfigFile", getTestMarathonConfigFile());
+        pluginCfg.addChild("waitForDeploymentFinished", "true");
+        pluginCfg.addChild("waitForDeploymentUsingEvents", "true");
+        pluginCfg.addChild("waitForDeploymentTimeout", "10");
+        pluginCfg.addChild("failOnDeploymentTimeout", "true");
+        final DeployMojo mojo = (DeployMojo) lookupMarathonMojo("deploy", pluginCfg);
+
+        final long start = System.currentTimeMillis();
+        mojo.execute();
+
+        //polling took over right away instead of after the timeout
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(4, server.getRequestCount());
+        assertTrue(server.takeRequest().getPath().startsWith("/v2/events"));
+        assertEquals(MARATHON_PATH + APP_ID, server.takeRequest().getPath());
+        assertEquals(MARATHON_PATH, server.takeRequest().getPath());
+        assertEquals(WAIT_PATH, server.takeRequest().getPath());
+    }
+
+    @Test
+    public void testDeployWithEventStreamWaitReportsFailedDeployment() throws Exception {
+        final UUID deploymentId = UUID.randomUUID();
+
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setHeader("Content-Type", "text/event-stream")
+                .setBody("event: deployment_failed\n"
+                        + "data: {\"eventType\": \"deployment_failed\", "
+                        + "\"id\": \"" + deploymentId + "\"}\n\n")); //event stream
+        server.enqueue(new MockResponse().setResponseCode(404)); //does the app exist
+        server.enqueue(new MockResponse().setResponseCode(200)
+            .setBody("{ \"id\": \"" + APP_ID + "\", \"deployments\": [ { \"id\": \"" + deploymentId + "\" } ] }")); //create the app
+        thrown.expect(MojoFailureException.class);
+
+        final PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("marathonHost", getMarathonHost());
+        pluginCfg.addChild("finalMarathonConfigFile", getTestMarathonConfigFile());
+        pluginCfg.addChild("waitForDeploymentFinished", "true");
+        pluginCfg.addChild("waitForDeploymentUsingEvents", "true");
+        final DeployMojo mojo = (DeployMojo) lookupMarathonMojo("deploy", pluginCfg);
+        assertNotNull(mojo);
+
+        mojo.execute();
+    }
+
+    @Test
+    public void testDeployWithEventStreamUnavailableFallsBackToPolling() throws Exception {
+        final UUID deploymentId = UUID.randomUUID();
+
+        server.enqueue(new MockResponse().setResponseCode(404)); //event stream not supported
+        server.enqueue(new MockResponse().setResponseCode(404)); //does the app exist
+        server.enqueue(new MockResponse().setResponseCode(200)
+            .setBody("{ \"id\": \"" + APP_ID + "\", \"deployments\": [ { \"id\": \"" + deploymentId + "\" } ] }")); //create the app
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBody(deployingApp(null))); //get the app without deployments
+
+        final PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("marathonHost", getMarathonHost());
+        pluginCfg.addChild("finalMarathonConfigFile", getTestMarathonConfigFile());
+        pluginCfg.addChild("waitForDeploymentFinished", "true");
+        pluginCfg.addChild("waitForDeploymentUsingEvents", "true");
+        final DeployMojo mojo = (DeployMojo) lookupMarathonMojo("deploy", pluginCfg);
+        assertNotNull(mojo);
+
+        mojo.execute();
+
+        assertEquals(4, server.getRequestCount());
+
+        assertTrue(server.takeRequest().getPath().startsWith("/v2/events"));
+        assertEquals(MARATHON_PATH + APP_ID, server.takeRequest().getPath());
+        assertEquals(MARATHON_PATH, server.takeRequest().getPath());
+
+        RecordedRequest waitRequest = server.takeRequest();
+        assertEquals(WAIT_PATH, waitRequest.getPath());
+        assertEquals("GET", waitRequest.getMethod());
     }
 
 }
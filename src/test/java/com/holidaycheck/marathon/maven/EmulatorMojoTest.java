@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+import mesosphere.marathon.client.model.v2.App;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.Mojo;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.configuration.DefaultPlexusConfiguration;
+import org.codehaus.plexus.configuration.PlexusConfiguration;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Properties;
+
+public class EmulatorMojoTest extends AbstractMarathonMojoTestWithJUnit4 {
+
+    private final MavenProject project = new MavenProject();
+
+    private String emulatorUrl;
+
+    @After
+    public void stopEmulator() {
+        final MarathonEmulator emulator = emulatorUrl == null
+                ? null : MarathonEmulator.forUrl(emulatorUrl);
+        if (emulator != null) {
+            emulator.close();
+        }
+    }
+
+    private Mojo lookupMojo(String goal, String... config) throws Exception {
+        final PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        for (int i = 0; i < config.length; i += 2) {
+            pluginCfg.addChild(config[i], config[i + 1]);
+        }
+        if (pluginCfg.getChild("finalMarathonConfigFile", false) == null) {
+            pluginCfg.addChild("finalMarathonConfigFile", getTestMarathonConfigFile());
+        }
+        final Mojo mojo = lookupMarathonMojo(goal, pluginCfg);
+        setVariableValueToObject(mojo, "project", project);
+        return mojo;
+    }
+
+    private void startEmulator() throws Exception {
+        lookupMojo("start-emulator", "emulatorDeploymentStepDuration", "50").execute();
+        emulatorUrl = project.getProperties().getProperty("marathonEmulator.url");
+        assertNotNull(emulatorUrl);
+    }
+
+    @Test
+    public void testDeployTasksAndDeleteAgainstEmulator() throws Exception {
+        startEmulator();
+
+        lookupMojo("deploy", "marathonHost", emulatorUrl,
+                "waitForDeploymentFinished", "true",
+                "failOnDeploymentTimeout", "true").execute();
+        lookupMojo("apptasks", "marathonHost", emulatorUrl,
+                "propertyPrefix", "mesos-").execute();
+
+        final Properties properties = project.getProperties();
+        assertTrue(properties.getProperty("mesos-host0").endsWith(".emulator"));
+        assertEquals("31000", properties.getProperty("mesos-port0-0"));
+        assertEquals("31001", properties.getProperty("mesos-port0-1"));
+        assertNull(properties.getProperty("mesos-host1"));
+
+        //the app is unchanged, so nothing gets deployed again
+        lookupMojo("deploy", "marathonHost", emulatorUrl,
+                "waitForDeploymentFinished", "true").execute();
+        assertEquals("31000", properties.getProperty("mesos-port0-0"));
+
+        lookupMojo("delete", "marathonHost", emulatorUrl).execute();
+        assertEquals(404, get("/v2/apps/example-1").code());
+
+        lookupMojo("stop-emulator", "emulatorUrl", emulatorUrl).execute();
+        assertNull(MarathonEmulator.forUrl(emulatorUrl));
+    }
+
+    private String writeConfig(String appId) throws Exception {
+        final File config = new File(getTestPath("target/emulator" + appId), "marathon.json");
+        config.getParentFile().mkdirs();
+        final App app = Utils.readApp(getTestMarathonConfigFile());
+        app.setId(appId);
+        Utils.writeApp(app, config.getPath());
+        return config.getPath();
+    }
+
+    @Test
+    public void testDeleteGroupAgainstEmulator() throws Exception {
+        startEmulator();
+        for (String appId : new String[] {"/shop/frontend", "/shop/backend", "/other"}) {
+            lookupMojo("deploy", "marathonHost", emulatorUrl,
+                    "finalMarathonConfigFile", writeConfig(appId)).execute();
+        }
+
+        lookupMojo("delete", "marathonHost", emulatorUrl, "groupId", "/shop",
+                "waitForDeploymentFinished", "true").execute();
+
+        assertEquals(404, get("/v2/apps/shop/frontend").code());
+        assertEquals(404, get("/v2/apps/shop/backend").code());
+        assertEquals(200, get("/v2/apps/other").code());
+        assertEquals("[]", get("/v2/deployments").body().string());
+    }
+
+    @Test
+    public void testDeployWaitsForEmulatedDeploymentEvents() throws Exception {
+        startEmulator();
+
+        lookupMojo("deploy", "marathonHost", emulatorUrl,
+                "waitForDeploymentFinished", "true",
+                "waitForDeploymentUsingEvents", "true",
+                "failOnDeploymentTimeout", "true").execute();
+
+        final Response tasks = get("/v2/tasks");
+        assertEquals(200, tasks.code());
+        assertTrue(tasks.body().string().contains("\"appId\":\"/example-1\""));
+        assertEquals("[]", get("/v2/deployments").body().string());
+    }
+
+    @Test
+    public void testStopEmulatorResolvesConfiguredUrlProperty() throws Exception {
+        lookupMojo("start-emulator", "emulatorUrlProperty", "it.marathon").execute();
+        emulatorUrl = project.getProperties().getProperty("it.marathon");
+        assertNotNull(MarathonEmulator.forUrl(emulatorUrl));
+
+        lookupMojo("stop-emulator", "emulatorUrlProperty", "it.marathon").execute();
+        assertNull(MarathonEmulator.forUrl(emulatorUrl));
+    }
+
+    @Test
+    public void testEmulatorStopsAtSessionEnd() throws Exception {
+        final MavenSession session = newMavenSession(project);
+        final Mojo mojo = lookupMojo("start-emulator");
+        setVariableValueToObject(mojo, "session", session);
+        mojo.execute();
+        emulatorUrl = project.getProperties().getProperty("marathonEmulator.url");
+        assertNotNull(MarathonEmulator.forUrl(emulatorUrl));
+
+        session.getRequest().getExecutionListener().sessionEnded(null);
+        assertNull(MarathonEmulator.forUrl(emulatorUrl));
+    }
+
+    @Test
+    public void testEventStreamSendsKeepAlives() throws Exception {
+        startEmulator();
+
+        final Response events = get("/v2/events");
+        assertEquals(200, events.code());
+        try (InputStream in = events.body().byteStream()) {
+            //an idle stream gets comments, which is how dropped clients are noticed
+            assertEquals(':', in.read());
+        }
+    }
+
+    private Response get(String path) throws Exception {
+        return new OkHttpClient().newCall(new Request.Builder().url(emulatorUrl + path).build())
+                .execute();
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class MarathonClientRegistryTest {
+
+    @Test
+    public void testSharesCircuitBreakerOfSameHostAndThresholds() {
+        assertSame(MarathonClientRegistry.getCircuitBreaker(settings("http://a:8080", 5, 1000L)),
+                MarathonClientRegistry.getCircuitBreaker(settings("http://a:8080", 5, 1000L)));
+    }
+
+    @Test
+    public void testSeparatesCircuitBreakersOfDifferentThresholds() {
+        final CircuitBreaker breaker =
+                MarathonClientRegistry.getCircuitBreaker(settings("http://b:8080", 5, 1000L));
+
+        assertNotSame(breaker,
+                MarathonClientRegistry.getCircuitBreaker(settings("http://b:8080", 3, 1000L)));
+        assertNotSame(breaker,
+                MarathonClientRegistry.getCircuitBreaker(settings("http://b:8080", 5, 2000L)));
+        assertNotSame(breaker,
+                MarathonClientRegistry.getCircuitBreaker(settings("http://c:8080", 5, 1000L)));
+    }
+
+    private static MarathonClientSettings settings(String host, int threshold, long openMillis) {
+        return new MarathonClientSettings(host, null, null, null, 1000, 1000, 5, 60, false, 0,
+                false, new RetryPolicy(0, 100L, 1000L, threshold, openMillis));
+    }
+
+}
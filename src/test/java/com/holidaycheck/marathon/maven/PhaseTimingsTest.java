@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+public class PhaseTimingsTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static PhaseTimings timings(String executionId, String appId) {
+        final PhaseTimings timings = new PhaseTimings("deploy");
+        timings.setExecutionId(executionId);
+        timings.setAppId(appId);
+        try (PhaseTimings.Phase ignored = timings.start("appExists")) {
+            timings.increment("waitForApp.polls");
+        }
+        return timings;
+    }
+
+    @Test
+    public void testKeepsTimingsOfSeveralExecutionsOfAGoal() throws Exception {
+        final File report = new File(folder.getRoot(), "timings/marathon-timings.json");
+        final Properties properties = new Properties();
+
+        for (PhaseTimings timings : new PhaseTimings[] {
+                timings("deploy-api", "/api"), timings("deploy-web", "/web")}) {
+            timings.exportProperties(properties, "marathon.timings.");
+            timings.writeReport(report);
+        }
+
+        final JsonObject root = new JsonParser().parse(new String(
+                Files.readAllBytes(report.toPath()), StandardCharsets.UTF_8)).getAsJsonObject();
+        assertEquals(2, root.entrySet().size());
+        assertEquals("/api", root.getAsJsonObject("deploy.deploy-api").get("appId").getAsString());
+        assertEquals("/web", root.getAsJsonObject("deploy.deploy-web").get("appId").getAsString());
+        assertEquals("deploy-web",
+                root.getAsJsonObject("deploy.deploy-web").get("executionId").getAsString());
+        assertNotNull(properties.getProperty("marathon.timings.deploy.deploy-api.appExists"));
+        assertEquals("1",
+                properties.getProperty("marathon.timings.deploy.deploy-web.waitForApp.polls"));
+        assertFalse(properties.containsKey("marathon.timings.deploy.appExists"));
+    }
+
+    @Test
+    public void testKeysTimingsOutsideOfABuildByGoal() {
+        assertEquals("deploy", timings(null, "/api").getKey());
+    }
+
+}
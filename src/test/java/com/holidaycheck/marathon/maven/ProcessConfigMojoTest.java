@@ -21,11 +21,21 @@
 
 package com.holidaycheck.marathon.maven;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
 import mesosphere.marathon.client.model.v2.App;
 
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
 import org.codehaus.plexus.configuration.DefaultPlexusConfiguration;
 import org.codehaus.plexus.configuration.PlexusConfiguration;
+import org.junit.Before;
 import org.junit.Test;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
 
 public class ProcessConfigMojoTest extends AbstractMarathonMojoTestWithJUnit4 {
 
@@ -36,13 +46,23 @@ public class ProcessConfigMojoTest extends AbstractMarathonMojoTestWithJUnit4 {
     }
 
     private ProcessConfigMojo lookupProcessConfigMojo() throws Exception {
+        return lookupProcessConfigMojo(IMAGE);
+    }
+
+    private ProcessConfigMojo lookupProcessConfigMojo(String image) throws Exception {
         PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
         pluginCfg.addChild("sourceMarathonConfigFile", getTestMarathonConfigFile());
         pluginCfg.addChild("finalMarathonConfigFile", getProcessedMarathonConfigFile());
-        pluginCfg.addChild("image", IMAGE);
+        pluginCfg.addChild("image", image);
         return (ProcessConfigMojo) lookupMarathonMojo("processConfig", pluginCfg);
     }
 
+    @Before
+    public void removeProcessedConfig() {
+        new File(getProcessedMarathonConfigFile()).delete();
+        new File(getProcessedMarathonConfigFile() + ".fingerprint").delete();
+    }
+
     @Test
     public void testProcessConfig() throws Exception {
         ProcessConfigMojo mojo = lookupProcessConfigMojo();
@@ -58,4 +78,288 @@ public class ProcessConfigMojoTest extends AbstractMarathonMojoTestWithJUnit4 {
         assertTrue(image.contains(IMAGE));
     }
 
+    @Test
+    public void testSkipsProcessingWhenInputsUnchanged() throws Exception {
+        lookupProcessConfigMojo().execute();
+        final File processed = new File(getProcessedMarathonConfigFile());
+        assertTrue(processed.setLastModified(1000L));
+
+        lookupProcessConfigMojo().execute();
+
+        assertEquals(1000L, processed.lastModified());
+    }
+
+    @Test
+    public void testReprocessesWhenImageChanged() throws Exception {
+        lookupProcessConfigMojo().execute();
+
+        lookupProcessConfigMojo("otherImageName").execute();
+
+        App app = Utils.readApp(getProcessedMarathonConfigFile());
+        assertEquals("otherImageName", app.getContainer().getDocker().getImage());
+    }
+
+    @Test
+    public void testReprocessesWhenOnlyImageChangedInIncrementalBuild() throws Exception {
+        lookupProcessConfigMojo().execute();
+
+        final ProcessConfigMojo mojo = lookupProcessConfigMojo("otherImageName");
+        setVariableValueToObject(mojo, "buildContext", new DefaultBuildContext() {
+            @Override
+            public boolean isIncremental() {
+                return true;
+            }
+
+            @Override
+            public boolean hasDelta(File file) {
+                return false;
+            }
+        });
+        mojo.execute();
+
+        App app = Utils.readApp(getProcessedMarathonConfigFile());
+        assertEquals("otherImageName", app.getContainer().getDocker().getImage());
+    }
+
+    @Test
+    public void testPreservesUnknownFieldsAndAppliesPatches() throws Exception {
+        final File source = new File(getTestPath("target"), "unknown-fields.json");
+        Files.write(source.toPath(), ("{ \"id\": \"/example-1\", \"instances\": 1, "
+                + "\"unreachableStrategy\": { \"expungeAfterSeconds\": 600 }, "
+                + "\"env\": { \"A\": \"a\" }, \"ports\": [ 0, 0 ] }")
+                .getBytes(StandardCharsets.UTF_8));
+        PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("sourceMarathonConfigFile", source.getPath());
+        pluginCfg.addChild("finalMarathonConfigFile", getProcessedMarathonConfigFile());
+        pluginCfg.addChild("image", IMAGE);
+        pluginCfg.addChild("id", "/example-2");
+        PlexusConfiguration patches = new DefaultPlexusConfiguration("configPatches");
+        patches.addChild("instances", "3");
+        patches.addChild("env.B", "b");
+        pluginCfg.addChild(patches);
+
+        lookupMarathonMojo("processConfig", pluginCfg).execute();
+
+        final JsonObject processed = new JsonParser().parse(new String(
+                Files.readAllBytes(new File(getProcessedMarathonConfigFile()).toPath()),
+                StandardCharsets.UTF_8)).getAsJsonObject();
+        assertEquals("/example-2", processed.get("id").getAsString());
+        assertTrue(processed.get("instances").getAsJsonPrimitive().isNumber());
+        assertEquals(3, processed.get("instances").getAsInt());
+        assertEquals(600, processed.getAsJsonObject("unreachableStrategy")
+                .get("expungeAfterSeconds").getAsInt());
+        assertEquals("a", processed.getAsJsonObject("env").get("A").getAsString());
+        assertEquals("b", processed.getAsJsonObject("env").get("B").getAsString());
+        assertEquals(2, processed.getAsJsonArray("ports").size());
+        assertEquals(IMAGE, processed.getAsJsonObject("container").getAsJsonObject("docker")
+                .get("image").getAsString());
+    }
+
+    @Test
+    public void testTypesValuesOfPathsMissingInSource() throws Exception {
+        final File source = new File(getTestPath("target"), "missing-fields.json");
+        Files.write(source.toPath(), "{ \"id\": \"/example-1\", \"env\": { \"A\": \"a\" } }"
+                .getBytes(StandardCharsets.UTF_8));
+        PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("sourceMarathonConfigFile", source.getPath());
+        pluginCfg.addChild("finalMarathonConfigFile", getProcessedMarathonConfigFile());
+        pluginCfg.addChild("image", IMAGE);
+        PlexusConfiguration patches = new DefaultPlexusConfiguration("configPatches");
+        patches.addChild("container.docker.forcePullImage", "true");
+        patches.addChild("instances", "3");
+        patches.addChild("cpus", "0.25");
+        patches.addChild("env.PORT", "8080");
+        pluginCfg.addChild(patches);
+
+        lookupMarathonMojo("processConfig", pluginCfg).execute();
+
+        final JsonObject processed = new JsonParser().parse(new String(
+                Files.readAllBytes(new File(getProcessedMarathonConfigFile()).toPath()),
+                StandardCharsets.UTF_8)).getAsJsonObject();
+        final JsonPrimitive forcePullImage = processed.getAsJsonObject("container")
+                .getAsJsonObject("docker").getAsJsonPrimitive("forcePullImage");
+        assertTrue(forcePullImage.isBoolean());
+        assertTrue(forcePullImage.getAsBoolean());
+        assertTrue(processed.getAsJsonPrimitive("instances").isNumber());
+        assertEquals(3, processed.get("instances").getAsInt());
+        assertTrue(processed.getAsJsonPrimitive("cpus").isNumber());
+        assertEquals(0.25, processed.get("cpus").getAsDouble(), 0.0);
+        assertTrue(processed.getAsJsonObject("env").getAsJsonPrimitive("PORT").isString());
+        assertEquals(IMAGE, processed.getAsJsonObject("container").getAsJsonObject("docker")
+                .get("image").getAsString());
+    }
+
+    @Test
+    public void testProcessesLenientConfig() throws Exception {
+        final File source = new File(getTestPath("target"), "lenient.json");
+        Files.write(source.toPath(), ("{\n  // deployed by the build\n"
+                + "  'id': '/example-1',\n  instances: 2,\n"
+                + "  \"container\": { \"docker\": { \"image\": 'old' } }\n}")
+                .getBytes(StandardCharsets.UTF_8));
+        PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("sourceMarathonConfigFile", source.getPath());
+        pluginCfg.addChild("finalMarathonConfigFile", getProcessedMarathonConfigFile());
+        pluginCfg.addChild("image", IMAGE);
+
+        lookupMarathonMojo("processConfig", pluginCfg).execute();
+
+        final App app = Utils.readApp(getProcessedMarathonConfigFile());
+        assertEquals("/example-1", app.getId());
+        assertEquals(2, app.getInstances().intValue());
+        assertEquals(IMAGE, app.getContainer().getDocker().getImage());
+    }
+
+    @Test
+    public void testRendersVariants() throws Exception {
+        final File staging = new File(getTestPath("target"), "variants/staging.json");
+        final File production = new File(getTestPath("target"), "variants/eu/production.json");
+        staging.getParentFile().mkdirs();
+        production.getParentFile().mkdirs();
+        staging.delete();
+        production.delete();
+        new File(getProcessedMarathonConfigFile()).delete();
+        PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("sourceMarathonConfigFile", getTestMarathonConfigFile());
+        pluginCfg.addChild("finalMarathonConfigFile", getProcessedMarathonConfigFile());
+        pluginCfg.addChild("image", IMAGE);
+        PlexusConfiguration variants = new DefaultPlexusConfiguration("variants");
+        PlexusConfiguration stagingVariant = new DefaultPlexusConfiguration("variant");
+        stagingVariant.addChild("outputFile", staging.getPath());
+        stagingVariant.addChild("id", "/staging/example-1");
+        variants.addChild(stagingVariant);
+        PlexusConfiguration productionVariant = new DefaultPlexusConfiguration("variant");
+        productionVariant.addChild("outputFile", production.getPath());
+        productionVariant.addChild("image", "releasedImageName");
+        productionVariant.addChild("instances", "4");
+        productionVariant.addChild("mem", "512");
+        PlexusConfiguration env = new DefaultPlexusConfiguration("env");
+        env.addChild("DATACENTER", "eu");
+        env.addChild("com.example.flag", "on");
+        productionVariant.addChild(env);
+        PlexusConfiguration constraints = new DefaultPlexusConfiguration("constraints");
+        constraints.addChild("constraint", "hostname:UNIQUE");
+        constraints.addChild("constraint", "dc:LIKE:eu-.*");
+        productionVariant.addChild(constraints);
+        variants.addChild(productionVariant);
+        pluginCfg.addChild(variants);
+
+        lookupMarathonMojo("processConfig", pluginCfg).execute();
+
+        assertFalse(new File(getProcessedMarathonConfigFile()).exists());
+        final App stagingApp = Utils.readApp(staging.getPath());
+        assertEquals("/staging/example-1", stagingApp.getId());
+        assertEquals(IMAGE, stagingApp.getContainer().getDocker().getImage());
+        assertEquals(Integer.valueOf(1), stagingApp.getInstances());
+
+        final JsonObject productionApp = new JsonParser().parse(new String(
+                Files.readAllBytes(production.toPath()), StandardCharsets.UTF_8))
+                .getAsJsonObject();
+        assertEquals("/example-1", productionApp.get("id").getAsString());
+        assertEquals("releasedImageName", productionApp.getAsJsonObject("container")
+                .getAsJsonObject("docker").get("image").getAsString());
+        assertEquals(4, productionApp.get("instances").getAsInt());
+        assertEquals(512, productionApp.get("mem").getAsInt());
+        assertEquals(0.5, productionApp.get("cpus").getAsDouble(), 0.0);
+        assertEquals("eu", productionApp.getAsJsonObject("env").get("DATACENTER").getAsString());
+        //a dotted name is a single variable rather than nested objects
+        assertEquals("on", productionApp.getAsJsonObject("env").get("com.example.flag")
+                .getAsString());
+        assertNull(productionApp.getAsJsonObject("env").get("com"));
+        assertEquals("/example", productionApp.getAsJsonObject("env").get("PATH_PREFIX")
+                .getAsString());
+        assertEquals("[[\"hostname\",\"UNIQUE\"],[\"dc\",\"LIKE\",\"eu-.*\"]]",
+                productionApp.getAsJsonArray("constraints").toString());
+    }
+
+    @Test
+    public void testTypesValuesOfPathsMissingInSourceInEveryVariant() throws Exception {
+        final File first = new File(getTestPath("target"), "variants/first.json");
+        final File second = new File(getTestPath("target"), "variants/second.json");
+        first.getParentFile().mkdirs();
+        first.delete();
+        second.delete();
+        PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("sourceMarathonConfigFile", getTestMarathonConfigFile());
+        pluginCfg.addChild("finalMarathonConfigFile", getProcessedMarathonConfigFile());
+        pluginCfg.addChild("image", IMAGE);
+        PlexusConfiguration patches = new DefaultPlexusConfiguration("configPatches");
+        patches.addChild("container.docker.forcePullImage", "true");
+        patches.addChild("backoffSeconds", "5");
+        pluginCfg.addChild(patches);
+        PlexusConfiguration variants = new DefaultPlexusConfiguration("variants");
+        PlexusConfiguration firstVariant = new DefaultPlexusConfiguration("variant");
+        firstVariant.addChild("outputFile", first.getPath());
+        variants.addChild(firstVariant);
+        PlexusConfiguration secondVariant = new DefaultPlexusConfiguration("variant");
+        secondVariant.addChild("outputFile", second.getPath());
+        secondVariant.addChild("id", "/example-2");
+        variants.addChild(secondVariant);
+        pluginCfg.addChild(variants);
+
+        lookupMarathonMojo("processConfig", pluginCfg).execute();
+
+        for (File variant : new File[] {first, second}) {
+            final JsonObject app = new JsonParser().parse(new String(
+                    Files.readAllBytes(variant.toPath()), StandardCharsets.UTF_8))
+                    .getAsJsonObject();
+            final JsonPrimitive forcePullImage = app.getAsJsonObject("container")
+                    .getAsJsonObject("docker").getAsJsonPrimitive("forcePullImage");
+            assertTrue(forcePullImage.isBoolean());
+            assertTrue(forcePullImage.getAsBoolean());
+            assertTrue(app.getAsJsonPrimitive("backoffSeconds").isNumber());
+            assertEquals(5, app.get("backoffSeconds").getAsInt());
+            assertEquals(2, app.getAsJsonObject("container").getAsJsonObject("docker")
+                    .getAsJsonArray("portMappings").size());
+            assertEquals(1, app.getAsJsonArray("healthChecks").size());
+        }
+        assertEquals("/example-1", Utils.readApp(first.getPath()).getId());
+        assertEquals("/example-2", Utils.readApp(second.getPath()).getId());
+    }
+
+    @Test
+    public void testMergesSourceOverBase() throws Exception {
+        final File base = new File(getTestPath("target"), "base-marathon.json");
+        Files.write(base.toPath(), ("{ \"id\": \"/base\", \"instances\": 2, "
+                + "\"upgradeStrategy\": { \"minimumHealthCapacity\": 0.5 }, "
+                + "\"env\": { \"A\": \"a\", \"B\": \"b\" }, "
+                + "\"labels\": { \"team\": \"shop\" }, "
+                + "\"constraints\": [ [ \"hostname\", \"UNIQUE\" ] ], "
+                + "\"portDefinitions\": [ { \"port\": 0, \"protocol\": \"tcp\" } ], "
+                + "\"healthChecks\": [ { \"protocol\": \"HTTP\", \"path\": \"/health\" } ] }")
+                .getBytes(StandardCharsets.UTF_8));
+        final File overlay = new File(getTestPath("target"), "overlay-marathon.json");
+        Files.write(overlay.toPath(), ("{ \"id\": \"/example-2\", "
+                + "\"env\": { \"B\": \"overridden\", \"C\": \"c\" }, "
+                + "\"labels\": { \"service\": \"example\" }, "
+                + "\"constraints\": null, "
+                + "\"portDefinitions\": [ { \"name\": \"http\" }, { \"port\": 0 } ] }")
+                .getBytes(StandardCharsets.UTF_8));
+        PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("baseMarathonConfigFile", base.getPath());
+        pluginCfg.addChild("sourceMarathonConfigFile", overlay.getPath());
+        pluginCfg.addChild("finalMarathonConfigFile", getProcessedMarathonConfigFile());
+        pluginCfg.addChild("image", IMAGE);
+
+        lookupMarathonMojo("processConfig", pluginCfg).execute();
+
+        final JsonObject processed = new JsonParser().parse(new String(
+                Files.readAllBytes(new File(getProcessedMarathonConfigFile()).toPath()),
+                StandardCharsets.UTF_8)).getAsJsonObject();
+        assertEquals("/example-2", processed.get("id").getAsString());
+        assertEquals(2, processed.get("instances").getAsInt());
+        assertEquals(0.5, processed.getAsJsonObject("upgradeStrategy")
+                .get("minimumHealthCapacity").getAsDouble(), 0.0);
+        assertEquals("{\"A\":\"a\",\"B\":\"overridden\",\"C\":\"c\"}",
+                processed.get("env").toString());
+        assertEquals("{\"team\":\"shop\",\"service\":\"example\"}",
+                processed.get("labels").toString());
+        assertFalse(processed.has("constraints"));
+        assertEquals("[{\"port\":0,\"protocol\":\"tcp\",\"name\":\"http\"},{\"port\":0}]",
+                processed.get("portDefinitions").toString());
+        assertEquals("/health", processed.getAsJsonArray("healthChecks").get(0)
+                .getAsJsonObject().get("path").getAsString());
+        assertEquals(IMAGE, processed.getAsJsonObject("container").getAsJsonObject("docker")
+                .get("image").getAsString());
+    }
+
 }
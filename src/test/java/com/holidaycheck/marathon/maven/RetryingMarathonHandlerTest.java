@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import feign.RetryableException;
+import mesosphere.marathon.client.model.v2.App;
+import mesosphere.marathon.client.model.v2.GetAppResponse;
+import mesosphere.marathon.client.utils.MarathonException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryingMarathonHandlerTest {
+
+    private static final RetryPolicy POLICY = new RetryPolicy(3, 0L, 0L, 100, 60000L);
+
+    private final CircuitBreaker circuitBreaker = new CircuitBreaker(100, 60000L);
+
+    @Test
+    public void testRetriesUnavailableAndThrottled() throws Exception {
+        final GetAppResponse response = new GetAppResponse();
+        final ScriptedMarathon target = new ScriptedMarathon(status(502), status(503),
+                status(429), response);
+
+        assertSame(response, wrap(target).getApp("app"));
+        assertEquals(4, target.calls);
+    }
+
+    @Test
+    public void testGivesUpAfterMaxRetries() throws Exception {
+        final ScriptedMarathon target = new ScriptedMarathon(status(504), status(504),
+                status(504), status(504), new GetAppResponse());
+
+        assertStatus(504, target, "app");
+        assertEquals(4, target.calls);
+    }
+
+    @Test
+    public void testDoesNotRetryClientErrors() throws Exception {
+        final ScriptedMarathon target = new ScriptedMarathon(status(404), new GetAppResponse());
+
+        assertStatus(404, target, "app");
+        assertEquals(1, target.calls);
+    }
+
+    @Test
+    public void testRetriesConflictExceptForPost() throws Exception {
+        final ScriptedMarathon getTarget = new ScriptedMarathon(status(409),
+                new GetAppResponse());
+        wrap(getTarget).getApp("app");
+        assertEquals(2, getTarget.calls);
+
+        final ScriptedMarathon postTarget = new ScriptedMarathon(status(409), new App());
+        try {
+            wrap(postTarget).createApp(new App());
+            fail("Expected the conflict to be thrown");
+        } catch (MarathonException e) {
+            assertEquals(409, e.getStatus());
+        }
+        assertEquals(1, postTarget.calls);
+    }
+
+    @Test
+    public void testRetriesTimeoutsOnlyForIdempotentCalls() throws Exception {
+        final ScriptedMarathon getTarget = new ScriptedMarathon(timeout(),
+                new GetAppResponse());
+        wrap(getTarget).getApp("app");
+        assertEquals(2, getTarget.calls);
+
+        final ScriptedMarathon postTarget = new ScriptedMarathon(timeout(), new App());
+        try {
+            wrap(postTarget).createApp(new App());
+            fail("Expected the timeout to be thrown");
+        } catch (RetryableException expected) {
+            assertEquals(1, postTarget.calls);
+        }
+    }
+
+    @Test
+    public void testRetriesConnectFailuresForAllCalls() throws Exception {
+        final App app = new App();
+        final ScriptedMarathon target = new ScriptedMarathon(new RetryableException(
+                "refused", new ConnectException("refused"), null), app);
+
+        assertSame(app, wrap(target).createApp(new App()));
+        assertEquals(2, target.calls);
+    }
+
+    @Test
+    public void testOpenCircuitBreakerRejectsCalls() throws Exception {
+        final CircuitBreaker breaker = new CircuitBreaker(1, 60000L);
+        final ScriptedMarathon target = new ScriptedMarathon(status(500),
+                new GetAppResponse());
+        final ExtendedMarathon marathon = RetryingMarathonHandler.wrap(target.proxy(),
+                new RetryPolicy(0, 0L, 0L, 1, 60000L), breaker);
+
+        assertStatus(500, marathon, "app");
+        assertTrue(breaker.isOpen());
+        try {
+            marathon.getApp("app");
+            fail("Expected the call to be rejected");
+        } catch (MarathonException e) {
+            assertEquals(503, e.getStatus());
+        }
+        assertEquals(1, target.calls);
+    }
+
+    @Test
+    public void testClientErrorsKeepCircuitBreakerClosed() throws Exception {
+        final CircuitBreaker breaker = new CircuitBreaker(1, 60000L);
+        final ScriptedMarathon target = new ScriptedMarathon(status(404));
+
+        try {
+            RetryingMarathonHandler.wrap(target.proxy(), POLICY, breaker).getApp("app");
+            fail("Expected the error to be thrown");
+        } catch (MarathonException expected) {
+            assertFalse(breaker.isOpen());
+        }
+    }
+
+    private ExtendedMarathon wrap(ScriptedMarathon target) {
+        return RetryingMarathonHandler.wrap(target.proxy(), POLICY, circuitBreaker);
+    }
+
+    private void assertStatus(int status, ScriptedMarathon target, String appId) {
+        assertStatus(status, wrap(target), appId);
+    }
+
+    private static void assertStatus(int status, ExtendedMarathon marathon, String appId) {
+        try {
+            marathon.getApp(appId);
+            fail("Expected a " + status);
+        } catch (MarathonException e) {
+            assertEquals(status, e.getStatus());
+        }
+    }
+
+    private static MarathonException status(int status) {
+        return new MarathonException(status, "status " + status);
+    }
+
+    private static RetryableException timeout() {
+        return new RetryableException("timeout", new SocketTimeoutException("timeout"), null);
+    }
+
+    /**
+     * Answers each call with the next of the given outcomes, throwing those which are
+     * exceptions.
+     */
+    private static final class ScriptedMarathon implements InvocationHandler {
+        private final Deque<Object> outcomes;
+        private int calls = 0;
+
+        private ScriptedMarathon(Object... outcomes) {
+            this.outcomes = new ArrayDeque<>(Arrays.asList(outcomes));
+        }
+
+        private ExtendedMarathon proxy() {
+            return (ExtendedMarathon) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[] {ExtendedMarathon.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            calls++;
+            final Object outcome = outcomes.poll();
+            if (outcome == null) {
+                throw new IOException("no more outcomes for " + method.getName());
+            }
+            if (outcome instanceof Throwable) {
+                throw (Throwable) outcome;
+            }
+            return outcome;
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2015 HolidayCheck AG.
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.holidaycheck.marathon.maven;
+
+import com.squareup.okhttp.mockwebserver.MockResponse;
+import com.squareup.okhttp.mockwebserver.MockWebServer;
+import com.squareup.okhttp.mockwebserver.RecordedRequest;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.codehaus.plexus.configuration.DefaultPlexusConfiguration;
+import org.codehaus.plexus.configuration.PlexusConfiguration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class ScaleMojoTest extends AbstractMarathonMojoTestWithJUnit4 {
+
+    private static final String APP_ID = "/example-1";
+    private static final String MARATHON_PATH = "/v2/apps";
+
+    @Rule
+    public final ExpectedException thrown = ExpectedException.none();
+    @Rule
+    public final MockWebServer server = new MockWebServer();
+
+    private ScaleMojo lookupScaleMojo(String... config) throws Exception {
+        final PlexusConfiguration pluginCfg = new DefaultPlexusConfiguration("configuration");
+        pluginCfg.addChild("marathonHost", StringUtils.removeEnd(server.url("").toString(), "/"));
+        pluginCfg.addChild("finalMarathonConfigFile", getTestMarathonConfigFile());
+        for (int i = 0; i < config.length; i += 2) {
+            pluginCfg.addChild(config[i], config[i + 1]);
+        }
+        return (ScaleMojo) lookupMarathonMojo("scale", pluginCfg);
+    }
+
+    private static String app(int instances, int tasksRunning, boolean deploying) {
+        return "{ \"app\": { \"id\": \"" + APP_ID + "\", \"instances\": " + instances
+                + ", \"tasksRunning\": " + tasksRunning + ", \"deployments\": [ "
+                + (deploying ? "{ \"id\": \"d1\" }" : "") + " ] } }";
+    }
+
+    @Test
+    public void testScaleSendsOnlyInstances() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBody("{ \"version\": \"v2\", \"deploymentId\": \"d1\" }"));
+
+        lookupScaleMojo("instances", "3").execute();
+
+        assertEquals(1, server.getRequestCount());
+        final RecordedRequest scaleRequest = server.takeRequest();
+        assertEquals("PUT", scaleRequest.getMethod());
+        assertEquals(MARATHON_PATH + APP_ID + "?force=false", scaleRequest.getPath());
+        assertEquals("{\"instances\":3}",
+                scaleRequest.getBody().readUtf8().replaceAll("\\s", ""));
+    }
+
+    @Test
+    public void testScaleByDeltaAndWait() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(app(2, 2, false)));
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBody("{ \"version\": \"v2\", \"deploymentId\": \"d1\" }"));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(app(5, 3, true)));
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(app(5, 5, false)));
+
+        lookupScaleMojo("instancesDelta", "3", "waitForScaled", "true").execute();
+
+        assertEquals(4, server.getRequestCount());
+        assertEquals("GET", server.takeRequest().getMethod());
+        final RecordedRequest scaleRequest = server.takeRequest();
+        assertEquals("PUT", scaleRequest.getMethod());
+        assertEquals("{\"instances\":5}",
+                scaleRequest.getBody().readUtf8().replaceAll("\\s", ""));
+    }
+
+    @Test
+    public void testScaleRejectsDeltaBelowZero() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200).setBody(app(3, 3, false)));
+        thrown.expect(MojoExecutionException.class);
+        thrown.expectMessage("-2 instances");
+
+        try {
+            lookupScaleMojo("instancesDelta", "-5").execute();
+        } finally {
+            //nothing is scaled
+            assertEquals(1, server.getRequestCount());
+        }
+    }
+
+    @Test
+    public void testScaleFailsOnTimeout() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBody("{ \"version\": \"v2\", \"deploymentId\": \"d1\" }"));
+        for (int i = 0; i < 5; i++) {
+            server.enqueue(new MockResponse().setResponseCode(200).setBody(app(3, 1, true)));
+        }
+        thrown.expect(MojoFailureException.class);
+        thrown.expectMessage("1 are running");
+
+        lookupScaleMojo("instances", "3", "waitForScaled", "true", "waitForScaledTimeout", "1",
+                "failOnScaleTimeout", "true").execute();
+    }
+
+    @Test
+    public void testScaleOnlyWarnsOnTimeoutByDefault() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(200)
+                .setBody("{ \"version\": \"v2\", \"deploymentId\": \"d1\" }"));
+        for (int i = 0; i < 5; i++) {
+            server.enqueue(new MockResponse().setResponseCode(200).setBody(app(3, 1, true)));
+        }
+
+        lookupScaleMojo("instances", "3", "waitForScaled", "true", "waitForScaledTimeout", "1")
+                .execute();
+
+        assertTrue(server.getRequestCount() >= 2);
+    }
+
+    @Test
+    public void testScaleRequiresInstances() throws Exception {
+        thrown.expect(MojoExecutionException.class);
+        thrown.expectMessage("instances");
+
+        lookupScaleMojo().execute();
+    }
+
+}